@@ -10,6 +10,44 @@ public interface ConfigHandler {
 
     public static final String CONFIG_DATA_DIRS = "data.dirs";
     public static final String CONFIG_DATA_SEGMENT_MAX_BYTES = "data.segment.maxBytes";
+    public static final String CONFIG_DATA_SEGMENT_MAX_AGE_MS = "data.segment.maxAgeMs";
+    public static final String CONFIG_DATA_SEGMENT_PREALLOCATE = "data.segment.preallocate";
+    public static final String CONFIG_DATA_SEGMENT_MAX_OPEN = "data.segment.maxOpen";
+    public static final String CONFIG_DATA_INDEX_MAX_BYTES = "data.index.maxBytes";
+    public static final String CONFIG_DATA_INDEX_INTERVAL_BYTES = "data.index.intervalBytes";
+    public static final String CONFIG_DATA_RECOVERY_THREADS = "data.recovery.threads";
+    public static final String CONFIG_DATA_CHECKSUM_VERIFY_ON_FETCH = "data.checksum.verifyOnFetch";
+    public static final String CONFIG_DATA_CHECKSUM_SCRUB_INTERVAL_MS = "data.checksum.scrubIntervalMs";
+    public static final String CONFIG_DATA_CHECKSUM_SCRUB_BYTES_PER_SEC = "data.checksum.scrubBytesPerSec";
+
+    public static final String CONFIG_LOG_FLUSH_MESSAGES = "log.flush.messages";
+    public static final String CONFIG_LOG_FLUSH_INTERVAL_MS = "log.flush.intervalMs";
+    public static final String CONFIG_LOG_FLUSH_TOPICS = "log.flush.topics";
+
+    public static final String CONFIG_LOG_RETENTION_MS = "log.retention.ms";
+    public static final String CONFIG_LOG_RETENTION_BYTES = "log.retention.bytes";
+    public static final String CONFIG_LOG_RETENTION_TOPICS = "log.retention.topics";
+    public static final String CONFIG_LOG_RETENTION_CHECK_INTERVAL_MS = "log.retention.checkIntervalMs";
+    public static final String CONFIG_LOG_RETENTION_FILE_DELETE_DELAY_MS = "log.retention.fileDeleteDelayMs";
+    public static final String CONFIG_LOG_RETENTION_DELETE_BYTES_PER_SEC = "log.retention.deleteBytesPerSec";
+
+    public static final String CONFIG_LOG_COMPACTION_TOPICS = "log.compaction.topics";
+    public static final String CONFIG_LOG_COMPACTION_DELETE_RETENTION_MS = "log.compaction.deleteRetentionMs";
+    public static final String CONFIG_LOG_COMPACTION_CHECK_INTERVAL_MS = "log.compaction.checkIntervalMs";
+    public static final String CONFIG_LOG_COMPACTION_OFFSET_MAP_BYTES = "log.compaction.offsetMapBytes";
+
+    public static final String CONFIG_SOCKET_REQUEST_MAX_BYTES = "socket.request.maxBytes";
+    public static final String CONFIG_SOCKET_RESPONSE_MAX_QUEUED_BYTES = "socket.response.maxQueuedBytes";
+
+    public static final String CONFIG_CHANNEL_PROCESSOR_SIZE = "channel.processor.size";
+    public static final String CONFIG_CHANNEL_PROCESSOR_REBALANCE_INTERVAL_MS = "channel.processor.rebalance.intervalMs";
+
+    public static final String CONFIG_STORE_SHARDS = "store.shards";
+    public static final String CONFIG_FETCH_THREADS = "fetch.threads";
+
+    public static final String CONFIG_DISRUPTOR_PINNING_ENABLED = "disruptor.pinning.enabled";
+
+    public static final String CONFIG_BUFFER_POOL_MAX_BYTES = "buffer.pool.maxBytes";
 
     public static final String CONFIG_CONSUL_AGENT_HOST = "consul.agent.host";
     public static final String CONFIG_CONSUL_AGENT_PORT = "consul.agent.port";
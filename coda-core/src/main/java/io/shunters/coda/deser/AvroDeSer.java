@@ -6,8 +6,12 @@ import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericDatumWriter;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.io.*;
+import org.apache.avro.util.ByteBufferInputStream;
 
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 
 /**
  * Created by mykidong on 2017-08-25.
@@ -57,6 +61,40 @@ public class AvroDeSer {
         }
     }
 
+    /**
+     * deserialize avro bytes from the position up to the limit of the buffer.
+     *
+     * @param schemaName
+     * @param buffer
+     * @return
+     */
+    public GenericRecord deserialize(String schemaName, ByteBuffer buffer) {
+        Schema schema = this.avroSchemaBuilder.getSchema(schemaName);
+
+        DatumReader<GenericRecord> reader = new GenericDatumReader<GenericRecord>(schema);
+        Decoder decoder = DecoderFactory.get().binaryDecoder(new ByteBufferInputStream(Collections.singletonList(buffer.duplicate())), null);
+
+        try {
+            GenericRecord genericRecord = reader.read(null, decoder);
+
+            return genericRecord;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void serialize(GenericRecord genericRecord, OutputStream out) {
+        Schema schema = genericRecord.getSchema();
+        try {
+            DatumWriter<GenericRecord> writer = new GenericDatumWriter<GenericRecord>(schema);
+            Encoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+            writer.write(genericRecord, encoder);
+            encoder.flush();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public byte[] serialize(GenericRecord genericRecord) {
         Schema schema = genericRecord.getSchema();
         try {
@@ -1,19 +1,31 @@
 package io.shunters.coda.deser;
 
+import io.shunters.coda.protocol.ApiKeyAvroSchemaMap;
 import io.shunters.coda.protocol.ClientServerSpec;
+import io.shunters.coda.util.BufferPool;
+import io.shunters.coda.util.PooledBufferOutputStream;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
 import org.xerial.snappy.Snappy;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Collection;
 
 /**
  * Created by mykidong on 2017-09-01.
  */
 public class MessageDeSer {
 
+    private static final int RESPONSE_HEADER_SIZE = 4 + 1 + 1;
+
+    private static final int INITIAL_RESPONSE_BUFFER_SIZE = 4 * 1024;
+
     private AvroDeSer avroDeSer;
 
+    private BufferPool bufferPool;
+
     private static MessageDeSer messageDeSer;
 
     private static final Object lock = new Object();
@@ -33,6 +45,7 @@ public class MessageDeSer {
     private MessageDeSer()
     {
         avroDeSer = AvroDeSer.getAvroDeSerSingleton();
+        bufferPool = BufferPool.singleton();
     }
 
 
@@ -84,36 +97,68 @@ public class MessageDeSer {
         byte[] bytes = new byte[bufferAndSize.getSize()];
         bufferAndSize.getByteBuffer().get(bytes);
 
+        bufferPool.release(bufferAndSize.getByteBuffer());
+
         return bytes;
     }
 
+    /**
+     * response buffer is borrowed from the buffer pool, it must be released to the buffer pool after it is sent.
+     *
+     * @param compressionCodec
+     * @param genericRecord
+     * @return
+     */
     public ByteBufferAndSize serializeResponseToByteBuffer(byte compressionCodec, GenericRecord genericRecord)
     {
+        // serialize avro after the space reserved for the response header.
+        PooledBufferOutputStream out = new PooledBufferOutputStream(bufferPool, INITIAL_RESPONSE_BUFFER_SIZE);
+        out.getBuffer().position(RESPONSE_HEADER_SIZE);
         try {
-            // serialize avro.
-            byte[] recordBytes = avroDeSer.serialize(genericRecord);
+            avroDeSer.serialize(genericRecord, out);
+        } catch (RuntimeException e) {
+            bufferPool.release(out.getBuffer());
 
-            if (compressionCodec == ClientServerSpec.COMPRESSION_CODEC_SNAPPY) {
-                // snappy compressed avro bytes.
-                recordBytes = Snappy.compress(recordBytes);
-            }
+            throw e;
+        }
 
-            // total message size.
-            int totalSize = (1 + 1) + recordBytes.length;
+        ByteBuffer buffer = out.getBuffer();
 
-            ByteBuffer buffer = ByteBuffer.allocate(4 + totalSize);
-            buffer.putInt(totalSize); // total size.
-            buffer.put(ClientServerSpec.MESSAGE_FORMAT_AVRO); // message format.
-            buffer.put(compressionCodec);
-            buffer.put(recordBytes); // produce request avro bytes.
+        if (compressionCodec == ClientServerSpec.COMPRESSION_CODEC_SNAPPY) {
+            ByteBuffer uncompressed = buffer;
+            uncompressed.flip();
+            uncompressed.position(RESPONSE_HEADER_SIZE);
 
-            buffer.rewind();
+            // snappy compressed avro bytes.
+            ByteBuffer compressed = bufferPool.allocate(RESPONSE_HEADER_SIZE + Snappy.maxCompressedLength(uncompressed.remaining()));
+            compressed.position(RESPONSE_HEADER_SIZE);
 
-            return new ByteBufferAndSize(buffer, 4 + totalSize);
-        }catch (IOException e)
-        {
-            throw new RuntimeException(e);
+            try {
+                int compressedSize = Snappy.compress(uncompressed, compressed);
+
+                compressed.limit(compressed.capacity());
+                compressed.position(RESPONSE_HEADER_SIZE + compressedSize);
+            } catch (IOException e) {
+                bufferPool.release(compressed);
+
+                throw new RuntimeException(e);
+            } finally {
+                bufferPool.release(uncompressed);
+            }
+
+            buffer = compressed;
         }
+
+        buffer.flip();
+
+        // total message size.
+        int totalSize = buffer.limit() - 4;
+
+        buffer.putInt(0, totalSize); // total size.
+        buffer.put(4, ClientServerSpec.MESSAGE_FORMAT_AVRO); // message format.
+        buffer.put(5, compressionCodec);
+
+        return new ByteBufferAndSize(buffer, buffer.limit());
     }
 
     public GenericRecord deserializeResponse(String schemaName, int totalSize, ByteBuffer buffer)
@@ -140,6 +185,113 @@ public class MessageDeSer {
 
     }
 
+    /**
+     * Zero copy response := TotalSize(4 Bytes) MessageFormat(1 Byte) CompressionCodec(1 Byte) HeaderSize(4 Bytes) Header RecordsBytes
+     * <p>
+     * header is not compressed and records bytes are the stored avro records which follow the header in the order of header entries.
+     * header buffer is borrowed from the buffer pool, it must be released to the buffer pool after it is sent.
+     *
+     * @param genericRecord response header record.
+     * @param recordsBytesSize size of the records bytes following the header.
+     * @return
+     */
+    public ByteBufferAndSize serializeZeroCopyResponseHeader(GenericRecord genericRecord, long recordsBytesSize)
+    {
+        // serialize avro.
+        byte[] headerBytes = avroDeSer.serialize(genericRecord);
+
+        // total message size.
+        long totalSize = (1 + 1 + 4) + headerBytes.length + recordsBytesSize;
+        if (totalSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Zero copy response size [" + totalSize + "] exceeds the maximum size.");
+        }
+
+        ByteBuffer buffer = bufferPool.allocate(4 + (1 + 1 + 4) + headerBytes.length);
+        buffer.putInt((int) totalSize); // total size.
+        buffer.put(ClientServerSpec.MESSAGE_FORMAT_AVRO); // message format.
+        buffer.put(ClientServerSpec.COMPRESSION_CODEC_NONE);
+        buffer.putInt(headerBytes.length); // header size.
+        buffer.put(headerBytes); // response header avro bytes.
+
+        buffer.flip();
+
+        return new ByteBufferAndSize(buffer, buffer.remaining());
+    }
+
+    /**
+     * deserialize zero copy fetch response to the same record as fetch response.
+     *
+     * @param totalSize
+     * @param buffer
+     * @return fetch response record.
+     */
+    public GenericRecord deserializeZeroCopyFetchResponse(int totalSize, ByteBuffer buffer)
+    {
+        ApiKeyAvroSchemaMap apiKeyAvroSchemaMap = ApiKeyAvroSchemaMap.getApiKeyAvroSchemaMapSingleton();
+
+        // fetch response schemas.
+        Schema fetchResponseSchema = apiKeyAvroSchemaMap.getSchema(ClientServerSpec.API_KEY_FETCH_RESPONSE);
+        Schema fetchResponseMessageArraySchema = fetchResponseSchema.getField("fetchResponseMessageArray").schema();
+        Schema fetchResponseMessageSchema = fetchResponseMessageArraySchema.getElementType();
+        Schema fetchResponseSubMessageArraySchema = fetchResponseMessageSchema.getField("fetchResponseSubMessageArray").schema();
+        Schema fetchResponseSubMessageSchema = fetchResponseSubMessageArraySchema.getElementType();
+        Schema recordsArraySchema = fetchResponseSubMessageSchema.getField("recordsArray").schema();
+
+        byte messageFormat = buffer.get();
+
+        byte compressionCodec = buffer.get();
+
+        int headerSize = buffer.getInt();
+        byte[] headerBytes = new byte[headerSize];
+        buffer.get(headerBytes);
+
+        GenericRecord header = avroDeSer.deserialize(ClientServerSpec.AVRO_SCHEMA_NAME_ZERO_COPY_FETCH_RESPONSE, headerBytes);
+
+        Collection<GenericRecord> zeroCopyFetchResponseMessageArray = (Collection<GenericRecord>) header.get("zeroCopyFetchResponseMessageArray");
+
+        GenericData.Array<GenericData.Record> fetchResponseMessageArray = new GenericData.Array<GenericData.Record>(zeroCopyFetchResponseMessageArray.size(), fetchResponseMessageArraySchema);
+
+        for (GenericRecord zeroCopyFetchResponseMessage : zeroCopyFetchResponseMessageArray) {
+            Collection<GenericRecord> zeroCopyFetchResponseSubMessageArray = (Collection<GenericRecord>) zeroCopyFetchResponseMessage.get("zeroCopyFetchResponseSubMessageArray");
+
+            GenericData.Array<GenericData.Record> fetchResponseSubMessageArray = new GenericData.Array<GenericData.Record>(zeroCopyFetchResponseSubMessageArray.size(), fetchResponseSubMessageArraySchema);
+
+            for (GenericRecord zeroCopyFetchResponseSubMessage : zeroCopyFetchResponseSubMessageArray) {
+                Collection<Integer> recordsSizeArray = (Collection<Integer>) zeroCopyFetchResponseSubMessage.get("recordsSizeArray");
+
+                // read stored records bytes.
+                GenericData.Array<GenericRecord> recordsArray = new GenericData.Array<>(recordsSizeArray.size(), recordsArraySchema);
+                for (int recordsSize : recordsSizeArray) {
+                    byte[] recordsBytes = new byte[recordsSize];
+                    buffer.get(recordsBytes);
+
+                    recordsArray.add(avroDeSer.deserialize(ClientServerSpec.AVRO_SCHEMA_NAME_RECORDS, recordsBytes));
+                }
+
+                GenericData.Record fetchResponseSubMessage = new GenericData.Record(fetchResponseSubMessageSchema);
+                fetchResponseSubMessage.put("partition", zeroCopyFetchResponseSubMessage.get("partition"));
+                fetchResponseSubMessage.put("errorCode", zeroCopyFetchResponseSubMessage.get("errorCode"));
+                fetchResponseSubMessage.put("highwaterMarkOffset", zeroCopyFetchResponseSubMessage.get("highwaterMarkOffset"));
+                fetchResponseSubMessage.put("recordsArray", recordsArray);
+
+                fetchResponseSubMessageArray.add(fetchResponseSubMessage);
+            }
+
+            GenericData.Record fetchResponseMessage = new GenericData.Record(fetchResponseMessageSchema);
+            fetchResponseMessage.put("topicName", zeroCopyFetchResponseMessage.get("topicName"));
+            fetchResponseMessage.put("fetchResponseSubMessageArray", fetchResponseSubMessageArray);
+
+            fetchResponseMessageArray.add(fetchResponseMessage);
+        }
+
+        GenericRecord responseRecord = new GenericData.Record(fetchResponseSchema);
+        responseRecord.put("responseHeader", header.get("responseHeader"));
+        responseRecord.put("throttleTime", header.get("throttleTime"));
+        responseRecord.put("fetchResponseMessageArray", fetchResponseMessageArray);
+
+        return responseRecord;
+    }
+
     public static class ByteBufferAndSize
     {
         private ByteBuffer byteBuffer;
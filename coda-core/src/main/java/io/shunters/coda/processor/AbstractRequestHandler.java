@@ -2,15 +2,14 @@ package io.shunters.coda.processor;
 
 import com.codahale.metrics.MetricRegistry;
 import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
 import io.shunters.coda.deser.MessageDeSer;
 import io.shunters.coda.metrics.MetricRegistryFactory;
-import io.shunters.coda.metrics.SystemOutMetricsReporter;
-import io.shunters.coda.offset.OffsetHandler;
-import io.shunters.coda.offset.PartitionOffsetHandler;
 import io.shunters.coda.protocol.ApiKeyAvroSchemaMap;
 import io.shunters.coda.protocol.ClientServerSpec;
 import io.shunters.coda.store.LogHandler;
 import io.shunters.coda.store.PartitionLogHandler;
+import io.shunters.coda.util.BufferPool;
 import io.shunters.coda.util.DisruptorCreator;
 import org.apache.avro.generic.GenericRecord;
 
@@ -23,14 +22,14 @@ public abstract class AbstractRequestHandler implements RequestHandler {
 
     protected LogHandler logHandler;
 
-    protected OffsetHandler offsetHandler;
-
     protected MetricRegistry metricRegistry;
 
     protected ApiKeyAvroSchemaMap apiKeyAvroSchemaMap;
 
     protected MessageDeSer messageDeSer;
 
+    protected BufferPool bufferPool;
+
     /**
      * response event disruptor.
      */
@@ -42,36 +41,79 @@ public abstract class AbstractRequestHandler implements RequestHandler {
     private BaseMessage.ResponseEventTranslator responseEventTranslator;
 
     public AbstractRequestHandler() {
-        logHandler = PartitionLogHandler.singleton();
-        offsetHandler = PartitionOffsetHandler.singleton();
+        this(PartitionLogHandler.singleton());
+    }
+
+    protected AbstractRequestHandler(LogHandler logHandler) {
+        this.logHandler = logHandler;
 
         apiKeyAvroSchemaMap = ApiKeyAvroSchemaMap.getApiKeyAvroSchemaMapSingleton();
         messageDeSer = MessageDeSer.singleton();
+        bufferPool = BufferPool.singleton();
 
-        // metric registry.
+        // metric registry, which is reported by the server.
         metricRegistry = MetricRegistryFactory.getInstance();
 
-        // std out reporter for metrics.
-        new SystemOutMetricsReporter(metricRegistry).start();
-
-        this.responseEventDisruptor = DisruptorCreator.singleton(DisruptorCreator.DISRUPTOR_NAME_RESPONSE_PROCESSOR, BaseMessage.ResponseEvent.FACTORY, 1024, ResponseProcessor.singleton());
+        // response events are published by the request processor and all the store processor shards.
+        this.responseEventDisruptor = DisruptorCreator.singleton(DisruptorCreator.DISRUPTOR_NAME_RESPONSE_PROCESSOR, DisruptorCreator.STAGE_RESPONSE, BaseMessage.ResponseEvent.FACTORY, ProducerType.MULTI, ResponseProcessor.singleton());
         this.responseEventTranslator = new BaseMessage.ResponseEventTranslator();
     }
 
-    public abstract GenericRecord handle(String channelId, NioSelector nioSelector, GenericRecord requestRecord);
+    public abstract GenericRecord handle(Connection connection, GenericRecord requestRecord);
 
+    /**
+     * build response to be sent to the client.
+     *
+     * @param connection
+     * @param requestRecord
+     * @return
+     */
+    protected Send buildResponse(Connection connection, GenericRecord requestRecord) {
+        GenericRecord responseRecord = handle(connection, requestRecord);
 
-    @Override
-    public void handleAndResponse(String channelId, NioSelector nioSelector, GenericRecord requestRecord) {
-        GenericRecord responseRecord = handle(channelId, nioSelector, requestRecord);
+        return toSend(responseRecord);
+    }
 
+    private Send toSend(GenericRecord responseRecord) {
         ByteBuffer responseBuffer = messageDeSer.serializeResponseToByteBuffer(ClientServerSpec.COMPRESSION_CODEC_SNAPPY, responseRecord).getByteBuffer();
 
-        // send response event to response disruptor.
-        this.responseEventTranslator.setChannelId(channelId);
-        this.responseEventTranslator.setNioSelector(nioSelector);
-        this.responseEventTranslator.setResponseBuffer(responseBuffer);
+        return new ByteBufferSend(bufferPool, responseBuffer);
+    }
+
+
+    @Override
+    public void handleAndResponse(Connection connection, GenericRecord requestRecord) {
+        respond(connection, requestRecord);
+    }
+
+    /**
+     * build and send response.
+     *
+     * @param connection
+     * @param requestRecord
+     */
+    protected void respond(Connection connection, GenericRecord requestRecord) {
+        publishResponse(connection, buildResponse(connection, requestRecord));
+    }
+
+    /**
+     * send response record which has already been built, for instance merged from the responses of the shards.
+     *
+     * @param connection
+     * @param responseRecord
+     */
+    public void response(Connection connection, GenericRecord responseRecord) {
+        publishResponse(connection, toSend(responseRecord));
+    }
+
+    private void publishResponse(Connection connection, Send response) {
+        // translator is shared by the threads which respond with this handler, for instance the delayed fetches.
+        synchronized (this.responseEventTranslator) {
+            // send response event to response disruptor.
+            this.responseEventTranslator.setConnection(connection);
+            this.responseEventTranslator.setResponse(response);
 
-        this.responseEventDisruptor.publishEvent(this.responseEventTranslator);
+            this.responseEventDisruptor.publishEvent(this.responseEventTranslator);
+        }
     }
 }
@@ -13,27 +13,18 @@ public class BaseMessage {
 
     public static class BaseHeader
     {
-        private String channelId;
-        private NioSelector nioSelector;
+        private Connection connection;
 
         private short apiKey;
         private short apiVersion;
         private byte messageFormat;
 
-        public String getChannelId() {
-            return channelId;
+        public Connection getConnection() {
+            return connection;
         }
 
-        public void setChannelId(String channelId) {
-            this.channelId = channelId;
-        }
-
-        public NioSelector getNioSelector() {
-            return nioSelector;
-        }
-
-        public void setNioSelector(NioSelector nioSelector) {
-            this.nioSelector = nioSelector;
+        public void setConnection(Connection connection) {
+            this.connection = connection;
         }
 
         public short getApiKey() {
@@ -63,14 +54,17 @@ public class BaseMessage {
 
     public static class RequestBytesEvent extends BaseHeader
     {
-        private byte[] messageBytes;
+        /**
+         * uncompressed message buffer borrowed from the buffer pool, released after the message is deserialized.
+         */
+        private ByteBuffer messageBuffer;
 
-        public byte[] getMessageBytes() {
-            return messageBytes;
+        public ByteBuffer getMessageBuffer() {
+            return messageBuffer;
         }
 
-        public void setMessageBytes(byte[] messageBytes) {
-            this.messageBytes = messageBytes;
+        public void setMessageBuffer(ByteBuffer messageBuffer) {
+            this.messageBuffer = messageBuffer;
         }
 
         public static final EventFactory<RequestBytesEvent> FACTORY = RequestBytesEvent::new;
@@ -80,12 +74,42 @@ public class BaseMessage {
     {
         @Override
         public void translateTo(RequestBytesEvent baseMessageBytesEvent, long l) {
-            baseMessageBytesEvent.setChannelId(this.getChannelId());
-            baseMessageBytesEvent.setNioSelector(this.getNioSelector());
+            baseMessageBytesEvent.setConnection(this.getConnection());
             baseMessageBytesEvent.setApiKey(this.getApiKey());
             baseMessageBytesEvent.setApiVersion(this.getApiVersion());
             baseMessageBytesEvent.setMessageFormat(this.getMessageFormat());
-            baseMessageBytesEvent.setMessageBytes(this.getMessageBytes());
+            baseMessageBytesEvent.setMessageBuffer(this.getMessageBuffer());
+        }
+    }
+
+    public static class FetchEvent extends RequestBytesEvent
+    {
+        /**
+         * fetch completed in the fetch purgatory, which is responded by the fetch processor shard of its connection.
+         */
+        private DelayedFetch delayedFetch;
+
+        public DelayedFetch getDelayedFetch() {
+            return delayedFetch;
+        }
+
+        public void setDelayedFetch(DelayedFetch delayedFetch) {
+            this.delayedFetch = delayedFetch;
+        }
+
+        public static final EventFactory<FetchEvent> FACTORY = FetchEvent::new;
+    }
+
+    public static class FetchEventTranslator extends FetchEvent implements EventTranslator<FetchEvent>
+    {
+        @Override
+        public void translateTo(FetchEvent fetchEvent, long l) {
+            fetchEvent.setConnection(this.getConnection());
+            fetchEvent.setApiKey(this.getApiKey());
+            fetchEvent.setApiVersion(this.getApiVersion());
+            fetchEvent.setMessageFormat(this.getMessageFormat());
+            fetchEvent.setMessageBuffer(this.getMessageBuffer());
+            fetchEvent.setDelayedFetch(this.getDelayedFetch());
         }
     }
 
@@ -93,6 +117,11 @@ public class BaseMessage {
     {
         private GenericRecord genericRecord;
 
+        /**
+         * aggregator of the responses of the store processor shards to which the request is split.
+         */
+        private ProduceResponseAggregator produceResponseAggregator;
+
         public GenericRecord getGenericRecord() {
             return genericRecord;
         }
@@ -101,6 +130,14 @@ public class BaseMessage {
             this.genericRecord = genericRecord;
         }
 
+        public ProduceResponseAggregator getProduceResponseAggregator() {
+            return produceResponseAggregator;
+        }
+
+        public void setProduceResponseAggregator(ProduceResponseAggregator produceResponseAggregator) {
+            this.produceResponseAggregator = produceResponseAggregator;
+        }
+
         public static final EventFactory<RequestEvent> FACTORY = RequestEvent::new;
     }
 
@@ -109,44 +146,35 @@ public class BaseMessage {
     {
         @Override
         public void translateTo(RequestEvent baseMessageEvent, long l) {
-            baseMessageEvent.setChannelId(this.getChannelId());
-            baseMessageEvent.setNioSelector(this.getNioSelector());
+            baseMessageEvent.setConnection(this.getConnection());
             baseMessageEvent.setApiKey(this.getApiKey());
             baseMessageEvent.setApiVersion(this.getApiVersion());
             baseMessageEvent.setMessageFormat(this.getMessageFormat());
             baseMessageEvent.setGenericRecord(this.getGenericRecord());
+            baseMessageEvent.setProduceResponseAggregator(this.getProduceResponseAggregator());
         }
     }
 
     public static class ResponseEvent {
 
-        private String channelId;
-        private NioSelector nioSelector;
-
-        private ByteBuffer responseBuffer;
+        private Connection connection;
 
-        public String getChannelId() {
-            return channelId;
-        }
-
-        public void setChannelId(String channelId) {
-            this.channelId = channelId;
-        }
+        private Send response;
 
-        public NioSelector getNioSelector() {
-            return nioSelector;
+        public Connection getConnection() {
+            return connection;
         }
 
-        public void setNioSelector(NioSelector nioSelector) {
-            this.nioSelector = nioSelector;
+        public void setConnection(Connection connection) {
+            this.connection = connection;
         }
 
-        public ByteBuffer getResponseBuffer() {
-            return responseBuffer;
+        public Send getResponse() {
+            return response;
         }
 
-        public void setResponseBuffer(ByteBuffer responseBuffer) {
-            this.responseBuffer = responseBuffer;
+        public void setResponse(Send response) {
+            this.response = response;
         }
 
         public static final EventFactory<ResponseEvent> FACTORY = ResponseEvent::new;
@@ -157,9 +185,8 @@ public class BaseMessage {
 
         @Override
         public void translateTo(ResponseEvent responseEvent, long l) {
-            responseEvent.setChannelId(this.getChannelId());
-            responseEvent.setNioSelector(this.getNioSelector());
-            responseEvent.setResponseBuffer(this.getResponseBuffer());
+            responseEvent.setConnection(this.getConnection());
+            responseEvent.setResponse(this.getResponse());
         }
     }
 
@@ -0,0 +1,72 @@
+package io.shunters.coda.processor;
+
+import io.shunters.coda.util.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * Send of in-memory buffers written with a gathering write.
+ * <p>
+ * If buffer pool is given, the buffers are released to the buffer pool when the send is released.
+ */
+public class ByteBufferSend implements Send {
+
+    private ByteBuffer[] buffers;
+
+    private long size;
+
+    private BufferPool bufferPool;
+
+    public ByteBufferSend(ByteBuffer... buffers) {
+        this(null, buffers);
+    }
+
+    public ByteBufferSend(BufferPool bufferPool, ByteBuffer... buffers) {
+        this.bufferPool = bufferPool;
+        this.buffers = buffers;
+
+        for (ByteBuffer buffer : buffers) {
+            size += buffer.remaining();
+        }
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public long writeTo(GatheringByteChannel channel) throws IOException {
+        return channel.write(buffers);
+    }
+
+    @Override
+    public boolean completed() {
+        // buffers are drained in order by gathering writes.
+        return buffers.length == 0 || !buffers[buffers.length - 1].hasRemaining();
+    }
+
+    /**
+     * buffers of this send, which may be written together with the buffers of other sends in one gathering write.
+     *
+     * @return
+     */
+    ByteBuffer[] buffers() {
+        return buffers;
+    }
+
+    @Override
+    public void release() {
+        if (bufferPool == null) {
+            return;
+        }
+
+        for (ByteBuffer buffer : buffers) {
+            bufferPool.release(buffer);
+        }
+
+        bufferPool = null;
+    }
+}
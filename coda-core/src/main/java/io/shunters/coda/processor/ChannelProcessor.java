@@ -1,8 +1,13 @@
 package io.shunters.coda.processor;
 
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import io.shunters.coda.config.ConfigHandler;
+import io.shunters.coda.config.YamlConfigHandler;
 import io.shunters.coda.protocol.ClientServerSpec;
+import io.shunters.coda.util.BufferPool;
 import io.shunters.coda.util.DisruptorCreator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,18 +20,65 @@ import java.nio.channels.SocketChannel;
 import java.util.Iterator;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
+/**
+ * Reactor which reads requests from and writes responses to the connections registered with its selector.
+ * <p>
+ * Load of the channel processor is measured with the number of active connections and the bytes transferred per second,
+ * and connections can be migrated to another channel processor to keep the load even.
+ */
 public class ChannelProcessor extends Thread {
 
     private static Logger log = LoggerFactory.getLogger(ChannelProcessor.class);
 
-    private BlockingQueue<SocketChannel> queue;
+    public static final int DEFAULT_MAX_REQUEST_SIZE = 100 * 1024 * 1024;
+
+    public static final int DEFAULT_MAX_QUEUED_RESPONSE_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * new or migrated connections to be registered with the selector.
+     */
+    private BlockingQueue<Connection> queue;
 
     private NioSelector nioSelector;
 
     private MetricRegistry metricRegistry;
 
+    private BufferPool bufferPool;
+
+    private AtomicInteger activeConnections;
+
+    /**
+     * bytes read and written by this channel processor.
+     */
+    private Meter bytesMeter;
+
+    /**
+     * target channel processor to which a hot connection is requested to be migrated.
+     */
+    private volatile ChannelProcessor migrationTarget;
+
+    /**
+     * max. bytes per second of the connection to be migrated.
+     */
+    private volatile double migrationMaxBytesRate;
+
+    private long lastSampleTime;
+
+    /**
+     * max. size of a request frame.
+     */
+    private int maxRequestSize;
+
+    /**
+     * max. bytes of the responses queued to a connection, above which requests are not read from the connection
+     * until the client consumes the queued responses.
+     */
+    private long maxQueuedResponseBytes;
+
     /**
      * request bytes event disruptor.
      */
@@ -38,18 +90,62 @@ public class ChannelProcessor extends Thread {
     private BaseMessage.RequestBytesEventTranslator requestBytesEventTranslator;
 
 
-    public ChannelProcessor(MetricRegistry metricRegistry) {
+    public ChannelProcessor(int processorId, MetricRegistry metricRegistry) {
+        super("channel-processor-" + processorId);
+
         this.metricRegistry = metricRegistry;
+        this.bufferPool = BufferPool.singleton();
+
+        Object maxRequestSizeObj = YamlConfigHandler.getConfigHandler().get(ConfigHandler.CONFIG_SOCKET_REQUEST_MAX_BYTES);
+        this.maxRequestSize = (maxRequestSizeObj != null) ? (Integer) maxRequestSizeObj : DEFAULT_MAX_REQUEST_SIZE;
+
+        Object maxQueuedResponseBytesObj = YamlConfigHandler.getConfigHandler().get(ConfigHandler.CONFIG_SOCKET_RESPONSE_MAX_QUEUED_BYTES);
+        this.maxQueuedResponseBytes = (maxQueuedResponseBytesObj != null) ? ((Number) maxQueuedResponseBytesObj).longValue() : DEFAULT_MAX_QUEUED_RESPONSE_BYTES;
 
         this.queue = new LinkedBlockingQueue<>();
         this.nioSelector = NioSelector.open();
 
-        requestBytesEventDisruptor = DisruptorCreator.singleton(DisruptorCreator.DISRUPTOR_NAME_REQUEST_PROCESSOR, BaseMessage.RequestBytesEvent.FACTORY, 1024, RequestProcessor.singleton());
+        this.activeConnections = new AtomicInteger(0);
+        this.bytesMeter = metricRegistry.meter("ChannelProcessor." + processorId + ".bytes");
+        this.lastSampleTime = System.nanoTime();
+
+        // request bytes events are published by all the channel processors.
+        requestBytesEventDisruptor = DisruptorCreator.singleton(DisruptorCreator.DISRUPTOR_NAME_REQUEST_PROCESSOR, DisruptorCreator.STAGE_REQUEST, BaseMessage.RequestBytesEvent.FACTORY, ProducerType.MULTI, RequestProcessor.singleton());
         this.requestBytesEventTranslator = new BaseMessage.RequestBytesEventTranslator();
     }
 
     public void put(SocketChannel socketChannel) {
-        this.queue.add(socketChannel);
+        this.put(new Connection(socketChannel, maxRequestSize, bufferPool));
+    }
+
+    private void put(Connection connection) {
+        this.activeConnections.incrementAndGet();
+
+        this.queue.add(connection);
+        this.nioSelector.wakeup();
+    }
+
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    /**
+     * @return bytes read and written per second, as exponentially weighted moving average of one minute.
+     */
+    public double getBytesRate() {
+        return bytesMeter.getOneMinuteRate();
+    }
+
+    /**
+     * request the hottest connection of which bytes rate does not exceed the max. to be migrated to the target channel processor.
+     *
+     * @param target
+     * @param maxBytesRate
+     */
+    public void requestMigration(ChannelProcessor target, double maxBytesRate) {
+        this.migrationMaxBytesRate = maxBytesRate;
+        this.migrationTarget = target;
+
         this.nioSelector.wakeup();
     }
 
@@ -57,19 +153,32 @@ public class ChannelProcessor extends Thread {
     @Override
     public void run() {
         while (true) {
-            SocketChannel socketChannel = this.queue.poll();
+            Connection connection;
 
-            // if new connection is added, register it to selector.
-            if (socketChannel != null) {
-                String channelId = NioSelector.makeChannelId(socketChannel);
-                nioSelector.register(channelId, socketChannel, SelectionKey.OP_READ);
+            // if new or migrated connections are added, register them to selector.
+            while ((connection = this.queue.poll()) != null) {
+                this.register(connection);
             }
 
-            int ready = this.nioSelector.select();
-            if (ready == 0) {
-                continue;
+            // write responses added to the connections without waiting for the next select.
+            while ((connection = this.nioSelector.pollWriteReady()) != null) {
+                SelectionKey key = connection.getSelectionKey();
+
+                // connection may have been closed or migrated to another channel processor.
+                if (this.nioSelector.owns(key)) {
+                    this.response(key);
+                }
             }
 
+            ChannelProcessor target = this.migrationTarget;
+            if (target != null) {
+                this.migrationTarget = null;
+                this.migrateHottestConnection(target, this.migrationMaxBytesRate);
+            }
+
+            // keys selected by selectNow() are handled here as well, even if select() returns 0.
+            this.nioSelector.select();
+
             Iterator<SelectionKey> iter = this.nioSelector.selectedKeys().iterator();
 
             while (iter.hasNext()) {
@@ -77,9 +186,11 @@ public class ChannelProcessor extends Thread {
 
                 iter.remove();
 
-                if (key.isReadable()) {
+                if (key.isValid() && key.isReadable()) {
                     this.request(key);
-                } else if (key.isWritable()) {
+                }
+
+                if (key.isValid() && key.isWritable()) {
                     this.response(key);
                 }
             }
@@ -87,98 +198,222 @@ public class ChannelProcessor extends Thread {
     }
 
 
+    private void register(Connection connection) {
+        SocketChannel socketChannel = connection.getSocketChannel();
+
+        try {
+            this.nioSelector.register(socketChannel, SelectionKey.OP_READ, connection);
+        } catch (RuntimeException e) {
+            log.error("failed to register connection [" + connection.getId() + "]: " + e.getMessage());
+
+            this.activeConnections.decrementAndGet();
+            connection.close();
+
+            return;
+        }
+
+        // responses queued to the migrated connection before it is registered.
+        if (connection.hasPendingSends()) {
+            this.response(connection.getSelectionKey());
+        }
+    }
+
+    /**
+     * hand the connection with the highest bytes rate not exceeding the max. over to the target channel processor.
+     * <p>
+     * selection key is cancelled, and the connection is registered with the target selector together with its
+     * partially read request and queued responses.
+     *
+     * @param target
+     * @param maxBytesRate
+     */
+    private void migrateHottestConnection(ChannelProcessor target, double maxBytesRate) {
+        long now = System.nanoTime();
+        double elapsedSeconds = Math.max(1, now - lastSampleTime) / (double) TimeUnit.SECONDS.toNanos(1);
+        lastSampleTime = now;
+
+        SelectionKey hottestKey = null;
+        double hottestBytesRate = 0;
+
+        for (SelectionKey key : this.nioSelector.keys()) {
+            if (!key.isValid()) {
+                continue;
+            }
+
+            Connection connection = (Connection) key.attachment();
+            double bytesRate = connection.sampleTransferredBytes() / elapsedSeconds;
+
+            if (bytesRate > hottestBytesRate && bytesRate <= maxBytesRate) {
+                hottestKey = key;
+                hottestBytesRate = bytesRate;
+            }
+        }
+
+        if (hottestKey == null) {
+            return;
+        }
+
+        Connection connection = (Connection) hottestKey.attachment();
+        hottestKey.cancel();
+
+        // deregister the cancelled key now, so that the connection can be registered with this selector again later.
+        this.nioSelector.selectNow();
+
+        this.activeConnections.decrementAndGet();
+        this.metricRegistry.meter("ChannelProcessor.migrate").mark();
+
+        log.debug("connection [" + connection.getId() + "] with [" + (long) hottestBytesRate + "] bytes/sec migrated to [" + target.getName() + "]");
+
+        target.put(connection);
+    }
+
     private void request(SelectionKey key) {
         SocketChannel socketChannel = (SocketChannel) key.channel();
 
-        // channel id.
-        String channelId = NioSelector.makeChannelId(socketChannel);
+        Connection connection = (Connection) key.attachment();
 
         try {
-            // total size.
-            ByteBuffer totalSizeBuffer = ByteBuffer.allocate(4);
-            socketChannel.read(totalSizeBuffer);
-            totalSizeBuffer.rewind();
+            // read available bytes, frames which have not been received completely are kept in the connection.
+            int read = connection.getRequestReader().read(socketChannel, frame -> this.publishRequest(connection, frame));
+            if (read < 0) {
+                this.close(key);
+            } else if (read > 0) {
+                connection.addTransferredBytes(read);
+                this.bytesMeter.mark(read);
+            }
+        } catch (Exception e) {
+            log.error("failed to read request from connection [" + connection.getId() + "]: " + e.getMessage());
+
+            this.close(key);
+        }
+    }
 
-            int totalSize = totalSizeBuffer.getInt();
+    /**
+     * Frame := ApiKey(2 Bytes) ApiVersion(2 Bytes) MessageFormat(1 Byte) CompressionCodec(1 Byte) Message
+     *
+     * @param connection
+     * @param frame
+     */
+    private void publishRequest(Connection connection, ByteBuffer frame) {
+        // api key
+        short apiKey = frame.getShort();
 
-            ByteBuffer buffer = ByteBuffer.allocate(totalSize);
-            socketChannel.read(buffer);
-            buffer.rewind();
+        // api version.
+        short apiVersion = frame.getShort();
 
-            // api key
-            short apiKey = buffer.getShort();
+        // messsage format.
+        byte messageFormat = frame.get();
 
-            // api version.
-            short apiVersion = buffer.getShort();
+        // TODO: just avro message format is allowed.
+        //       another formats like protocol buffers, etc. should be supported in future.
+        if (messageFormat != ClientServerSpec.MESSAGE_FORMAT_AVRO) {
+            log.error("Not Avro Message Format!");
 
-            // messsage format.
-            byte messageFormat = buffer.get();
+            return;
+        }
 
-            // TODO: just avro message format is allowed.
-            //       another formats like protocol buffers, etc. should be supported in future.
-            if (messageFormat != ClientServerSpec.MESSAGE_FORMAT_AVRO) {
-                log.error("Not Avro Message Format!");
+        // compression codec.
+        byte compressionCodec = frame.get();
 
-                return;
-            }
+        // message buffer borrowed from the buffer pool, which will be released by request processor.
+        ByteBuffer messageBuffer;
 
-            // compression codec.
-            byte compressionCodec = buffer.get();
+        // if avro bytes is coompressed by snappy, uncompress them.
+        if (compressionCodec == ClientServerSpec.COMPRESSION_CODEC_SNAPPY) {
+            try {
+                messageBuffer = bufferPool.allocate(Snappy.uncompressedLength(frame));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
 
-            // message bytes.
-            byte[] messsageBytes = new byte[totalSize - (2 + 2 + 1 + 1)];
-            buffer.get(messsageBytes);
+            try {
+                Snappy.uncompress(frame, messageBuffer);
+            } catch (IOException e) {
+                bufferPool.release(messageBuffer);
 
-            // if avro bytes is coompressed by snappy, uncompress them.
-            if (compressionCodec == ClientServerSpec.COMPRESSION_CODEC_SNAPPY) {
-                messsageBytes = Snappy.uncompress(messsageBytes);
+                throw new RuntimeException(e);
             }
+        } else {
+            messageBuffer = bufferPool.allocate(frame.remaining());
+            messageBuffer.put(frame);
+            messageBuffer.flip();
+        }
 
-            // construct disruptor translator.
-            this.requestBytesEventTranslator.setChannelId(channelId);
-            this.requestBytesEventTranslator.setNioSelector(this.nioSelector);
-            this.requestBytesEventTranslator.setApiKey(apiKey);
-            this.requestBytesEventTranslator.setApiVersion(apiVersion);
-            this.requestBytesEventTranslator.setMessageFormat(messageFormat);
-            this.requestBytesEventTranslator.setMessageBytes(messsageBytes);
+        // construct disruptor translator.
+        this.requestBytesEventTranslator.setConnection(connection);
+        this.requestBytesEventTranslator.setApiKey(apiKey);
+        this.requestBytesEventTranslator.setApiVersion(apiVersion);
+        this.requestBytesEventTranslator.setMessageFormat(messageFormat);
+        this.requestBytesEventTranslator.setMessageBuffer(messageBuffer);
 
-            // produce request bytes event to disruptor.
-            this.requestBytesEventDisruptor.publishEvent(this.requestBytesEventTranslator);
+        // produce request bytes event to disruptor.
+        this.requestBytesEventDisruptor.publishEvent(this.requestBytesEventTranslator);
 
-            this.metricRegistry.meter("ChannelProcessor.read").mark();
-        } catch (Exception e) {
-            nioSelector.removeSocketChannel(channelId);
-            key.cancel();
-        }
+        this.metricRegistry.meter("ChannelProcessor.read").mark();
     }
 
     private void response(SelectionKey key) {
         SocketChannel socketChannel = (SocketChannel) key.channel();
 
-        // channel id.
-        String channelId = NioSelector.makeChannelId(socketChannel);
+        Connection connection = (Connection) key.attachment();
 
         try {
-            ByteBuffer buffer = (ByteBuffer) key.attachment();
+            // write as many queued responses as the socket accepts without blocking.
+            long transferredBytes = connection.getTransferredBytes();
+            int completedSends = connection.writeTo(socketChannel);
 
-            if (buffer == null) {
-                return;
+            long written = connection.getTransferredBytes() - transferredBytes;
+            if (written > 0) {
+                this.bytesMeter.mark(written);
             }
 
-            buffer.rewind();
-
-            while (buffer.hasRemaining()) {
-                socketChannel.write(buffer);
+            if (completedSends > 0) {
+                this.metricRegistry.meter("ChannelProcessor.write").mark(completedSends);
             }
 
-            buffer.clear();
+            this.updateInterestOps(key, connection);
+        } catch (IOException e) {
+            log.error("failed to write response to connection [" + connection.getId() + "]: " + e.getMessage());
 
-            this.nioSelector.interestOps(socketChannel, SelectionKey.OP_READ);
+            this.close(key);
+        }
+    }
 
-            this.metricRegistry.meter("ChannelProcessor.write").mark();
+    /**
+     * OP_WRITE is kept until the send queue is empty, and OP_READ is removed while the queued response bytes
+     * exceed the max., so that a slow client stops sending requests without stalling other connections.
+     *
+     * @param key
+     * @param connection
+     */
+    private void updateInterestOps(SelectionKey key, Connection connection) {
+        int interestOps = 0;
+
+        if (connection.hasPendingSends()) {
+            interestOps |= SelectionKey.OP_WRITE;
+        }
+
+        if (connection.getQueuedBytes() < maxQueuedResponseBytes) {
+            interestOps |= SelectionKey.OP_READ;
+        }
+
+        if (key.interestOps() != interestOps) {
+            key.interestOps(interestOps);
+        }
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+
+        this.activeConnections.decrementAndGet();
+
+        Connection connection = (Connection) key.attachment();
+        connection.close();
+
+        try {
+            key.channel().close();
         } catch (IOException e) {
-            nioSelector.removeSocketChannel(channelId);
-            key.cancel();
+            log.warn("failed to close connection [" + connection.getId() + "]: " + e.getMessage());
         }
     }
 }
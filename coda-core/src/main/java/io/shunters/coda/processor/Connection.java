@@ -0,0 +1,239 @@
+package io.shunters.coda.processor;
+
+import io.shunters.coda.util.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client connection state, created when the socket channel is accepted and attached to its selection key.
+ * <p>
+ * Connection is carried by the request and response events, so that the response processor reaches
+ * the channel directly without looking it up.
+ * <p>
+ * Responses are added to the send queue by the response processor, and written by the channel processor thread
+ * which owns the connection. Sends are written in the order they are added, and the buffers of consecutive
+ * in-memory sends are written together with one gathering write.
+ */
+public class Connection {
+
+    /**
+     * max. number of buffers written with one gathering write.
+     */
+    private static final int MAX_GATHERING_BUFFERS = 64;
+
+    private static final AtomicLong idGenerator = new AtomicLong(0);
+
+    private long id;
+
+    private SocketChannel socketChannel;
+
+    /**
+     * selector of the channel processor which currently owns the connection, changed when the connection is migrated.
+     */
+    private volatile NioSelector nioSelector;
+
+    private volatile SelectionKey selectionKey;
+
+    private RequestReader requestReader;
+
+    private Queue<Send> sendQueue;
+
+    /**
+     * bytes of the sends in the send queue which are not written yet.
+     */
+    private AtomicLong queuedBytes;
+
+    private volatile boolean closed = false;
+
+    /**
+     * bytes read from and written to the channel, updated by the owner channel processor thread.
+     */
+    private long transferredBytes = 0;
+
+    /**
+     * transferred bytes at the last load sample of the owner channel processor.
+     */
+    private long sampledBytes = 0;
+
+    public Connection(SocketChannel socketChannel, int maxRequestSize, BufferPool bufferPool) {
+        this.id = idGenerator.incrementAndGet();
+        this.socketChannel = socketChannel;
+        this.requestReader = new RequestReader(maxRequestSize, bufferPool);
+        this.sendQueue = new ConcurrentLinkedQueue<>();
+        this.queuedBytes = new AtomicLong(0);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public SocketChannel getSocketChannel() {
+        return socketChannel;
+    }
+
+    public NioSelector getNioSelector() {
+        return nioSelector;
+    }
+
+    public void setNioSelector(NioSelector nioSelector) {
+        this.nioSelector = nioSelector;
+    }
+
+    public SelectionKey getSelectionKey() {
+        return selectionKey;
+    }
+
+    public void setSelectionKey(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+    }
+
+    public RequestReader getRequestReader() {
+        return requestReader;
+    }
+
+    /**
+     * add send to the send queue, it may be called by any thread.
+     *
+     * @param send
+     */
+    public void addSend(Send send) {
+        queuedBytes.addAndGet(send.size());
+        sendQueue.offer(send);
+
+        // connection closed in the meantime.
+        if (closed) {
+            releaseSends();
+        }
+    }
+
+    public boolean hasPendingSends() {
+        return !sendQueue.isEmpty();
+    }
+
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    public long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    public void addTransferredBytes(long bytes) {
+        transferredBytes += bytes;
+    }
+
+    /**
+     * bytes transferred since the last sample, and start a new sample.
+     *
+     * @return
+     */
+    public long sampleTransferredBytes() {
+        long bytes = transferredBytes - sampledBytes;
+        sampledBytes = transferredBytes;
+
+        return bytes;
+    }
+
+    /**
+     * write queued sends to the channel until the send queue is empty or the socket send buffer is full.
+     *
+     * @param channel
+     * @return number of sends written completely.
+     * @throws IOException
+     */
+    public int writeTo(GatheringByteChannel channel) throws IOException {
+        int completedSends = 0;
+
+        while (true) {
+            Send head = sendQueue.peek();
+            if (head == null) {
+                break;
+            }
+
+            if (head instanceof ByteBufferSend) {
+                transferredBytes += writeGathering(channel);
+            } else {
+                transferredBytes += head.writeTo(channel);
+            }
+
+            int completed = removeCompletedSends();
+            if (completed == 0) {
+                // socket send buffer is full, wait for the channel to be writable again.
+                break;
+            }
+
+            completedSends += completed;
+        }
+
+        return completedSends;
+    }
+
+    /**
+     * write buffers of the consecutive in-memory sends at the head of the send queue with one gathering write.
+     *
+     * @param channel
+     * @return bytes written.
+     * @throws IOException
+     */
+    private long writeGathering(GatheringByteChannel channel) throws IOException {
+        List<ByteBuffer> buffers = new ArrayList<>();
+
+        Iterator<Send> iter = sendQueue.iterator();
+        while (iter.hasNext() && buffers.size() < MAX_GATHERING_BUFFERS) {
+            Send send = iter.next();
+            if (!(send instanceof ByteBufferSend)) {
+                break;
+            }
+
+            for (ByteBuffer buffer : ((ByteBufferSend) send).buffers()) {
+                buffers.add(buffer);
+            }
+        }
+
+        return channel.write(buffers.toArray(new ByteBuffer[buffers.size()]));
+    }
+
+    private int removeCompletedSends() {
+        int completed = 0;
+
+        Send head;
+        while ((head = sendQueue.peek()) != null && head.completed()) {
+            sendQueue.poll();
+            queuedBytes.addAndGet(-head.size());
+            head.release();
+
+            completed++;
+        }
+
+        return completed;
+    }
+
+    private void releaseSends() {
+        Send send;
+        while ((send = sendQueue.poll()) != null) {
+            queuedBytes.addAndGet(-send.size());
+            send.release();
+        }
+    }
+
+    /**
+     * release buffers held by this connection.
+     */
+    public void close() {
+        closed = true;
+
+        requestReader.close();
+
+        releaseSends();
+    }
+}
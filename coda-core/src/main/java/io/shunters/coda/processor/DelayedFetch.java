@@ -0,0 +1,115 @@
+package io.shunters.coda.processor;
+
+import io.shunters.coda.offset.TopicPartition;
+import io.shunters.coda.util.TimerWheel;
+import org.apache.avro.generic.GenericRecord;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetch request waiting in the fetch purgatory, until the records of its partitions reach min. bytes or max. wait time expires.
+ */
+public class DelayedFetch {
+
+    private FetchRequestHandler fetchRequestHandler;
+
+    private Connection connection;
+
+    private GenericRecord requestRecord;
+
+    private int minBytes;
+
+    private long maxWaitMs;
+
+    /**
+     * high-water marks of the partitions when the available bytes were counted.
+     */
+    private Map<TopicPartition, Long> highwaterMarks = new LinkedHashMap<>();
+
+    private AtomicLong availableBytes = new AtomicLong(0);
+
+    private AtomicBoolean completed = new AtomicBoolean(false);
+
+    /**
+     * expiration of the fetch on the timer wheel, cancelled when the fetch is completed before max. wait time.
+     */
+    private volatile TimerWheel.Timeout timeout;
+
+    public DelayedFetch(FetchRequestHandler fetchRequestHandler, Connection connection, GenericRecord requestRecord, int minBytes, long maxWaitMs) {
+        this.fetchRequestHandler = fetchRequestHandler;
+        this.connection = connection;
+        this.requestRecord = requestRecord;
+        this.minBytes = minBytes;
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public long getMaxWaitMs() {
+        return maxWaitMs;
+    }
+
+    /**
+     * @param topicPartition
+     * @param highwaterMark  high-water mark of the partition when its available bytes were counted.
+     */
+    public void watch(TopicPartition topicPartition, long highwaterMark) {
+        highwaterMarks.put(topicPartition, highwaterMark);
+    }
+
+    public Set<TopicPartition> getPartitions() {
+        return highwaterMarks.keySet();
+    }
+
+    public long getHighwaterMark(TopicPartition topicPartition) {
+        return highwaterMarks.get(topicPartition);
+    }
+
+    /**
+     * @param bytes
+     * @return true if the available bytes reach min. bytes.
+     */
+    public boolean addBytes(long bytes) {
+        return availableBytes.addAndGet(bytes) >= minBytes;
+    }
+
+    /**
+     * @return true just for the first call, either by the records appended or by the expiration.
+     */
+    public boolean tryComplete() {
+        if (!completed.compareAndSet(false, true)) {
+            return false;
+        }
+
+        TimerWheel.Timeout timeout = this.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+
+        return true;
+    }
+
+    /**
+     * @param timeout expiration scheduled on the timer wheel, which is cancelled right away if the fetch has been completed meanwhile.
+     */
+    public void setTimeout(TimerWheel.Timeout timeout) {
+        this.timeout = timeout;
+
+        if (completed.get()) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * fetch the records and send the response.
+     */
+    public void respond() {
+        fetchRequestHandler.respond(connection, requestRecord);
+    }
+}
@@ -0,0 +1,206 @@
+package io.shunters.coda.processor;
+
+import com.lmax.disruptor.EventHandler;
+import io.shunters.coda.deser.AvroDeSer;
+import io.shunters.coda.protocol.ApiKeyAvroSchemaMap;
+import io.shunters.coda.protocol.ClientServerSpec;
+import io.shunters.coda.util.BufferPool;
+import org.apache.avro.generic.GenericRecord;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Fetch processor of a shard, which deserializes and serves the fetch, zero-copy fetch and list offsets requests.
+ * <p>
+ * requests reading the logs are handed over from the request processor to the fetch shards,
+ * so that a slow read of a cold segment does not hold up the produce requests, and reads from the disks run in parallel.
+ * <p>
+ * requests of a connection are served by the same shard. while a fetch of the connection waits in the fetch purgatory,
+ * the following requests of the connection are queued, and served after the parked fetch is completed and responded on this shard,
+ * so that the responses are sent in the order of the requests.
+ */
+public class FetchProcessor implements EventHandler<BaseMessage.FetchEvent> {
+
+    private int shard;
+
+    private FetchRequestHandler fetchRequestHandler;
+
+    private FetchRequestHandler zeroCopyFetchRequestHandler;
+
+    private RequestHandler listOffsetsRequestHandler;
+
+    private FetchPurgatory fetchPurgatory;
+
+    private AvroDeSer avroDeSer;
+
+    private BufferPool bufferPool;
+
+    /**
+     * requests queued behind the parked fetch by connection id, accessed only by the shard thread.
+     */
+    private Map<Long, Queue<PendingRequest>> waitingMap = new HashMap<>();
+
+    public FetchProcessor(int shard) {
+        this(shard, new FetchRequestHandler(), new ZeroCopyFetchRequestHandler(), new ListOffsetsRequestHandler(), FetchPurgatory.singleton());
+    }
+
+    FetchProcessor(int shard, FetchRequestHandler fetchRequestHandler, FetchRequestHandler zeroCopyFetchRequestHandler,
+                   RequestHandler listOffsetsRequestHandler, FetchPurgatory fetchPurgatory) {
+        this.shard = shard;
+
+        this.avroDeSer = AvroDeSer.getAvroDeSerSingleton();
+        this.bufferPool = BufferPool.singleton();
+        this.fetchRequestHandler = fetchRequestHandler;
+        this.zeroCopyFetchRequestHandler = zeroCopyFetchRequestHandler;
+        this.listOffsetsRequestHandler = listOffsetsRequestHandler;
+        this.fetchPurgatory = fetchPurgatory;
+    }
+
+    @Override
+    public void onEvent(BaseMessage.FetchEvent fetchEvent, long l, boolean b) throws Exception {
+        Connection connection = fetchEvent.getConnection();
+
+        DelayedFetch delayedFetch = fetchEvent.getDelayedFetch();
+        fetchEvent.setDelayedFetch(null);
+
+        // fetch completed in the fetch purgatory.
+        if (delayedFetch != null) {
+            onCompleted(delayedFetch);
+
+            return;
+        }
+
+        short apiKey = fetchEvent.getApiKey();
+
+        ByteBuffer messageBuffer = fetchEvent.getMessageBuffer();
+        fetchEvent.setMessageBuffer(null);
+
+        GenericRecord genericRecord;
+        try {
+            // avro schema name.
+            String schemaName = ApiKeyAvroSchemaMap.getApiKeyAvroSchemaMapSingleton().getSchemaName(apiKey);
+
+            // deserialize avro bytes message.
+            genericRecord = avroDeSer.deserialize(schemaName, messageBuffer);
+        } finally {
+            // message buffer is not used any more after deserialization.
+            bufferPool.release(messageBuffer);
+        }
+
+        onRequest(connection, apiKey, genericRecord);
+    }
+
+    /**
+     * respond to the fetch completed in the fetch purgatory, and serve the requests of the connection queued behind it.
+     *
+     * @param delayedFetch
+     */
+    void onCompleted(DelayedFetch delayedFetch) {
+        Connection connection = delayedFetch.getConnection();
+
+        Queue<PendingRequest> pendingRequests = waitingMap.remove(connection.getId());
+
+        try {
+            delayedFetch.respond();
+        } finally {
+            serve(connection, pendingRequests);
+        }
+    }
+
+    /**
+     * serve the deserialized request, or queue it if a fetch of the connection waits in the purgatory.
+     *
+     * @param connection
+     * @param apiKey
+     * @param requestRecord
+     */
+    void onRequest(Connection connection, short apiKey, GenericRecord requestRecord) {
+        Queue<PendingRequest> pendingRequests = waitingMap.get(connection.getId());
+        if (pendingRequests != null) {
+            pendingRequests.add(new PendingRequest(apiKey, requestRecord));
+
+            return;
+        }
+
+        serve(connection, apiKey, requestRecord);
+    }
+
+    /**
+     * serve the queued requests in order, until one of them is parked.
+     *
+     * @param connection
+     * @param pendingRequests
+     */
+    private void serve(Connection connection, Queue<PendingRequest> pendingRequests) {
+        if (pendingRequests == null) {
+            return;
+        }
+
+        PendingRequest pendingRequest;
+        while ((pendingRequest = pendingRequests.poll()) != null) {
+            if (serve(connection, pendingRequest.apiKey, pendingRequest.requestRecord)) {
+                waitingMap.get(connection.getId()).addAll(pendingRequests);
+
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param connection
+     * @param apiKey
+     * @param requestRecord
+     * @return true if the fetch is parked in the fetch purgatory.
+     */
+    private boolean serve(Connection connection, short apiKey, GenericRecord requestRecord) {
+        // FetchRequest and ZeroCopyFetchRequest, which may wait in the fetch purgatory.
+        if (apiKey == ClientServerSpec.API_KEY_FETCH_REQUEST || apiKey == ClientServerSpec.API_KEY_ZERO_COPY_FETCH_REQUEST) {
+            FetchRequestHandler requestHandler = (apiKey == ClientServerSpec.API_KEY_FETCH_REQUEST) ? this.fetchRequestHandler : this.zeroCopyFetchRequestHandler;
+
+            DelayedFetch delayedFetch = requestHandler.handleOrDelay(connection, requestRecord);
+            if (delayedFetch != null) {
+                waitingMap.put(connection.getId(), new ArrayDeque<>());
+
+                if (fetchPurgatory.park(delayedFetch)) {
+                    return true;
+                }
+
+                // fetch completed while it was parked is responded here, not to publish to the ring of this shard.
+                waitingMap.remove(connection.getId());
+
+                delayedFetch.respond();
+            }
+        }
+        // ListOffsetsRequest.
+        else if (apiKey == ClientServerSpec.API_KEY_LIST_OFFSETS_REQUEST) {
+            this.listOffsetsRequestHandler.handleAndResponse(connection, requestRecord);
+        }
+
+        return false;
+    }
+
+    /**
+     * @param apiKey
+     * @return true if the request is served by the fetch processors.
+     */
+    public static boolean isFetchRequest(short apiKey) {
+        return apiKey == ClientServerSpec.API_KEY_FETCH_REQUEST
+                || apiKey == ClientServerSpec.API_KEY_ZERO_COPY_FETCH_REQUEST
+                || apiKey == ClientServerSpec.API_KEY_LIST_OFFSETS_REQUEST;
+    }
+
+    private static class PendingRequest {
+        private short apiKey;
+
+        private GenericRecord requestRecord;
+
+        private PendingRequest(short apiKey, GenericRecord requestRecord) {
+            this.apiKey = apiKey;
+            this.requestRecord = requestRecord;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package io.shunters.coda.processor;
+
+import com.codahale.metrics.MetricRegistry;
+import io.shunters.coda.metrics.MetricRegistryFactory;
+import io.shunters.coda.offset.TopicPartition;
+import io.shunters.coda.store.LogHandler;
+import io.shunters.coda.store.PartitionLogHandler;
+import io.shunters.coda.util.TimerWheel;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+/**
+ * Purgatory of the fetch requests which cannot get min. bytes yet.
+ * <p>
+ * delayed fetch is watched by the partitions of the request, and completed when the records appended to the partitions
+ * reach min. bytes, or when its max. wait time expires on the timer wheel.
+ * waiting fetches hold no thread, and the completed fetches are sent back to the fetch processor shards of their connections,
+ * which build the responses, so that neither the timer nor the writers of the partitions read the logs for them.
+ * <p>
+ * completed fetch is published to its shard without blocking, and published again at the next tick if the ring of the shard is full.
+ * fetch completed while it is parked is responded by the shard which parks it, which must not publish to its own ring.
+ */
+public class FetchPurgatory implements LogHandler.AppendListener {
+
+    public static final long TICK_MS = 10;
+
+    public static final int WHEEL_SIZE = 512;
+
+    private static final Object lock = new Object();
+
+    private static FetchPurgatory fetchPurgatory;
+
+    private LogHandler logHandler;
+
+    /**
+     * watchers of the partitions, and the partition is removed when it has no watcher any more.
+     */
+    private ConcurrentMap<TopicPartition, Set<DelayedFetch>> watchersMap = new ConcurrentHashMap<>();
+
+    private TimerWheel timerWheel;
+
+    private MetricRegistry metricRegistry;
+
+    /**
+     * publishes the completed fetch to the fetch processor shard of its connection, which returns false if the ring of the shard is full.
+     */
+    private Predicate<DelayedFetch> completedFetchPublisher;
+
+    public static FetchPurgatory singleton() {
+        if (fetchPurgatory == null) {
+            synchronized (lock) {
+                if (fetchPurgatory == null) {
+                    fetchPurgatory = new FetchPurgatory();
+                }
+            }
+        }
+
+        return fetchPurgatory;
+    }
+
+    private FetchPurgatory() {
+        this(PartitionLogHandler.singleton(), delayedFetch -> FetchRequestDispatcher.singleton().complete(delayedFetch));
+    }
+
+    FetchPurgatory(LogHandler logHandler, Predicate<DelayedFetch> completedFetchPublisher) {
+        this.logHandler = logHandler;
+        this.completedFetchPublisher = completedFetchPublisher;
+        metricRegistry = MetricRegistryFactory.getInstance();
+
+        timerWheel = new TimerWheel("fetch-purgatory-timer", TICK_MS, WHEEL_SIZE);
+
+        logHandler.addAppendListener(this);
+    }
+
+    /**
+     * park the fetch until min. bytes are appended to its partitions or max. wait time expires.
+     * it is called by the fetch processor shard of the connection.
+     *
+     * @param delayedFetch
+     * @return true if the fetch is parked, false if it is completed here, which must be responded by the caller.
+     */
+    public boolean park(DelayedFetch delayedFetch) {
+        // watcher is added atomically with the removal of the empty watchers of the partition.
+        for (TopicPartition topicPartition : delayedFetch.getPartitions()) {
+            watchersMap.compute(topicPartition, (key, watchers) -> {
+                if (watchers == null) {
+                    watchers = ConcurrentHashMap.newKeySet();
+                }
+                watchers.add(delayedFetch);
+
+                return watchers;
+            });
+        }
+
+        // records may have been committed after the available bytes were counted, and before the fetch was watched.
+        for (TopicPartition topicPartition : delayedFetch.getPartitions()) {
+            if (logHandler.getOffsetSequencer(topicPartition).getHighwaterMark() > delayedFetch.getHighwaterMark(topicPartition)) {
+                // fetch completed by the writer of a partition in the meantime is published to the shard by the writer.
+                return !tryComplete(delayedFetch);
+            }
+        }
+
+        metricRegistry.meter("FetchPurgatory.parked").mark();
+
+        delayedFetch.setTimeout(timerWheel.schedule(() -> {
+            if (complete(delayedFetch)) {
+                metricRegistry.meter("FetchPurgatory.expired").mark();
+            }
+        }, delayedFetch.getMaxWaitMs()));
+
+        return true;
+    }
+
+    @Override
+    public void onAppend(TopicPartition topicPartition, long bytes) {
+        Set<DelayedFetch> watchers = watchersMap.get(topicPartition);
+        if (watchers == null || watchers.isEmpty()) {
+            return;
+        }
+
+        for (DelayedFetch delayedFetch : watchers) {
+            if (delayedFetch.addBytes(bytes)) {
+                complete(delayedFetch);
+            }
+        }
+    }
+
+    /**
+     * complete the fetch, and publish it to the fetch processor shard of its connection.
+     *
+     * @param delayedFetch
+     * @return true if the fetch is completed by this call.
+     */
+    private boolean complete(DelayedFetch delayedFetch) {
+        if (!tryComplete(delayedFetch)) {
+            return false;
+        }
+
+        publish(delayedFetch);
+
+        return true;
+    }
+
+    /**
+     * @param delayedFetch
+     * @return true if the fetch is completed by this call, and it is not watched any more.
+     */
+    private boolean tryComplete(DelayedFetch delayedFetch) {
+        if (!delayedFetch.tryComplete()) {
+            return false;
+        }
+
+        for (TopicPartition topicPartition : delayedFetch.getPartitions()) {
+            watchersMap.computeIfPresent(topicPartition, (key, watchers) -> {
+                watchers.remove(delayedFetch);
+
+                return watchers.isEmpty() ? null : watchers;
+            });
+        }
+
+        return true;
+    }
+
+    /**
+     * publish the completed fetch without blocking the writer of the partition or the timer,
+     * and publish it again at the next tick if the ring of the shard is full.
+     *
+     * @param delayedFetch
+     */
+    private void publish(DelayedFetch delayedFetch) {
+        if (!completedFetchPublisher.test(delayedFetch)) {
+            metricRegistry.meter("FetchPurgatory.publishRetried").mark();
+
+            timerWheel.schedule(() -> publish(delayedFetch), TICK_MS);
+        }
+    }
+
+    /**
+     * @param topicPartition
+     * @return watchers of the partition, or null if the partition is not watched.
+     */
+    Set<DelayedFetch> getWatchers(TopicPartition topicPartition) {
+        return watchersMap.get(topicPartition);
+    }
+}
@@ -0,0 +1,105 @@
+package io.shunters.coda.processor;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import io.shunters.coda.config.ConfigHandler;
+import io.shunters.coda.config.YamlConfigHandler;
+import io.shunters.coda.metrics.MetricRegistryFactory;
+import io.shunters.coda.util.DisruptorCreator;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dispatches the requests reading the logs to the fetch processor shards.
+ * <p>
+ * All the requests of a connection and the fetches of the connection completed in the fetch purgatory are sent to the same shard,
+ * so that the shard responds to them in the order of the requests.
+ * <p>
+ * Requests are dispatched by the request processor thread, and completed fetches by the threads which complete them in the purgatory,
+ * so that the fetch disruptors have multiple producers.
+ */
+public class FetchRequestDispatcher {
+
+    private static final Object lock = new Object();
+
+    private static FetchRequestDispatcher fetchRequestDispatcher;
+
+    private List<Disruptor<BaseMessage.FetchEvent>> fetchDisruptors;
+
+    /**
+     * used only by the request processor thread.
+     */
+    private BaseMessage.FetchEventTranslator fetchEventTranslator;
+
+    public static FetchRequestDispatcher singleton() {
+        if (fetchRequestDispatcher == null) {
+            synchronized (lock) {
+                if (fetchRequestDispatcher == null) {
+                    fetchRequestDispatcher = new FetchRequestDispatcher();
+                }
+            }
+        }
+
+        return fetchRequestDispatcher;
+    }
+
+    private FetchRequestDispatcher() {
+        Object fetchThreadsObj = YamlConfigHandler.getConfigHandler().get(ConfigHandler.CONFIG_FETCH_THREADS);
+        int fetchThreads = (fetchThreadsObj != null) ? (Integer) fetchThreadsObj : Runtime.getRuntime().availableProcessors();
+
+        MetricRegistry metricRegistry = MetricRegistryFactory.getInstance();
+
+        fetchDisruptors = new ArrayList<>(fetchThreads);
+        for (int shard = 0; shard < fetchThreads; shard++) {
+            String disruptorName = DisruptorCreator.DISRUPTOR_NAME_FETCH_PROCESSOR + "-" + shard;
+
+            Disruptor<BaseMessage.FetchEvent> fetchDisruptor = DisruptorCreator.singleton(disruptorName, DisruptorCreator.STAGE_FETCH, BaseMessage.FetchEvent.FACTORY, ProducerType.MULTI, new FetchProcessor(shard));
+            fetchDisruptors.add(fetchDisruptor);
+
+            // free slots of the fetch ring, which drop to zero when the shard cannot keep up with the fetch requests.
+            metricRegistry.register(disruptorName + ".remainingCapacity", (Gauge<Long>) () -> fetchDisruptor.getRingBuffer().remainingCapacity());
+        }
+
+        fetchEventTranslator = new BaseMessage.FetchEventTranslator();
+    }
+
+    private Disruptor<BaseMessage.FetchEvent> shardOf(Connection connection) {
+        return fetchDisruptors.get((int) (connection.getId() % fetchDisruptors.size()));
+    }
+
+    /**
+     * @param requestBytesEvent header of the request.
+     * @param messageBuffer     message buffer of the request, which is released by the fetch processor after deserialization.
+     */
+    public void dispatch(BaseMessage.RequestBytesEvent requestBytesEvent, ByteBuffer messageBuffer) {
+        this.fetchEventTranslator.setConnection(requestBytesEvent.getConnection());
+        this.fetchEventTranslator.setApiKey(requestBytesEvent.getApiKey());
+        this.fetchEventTranslator.setApiVersion(requestBytesEvent.getApiVersion());
+        this.fetchEventTranslator.setMessageFormat(requestBytesEvent.getMessageFormat());
+        this.fetchEventTranslator.setMessageBuffer(messageBuffer);
+
+        shardOf(requestBytesEvent.getConnection()).publishEvent(this.fetchEventTranslator);
+
+        this.fetchEventTranslator.setConnection(null);
+        this.fetchEventTranslator.setMessageBuffer(null);
+    }
+
+    /**
+     * send the fetch completed in the fetch purgatory back to the shard of its connection, which reads the logs and responds.
+     * it does not wait for a free slot, because the caller may be the shard itself.
+     *
+     * @param delayedFetch
+     * @return false if the ring of the shard is full.
+     */
+    public boolean complete(DelayedFetch delayedFetch) {
+        BaseMessage.FetchEventTranslator completedEventTranslator = new BaseMessage.FetchEventTranslator();
+        completedEventTranslator.setConnection(delayedFetch.getConnection());
+        completedEventTranslator.setDelayedFetch(delayedFetch);
+
+        return shardOf(delayedFetch.getConnection()).getRingBuffer().tryPublishEvent(completedEventTranslator);
+    }
+}
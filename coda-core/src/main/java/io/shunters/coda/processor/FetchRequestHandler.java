@@ -3,6 +3,7 @@ package io.shunters.coda.processor;
 import io.shunters.coda.offset.TopicPartition;
 import io.shunters.coda.protocol.ClientServerSpec;
 import io.shunters.coda.store.LogHandler;
+import io.shunters.coda.store.OffsetIndex;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
@@ -20,8 +21,77 @@ public class FetchRequestHandler extends AbstractRequestHandler {
 
     private static Logger log = LoggerFactory.getLogger(FetchRequestHandler.class);
 
+    public FetchRequestHandler() {
+        super();
+    }
+
+    FetchRequestHandler(LogHandler logHandler) {
+        super(logHandler);
+    }
+
+    /**
+     * respond to the fetch which can be responded now.
+     * fetch which cannot get min. bytes yet is parked in the fetch purgatory by the fetch processor,
+     * which keeps the following requests of the connection behind it.
+     *
+     * @param connection
+     * @param requestRecord
+     * @return fetch to be parked in the fetch purgatory, or null if responded.
+     */
+    public DelayedFetch handleOrDelay(Connection connection, GenericRecord requestRecord) {
+        int maxWaitTime = (Integer) requestRecord.get("maxWaitTime");
+        int minBytes = (Integer) requestRecord.get("minBytes");
+
+        if (maxWaitTime <= 0 || minBytes <= 0) {
+            respond(connection, requestRecord);
+
+            return null;
+        }
+
+        DelayedFetch delayedFetch = new DelayedFetch(this, connection, requestRecord, minBytes, maxWaitTime);
+
+        // count the available bytes with the positions of the records, which are not read.
+        long availableBytes = 0;
+
+        Collection<GenericRecord> fetchRequestMessageArray = (Collection<GenericRecord>) requestRecord.get("fetchRequestMessageArray");
+        for (GenericRecord fetchRequestMessage : fetchRequestMessageArray) {
+            String topicName = fetchRequestMessage.get("topicName").toString();
+
+            Collection<GenericRecord> fetchRequestSubMessageArray = (Collection<GenericRecord>) fetchRequestMessage.get("fetchRequestSubMessageArray");
+            for (GenericRecord fetchRequestSubMessage : fetchRequestSubMessageArray) {
+                TopicPartition topicPartition = new TopicPartition(topicName, (Integer) fetchRequestSubMessage.get("partition"));
+
+                LogHandler.FetchRegion fetchRegion = logHandler.fetchRegion(topicPartition, (Long) fetchRequestSubMessage.get("fetchOffset"), (Integer) fetchRequestSubMessage.get("maxBytes"));
+
+                // just the positions are counted, and the log file is not read.
+                fetchRegion.release();
+
+                // error is responded without waiting.
+                if (fetchRegion.getErrorCode() != ClientServerSpec.ERROR_CODE_NONE) {
+                    respond(connection, requestRecord);
+
+                    return null;
+                }
+
+                for (OffsetIndex.OffsetPosition offsetPosition : fetchRegion.getOffsetPositions()) {
+                    availableBytes += offsetPosition.getDataSize();
+                }
+
+                delayedFetch.watch(topicPartition, fetchRegion.getHighwaterMarkOffset());
+            }
+        }
+
+        if (delayedFetch.getPartitions().isEmpty() || delayedFetch.addBytes(availableBytes)) {
+            respond(connection, requestRecord);
+
+            return null;
+        }
+
+        return delayedFetch;
+    }
+
     @Override
-    public GenericRecord handle(String channelId, NioSelector nioSelector, GenericRecord requestRecord) {
+    public GenericRecord handle(Connection connection, GenericRecord requestRecord) {
 
         // ============== FetchResponse Schema =================
 
@@ -0,0 +1,72 @@
+package io.shunters.coda.processor;
+
+import io.shunters.coda.store.LogHandler;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * Send of a byte range of the log file, transferred to the channel with FileChannel.transferTo
+ * so that the stored bytes are never copied into the user space.
+ * <p>
+ * send holds a reference to the segment of the fetch region, which keeps the file open until the send is released.
+ */
+public class FileRegionSend implements Send {
+
+    private LogHandler.FetchRegion fetchRegion;
+
+    private FileChannel fileChannel;
+
+    private long position;
+
+    private long size;
+
+    private long written = 0;
+
+    /**
+     * @param fetchRegion region whose reference to the segment is taken by this send.
+     * @param position
+     * @param size
+     */
+    public FileRegionSend(LogHandler.FetchRegion fetchRegion, long position, long size) {
+        this.fetchRegion = fetchRegion;
+        this.fileChannel = fetchRegion.getFileChannel();
+        this.position = position;
+        this.size = size;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public long writeTo(GatheringByteChannel channel) throws IOException {
+        long transferred = fileChannel.transferTo(position + written, size - written, channel);
+
+        // region beyond the end of the file, for instance truncated, would never be completed.
+        if (transferred == 0 && position + written >= fileChannel.size()) {
+            throw new IOException("file region [" + (position + written) + "] is beyond the end of the file [" + fileChannel.size() + "]");
+        }
+
+        written += transferred;
+
+        return transferred;
+    }
+
+    @Override
+    public boolean completed() {
+        return written >= size;
+    }
+
+    @Override
+    public void release() {
+        LogHandler.FetchRegion fetchRegion = this.fetchRegion;
+        if (fetchRegion != null) {
+            this.fetchRegion = null;
+
+            fetchRegion.release();
+        }
+    }
+}
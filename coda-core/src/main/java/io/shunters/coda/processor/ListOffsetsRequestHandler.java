@@ -0,0 +1,98 @@
+package io.shunters.coda.processor;
+
+import io.shunters.coda.offset.TopicPartition;
+import io.shunters.coda.protocol.ClientServerSpec;
+import io.shunters.coda.store.LogHandler;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.util.Collection;
+
+/**
+ * look up the offsets of the topic partitions by timestamp.
+ */
+public class ListOffsetsRequestHandler extends AbstractRequestHandler {
+
+    @Override
+    public GenericRecord handle(Connection connection, GenericRecord requestRecord) {
+
+        // ============== ListOffsetsResponse Schema =================
+
+        // listOffsetsResponse Schema.
+        Schema listOffsetsResponseSchema = apiKeyAvroSchemaMap.getSchema(ClientServerSpec.API_KEY_LIST_OFFSETS_RESPONSE);
+
+        // ResponseHeader schema.
+        Schema responseHeaderSchema = listOffsetsResponseSchema.getField("responseHeader").schema();
+
+        // listOffsetsResponseMessageArray schema.
+        Schema listOffsetsResponseMessageArraySchema = listOffsetsResponseSchema.getField("listOffsetsResponseMessageArray").schema();
+
+        // listOffsetsResponseMessage schema.
+        Schema listOffsetsResponseMessageSchema = listOffsetsResponseMessageArraySchema.getElementType();
+
+        // listOffsetsResponseSubMessageArray schema.
+        Schema listOffsetsResponseSubMessageArraySchema = listOffsetsResponseMessageSchema.getField("listOffsetsResponseSubMessageArray").schema();
+
+        // listOffsetsResponseSubMessage schema.
+        Schema listOffsetsResponseSubMessageSchema = listOffsetsResponseSubMessageArraySchema.getElementType();
+
+        // ========================================================
+
+
+        GenericRecord requestHeader = (GenericRecord) requestRecord.get("requestHeader");
+
+        int correlationId = (Integer) requestHeader.get("correlationId");
+
+
+        Collection<GenericRecord> listOffsetsRequestMessageArray = (Collection<GenericRecord>) requestRecord.get("listOffsetsRequestMessageArray");
+
+        // listOffsetsResponseMessageArray.
+        GenericData.Array<GenericData.Record> listOffsetsResponseMessageArray = new GenericData.Array<GenericData.Record>(listOffsetsRequestMessageArray.size(), listOffsetsResponseMessageArraySchema);
+
+        for (GenericRecord listOffsetsRequestMessage : listOffsetsRequestMessageArray) {
+            String topicName = listOffsetsRequestMessage.get("topicName").toString();
+
+            Collection<GenericRecord> listOffsetsRequestSubMessageArray = (Collection<GenericRecord>) listOffsetsRequestMessage.get("listOffsetsRequestSubMessageArray");
+
+            // listOffsetsResponseSubMessageArray.
+            GenericData.Array<GenericData.Record> listOffsetsResponseSubMessageArray = new GenericData.Array<GenericData.Record>(listOffsetsRequestSubMessageArray.size(), listOffsetsResponseSubMessageArraySchema);
+
+            for (GenericRecord listOffsetsRequestSubMessage : listOffsetsRequestSubMessageArray) {
+                int partition = (Integer) listOffsetsRequestSubMessage.get("partition");
+                long timestamp = (Long) listOffsetsRequestSubMessage.get("timestamp");
+
+                // look up offset.
+                LogHandler.ListOffset listOffset = logHandler.listOffset(new TopicPartition(topicName, partition), timestamp);
+
+                // listOffsetsResponseSubMessage.
+                GenericData.Record listOffsetsResponseSubMessage = new GenericData.Record(listOffsetsResponseSubMessageSchema);
+                listOffsetsResponseSubMessage.put("partition", partition);
+                listOffsetsResponseSubMessage.put("errorCode", listOffset.getErrorCode());
+                listOffsetsResponseSubMessage.put("timestamp", listOffset.getTimestamp());
+                listOffsetsResponseSubMessage.put("offset", listOffset.getOffset());
+
+                listOffsetsResponseSubMessageArray.add(listOffsetsResponseSubMessage);
+            }
+
+            // listOffsetsResponseMessage.
+            GenericData.Record listOffsetsResponseMessage = new GenericData.Record(listOffsetsResponseMessageSchema);
+            listOffsetsResponseMessage.put("topicName", topicName);
+            listOffsetsResponseMessage.put("listOffsetsResponseSubMessageArray", listOffsetsResponseSubMessageArray);
+
+            listOffsetsResponseMessageArray.add(listOffsetsResponseMessage);
+        }
+
+        // responseHeader.
+        GenericData.Record responseHeader = new GenericData.Record(responseHeaderSchema);
+        responseHeader.put("correlationId", correlationId);
+
+
+        // listOffsetsResponse.
+        GenericRecord responseRecord = new GenericData.Record(listOffsetsResponseSchema);
+        responseRecord.put("responseHeader", responseHeader);
+        responseRecord.put("listOffsetsResponseMessageArray", listOffsetsResponseMessageArray);
+
+        return responseRecord;
+    }
+}
@@ -0,0 +1,61 @@
+package io.shunters.coda.processor;
+
+import java.io.IOException;
+import java.nio.channels.GatheringByteChannel;
+import java.util.List;
+
+/**
+ * Sends written one after another, for instance response header buffer followed by log file regions.
+ */
+public class MultiSend implements Send {
+
+    private List<Send> sends;
+
+    private long size;
+
+    private int current = 0;
+
+    public MultiSend(List<Send> sends) {
+        this.sends = sends;
+
+        for (Send send : sends) {
+            size += send.size();
+        }
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public long writeTo(GatheringByteChannel channel) throws IOException {
+        long totalWritten = 0;
+
+        while (current < sends.size()) {
+            Send send = sends.get(current);
+
+            totalWritten += send.writeTo(channel);
+
+            if (!send.completed()) {
+                break;
+            }
+
+            current++;
+        }
+
+        return totalWritten;
+    }
+
+    @Override
+    public boolean completed() {
+        return current >= sends.size();
+    }
+
+    @Override
+    public void release() {
+        for (Send send : sends) {
+            send.release();
+        }
+    }
+}
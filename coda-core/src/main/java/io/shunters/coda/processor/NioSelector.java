@@ -1,27 +1,25 @@
 package io.shunters.coda.processor;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import java.io.IOException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Created by mykidong on 2016-08-29.
  */
 public class NioSelector {
 
-    private static Logger log = LoggerFactory.getLogger(NioSelector.class);
-
     private Selector selector;
 
-    private Map<String, SocketChannel> channelMap;
+    /**
+     * connections to which responses have been added, polled by the channel processor thread.
+     */
+    private Queue<Connection> writeReadyConnections;
 
 
     public static NioSelector open()
@@ -31,7 +29,7 @@ public class NioSelector {
 
     private NioSelector()
     {
-        channelMap = new HashMap<>();
+        writeReadyConnections = new ConcurrentLinkedQueue<>();
 
         try {
             this.selector = Selector.open();
@@ -42,77 +40,55 @@ public class NioSelector {
     }
 
 
-    public void register(String channelId, SocketChannel socketChannel, int interestOps)
+    /**
+     * register socket channel with the connection as attachment of the selection key.
+     *
+     * @param socketChannel
+     * @param interestOps
+     * @param connection
+     */
+    public void register(SocketChannel socketChannel, int interestOps, Connection connection)
     {
-        this.channelMap.put(channelId, socketChannel);
-
         try {
-            socketChannel.register(this.selector, interestOps);
+            SelectionKey selectionKey = socketChannel.register(this.selector, interestOps, connection);
+            connection.setSelectionKey(selectionKey);
+            connection.setNioSelector(this);
         }catch (ClosedChannelException e)
         {
             throw new RuntimeException(e);
         }
     }
 
-    public void removeSocketChannel(String channelId)
-    {
-        SocketChannel socketChannel = this.channelMap.get(channelId);
-
-        if(socketChannel != null) {
-            try {
-                socketChannel.finishConnect();
-            }catch (IOException e)
-            {
-                e.printStackTrace();
-            }
-        }
-
-        this.channelMap.remove(channelId);
-
-    }
-
-    public void attach(String channelId, int interestOps, Object attachment)
-    {
-        SocketChannel socketChannel = this.channelMap.get(channelId);
-
-        if(socketChannel != null) {
-            this.attach(socketChannel, interestOps, attachment);
-        }
-        else
-        {
-            log.warn("socket channel for channelId [{}] is null.", channelId);
-        }
-    }
-
-
-    public void attach(SocketChannel socketChannel, int interestOps, Object attachment)
+    /**
+     * notify that responses have been added to the send queue of the connection.
+     * <p>
+     * interest ops are changed only by the channel processor thread, which polls the write ready connections
+     * after wakeup and adds OP_WRITE until the send queue becomes empty.
+     *
+     * @param connection
+     */
+    public void addWriteReady(Connection connection)
     {
-        try
-        {
-            socketChannel.register(this.selector, interestOps, attachment);
-        }catch (ClosedChannelException e)
-        {
-            throw new RuntimeException(e);
-        }
+        this.writeReadyConnections.offer(connection);
     }
 
-    public SelectionKey interestOps(SocketChannel socketChannel, int interestOps)
+    public Connection pollWriteReady()
     {
-        return socketChannel.keyFor(this.selector).interestOps(interestOps);
+        return this.writeReadyConnections.poll();
     }
 
-
-    public void interestOpsWithAttachment(String channelId, int interestOps, Object attachment)
+    /**
+     * @param selectionKey
+     * @return true if the selection key is registered with this selector and still valid.
+     */
+    public boolean owns(SelectionKey selectionKey)
     {
-
-        SelectionKey selectionKey = interestOps(channelId, interestOps);
-        selectionKey.attach(attachment);
+        return selectionKey != null && selectionKey.selector() == this.selector && selectionKey.isValid();
     }
 
-    public SelectionKey interestOps(String channelId, int interestOps)
+    public Set<SelectionKey> keys()
     {
-
-        return this.channelMap.get(channelId).keyFor(this.selector).interestOps(interestOps);
+        return this.selector.keys();
     }
 
     public Selector wakeup()
@@ -130,21 +106,18 @@ public class NioSelector {
         }
     }
 
-    public Set<SelectionKey> selectedKeys()
+    public int selectNow()
     {
-        return this.selector.selectedKeys();
+        try {
+            return this.selector.selectNow();
+        }catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
     }
 
-    public static String makeChannelId(SocketChannel socketChannel)
+    public Set<SelectionKey> selectedKeys()
     {
-        String localHost = socketChannel.socket().getLocalAddress().getHostAddress();
-        int localPort = socketChannel.socket().getLocalPort();
-        String remoteHost = socketChannel.socket().getInetAddress().getHostAddress();
-        int remotePort = socketChannel.socket().getPort();
-
-        StringBuffer sb = new StringBuffer();
-        sb.append(localHost).append(":").append(localPort).append("-").append(remoteHost).append(":").append(remotePort);
-
-        return sb.toString();
+        return this.selector.selectedKeys();
     }
 }
@@ -0,0 +1,164 @@
+package io.shunters.coda.processor;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import io.shunters.coda.config.ConfigHandler;
+import io.shunters.coda.config.YamlConfigHandler;
+import io.shunters.coda.metrics.MetricRegistryFactory;
+import io.shunters.coda.offset.TopicPartition;
+import io.shunters.coda.protocol.ApiKeyAvroSchemaMap;
+import io.shunters.coda.protocol.ClientServerSpec;
+import io.shunters.coda.store.LogHandler;
+import io.shunters.coda.store.PartitionLogHandler;
+import io.shunters.coda.util.DisruptorCreator;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dispatches produce requests to the store processor shards.
+ * <p>
+ * Every topic partition is owned by exactly one shard, so that the records of a partition are always written by the single thread of its shard.
+ * Shards are divided among the data directories, and the partition is owned by one of the shards of its data directory chosen by the hash of the topic partition,
+ * so that every disk is written by its own threads in parallel, and a slow disk does not hold up the partitions of the other disks.
+ * A produce request for the partitions of several shards is split into one produce request per shard.
+ * <p>
+ * Dispatcher is used only by the request processor thread, so that the store disruptors have a single producer.
+ */
+public class ProduceRequestDispatcher {
+
+    private List<Disruptor<BaseMessage.RequestEvent>> storeDisruptors;
+
+    private LogHandler logHandler;
+
+    private int shardsPerDataDir;
+
+    private BaseMessage.RequestEventTranslator requestEventTranslator;
+
+    private Schema produceRequestSchema;
+
+    private Schema produceRequestMessageArraySchema;
+
+    private Schema produceRequestSubMessageArraySchema;
+
+    public ProduceRequestDispatcher() {
+        Object storeShardsObj = YamlConfigHandler.getConfigHandler().get(ConfigHandler.CONFIG_STORE_SHARDS);
+        int storeShards = (storeShardsObj != null) ? (Integer) storeShardsObj : Runtime.getRuntime().availableProcessors();
+
+        // every data directory has at least one shard.
+        logHandler = PartitionLogHandler.singleton();
+        int dataDirCount = logHandler.getDataDirs().size();
+        shardsPerDataDir = Math.max(1, storeShards / dataDirCount);
+        storeShards = shardsPerDataDir * dataDirCount;
+
+        MetricRegistry metricRegistry = MetricRegistryFactory.getInstance();
+
+        storeDisruptors = new ArrayList<>(storeShards);
+        for (int shard = 0; shard < storeShards; shard++) {
+            String disruptorName = DisruptorCreator.DISRUPTOR_NAME_STORE_PROCESSOR + "-" + shard;
+
+            Disruptor<BaseMessage.RequestEvent> storeDisruptor = DisruptorCreator.singleton(disruptorName, DisruptorCreator.STAGE_STORE, BaseMessage.RequestEvent.FACTORY, ProducerType.SINGLE, new StoreProcessor(shard));
+            storeDisruptors.add(storeDisruptor);
+
+            // free slots of the store ring, which drop to zero when the shard cannot keep up with the produce requests.
+            metricRegistry.register(disruptorName + ".remainingCapacity", (Gauge<Long>) () -> storeDisruptor.getRingBuffer().remainingCapacity());
+        }
+
+        requestEventTranslator = new BaseMessage.RequestEventTranslator();
+
+        produceRequestSchema = ApiKeyAvroSchemaMap.getApiKeyAvroSchemaMapSingleton().getSchema(ClientServerSpec.API_KEY_PRODUCE_REQUEST);
+        produceRequestMessageArraySchema = produceRequestSchema.getField("produceRequestMessageArray").schema();
+        produceRequestSubMessageArraySchema = produceRequestMessageArraySchema.getElementType().getField("produceRequestSubMessageArray").schema();
+    }
+
+    public int shardOf(TopicPartition topicPartition) {
+        return logHandler.getDataDirIndex(topicPartition) * shardsPerDataDir + (topicPartition.hashCode() & Integer.MAX_VALUE) % shardsPerDataDir;
+    }
+
+    /**
+     * @param requestBytesEvent header of the produce request.
+     * @param produceRequest
+     */
+    public void dispatch(BaseMessage.RequestBytesEvent requestBytesEvent, GenericRecord produceRequest) {
+        // produce request sub messages per shard and topic.
+        Map<Integer, Map<String, List<GenericRecord>>> shardMap = new LinkedHashMap<>();
+
+        Collection<GenericRecord> produceRequestMessageArray = (Collection<GenericRecord>) produceRequest.get("produceRequestMessageArray");
+        for (GenericRecord produceRequestMessage : produceRequestMessageArray) {
+            String topicName = produceRequestMessage.get("topicName").toString();
+
+            Collection<GenericRecord> produceRequestSubMessageArray = (Collection<GenericRecord>) produceRequestMessage.get("produceRequestSubMessageArray");
+            for (GenericRecord produceRequestSubMessage : produceRequestSubMessageArray) {
+                int partition = (Integer) produceRequestSubMessage.get("partition");
+
+                int shard = shardOf(new TopicPartition(topicName, partition));
+
+                Map<String, List<GenericRecord>> topicMap = shardMap.get(shard);
+                if (topicMap == null) {
+                    topicMap = new LinkedHashMap<>();
+                    shardMap.put(shard, topicMap);
+                }
+
+                List<GenericRecord> subMessages = topicMap.get(topicName);
+                if (subMessages == null) {
+                    subMessages = new ArrayList<>();
+                    topicMap.put(topicName, subMessages);
+                }
+
+                subMessages.add(produceRequestSubMessage);
+            }
+        }
+
+        // empty produce request is handled by the first shard.
+        if (shardMap.isEmpty()) {
+            shardMap.put(0, new LinkedHashMap<>());
+        }
+
+        ProduceResponseAggregator produceResponseAggregator = new ProduceResponseAggregator(shardMap.size());
+
+        for (Map.Entry<Integer, Map<String, List<GenericRecord>>> entry : shardMap.entrySet()) {
+            GenericRecord shardRequest = (shardMap.size() == 1) ? produceRequest : buildShardRequest(produceRequest, entry.getValue());
+
+            this.requestEventTranslator.setConnection(requestBytesEvent.getConnection());
+            this.requestEventTranslator.setApiKey(requestBytesEvent.getApiKey());
+            this.requestEventTranslator.setApiVersion(requestBytesEvent.getApiVersion());
+            this.requestEventTranslator.setMessageFormat(requestBytesEvent.getMessageFormat());
+            this.requestEventTranslator.setGenericRecord(shardRequest);
+            this.requestEventTranslator.setProduceResponseAggregator(produceResponseAggregator);
+
+            // send request event to the store processor of the shard.
+            this.storeDisruptors.get(entry.getKey()).publishEvent(this.requestEventTranslator);
+        }
+    }
+
+    private GenericRecord buildShardRequest(GenericRecord produceRequest, Map<String, List<GenericRecord>> topicMap) {
+        GenericData.Array<GenericRecord> produceRequestMessageArray = new GenericData.Array<>(topicMap.size(), produceRequestMessageArraySchema);
+
+        for (Map.Entry<String, List<GenericRecord>> entry : topicMap.entrySet()) {
+            GenericData.Array<GenericRecord> produceRequestSubMessageArray = new GenericData.Array<>(entry.getValue().size(), produceRequestSubMessageArraySchema);
+            produceRequestSubMessageArray.addAll(entry.getValue());
+
+            GenericData.Record produceRequestMessage = new GenericData.Record(produceRequestMessageArraySchema.getElementType());
+            produceRequestMessage.put("topicName", entry.getKey());
+            produceRequestMessage.put("produceRequestSubMessageArray", produceRequestSubMessageArray);
+
+            produceRequestMessageArray.add(produceRequestMessage);
+        }
+
+        GenericData.Record shardRequest = new GenericData.Record(produceRequestSchema);
+        for (Schema.Field field : produceRequestSchema.getFields()) {
+            shardRequest.put(field.name(), produceRequest.get(field.name()));
+        }
+        shardRequest.put("produceRequestMessageArray", produceRequestMessageArray);
+
+        return shardRequest;
+    }
+}
@@ -2,21 +2,51 @@ package io.shunters.coda.processor;
 
 import io.shunters.coda.offset.TopicPartition;
 import io.shunters.coda.protocol.ClientServerSpec;
+import io.shunters.coda.store.LogHandler;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.util.Utf8;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by mykidong on 2017-09-05.
  */
 public class ProduceRequestHandler extends AbstractRequestHandler {
 
+    private static Logger log = LoggerFactory.getLogger(ProduceRequestHandler.class);
+
     @Override
-    public GenericRecord handle(String channelId, NioSelector nioSelector, GenericRecord requestRecord) {
+    public GenericRecord handle(Connection connection, GenericRecord requestRecord) {
+        return handle(Collections.singletonList(requestRecord)).get(0);
+    }
+
+    /**
+     * group commit of produce requests.
+     * <p>
+     * records of all the requests are grouped by partition first, then offsets are assigned to the records and they are added
+     * to each partition log with one write atomically, and finally produce responses are built in the order of the requests.
+     * <p>
+     * partitions to which the requests with requiredAcks -1 are produced are flushed once for all the requests of the group,
+     * before the responses are built. requests with requiredAcks -1 which have missed their timeout are responded with
+     * the timeout error code, and the records already written keep their offsets.
+     *
+     * @param requestRecords
+     * @return produce responses.
+     */
+    public List<GenericRecord> handle(List<GenericRecord> requestRecords) {
 
         // ============== ProduceResponse Schema =================
 
@@ -40,76 +70,177 @@ public class ProduceRequestHandler extends AbstractRequestHandler {
 
         // ========================================================
 
-        GenericRecord requestHeader = (GenericRecord) requestRecord.get("requestHeader");
 
-        int correlationId = (Integer) requestHeader.get("correlationId");
+        long groupStartTime = System.currentTimeMillis();
 
+        // records batches to be added grouped by topic partition.
+        Map<TopicPartition, List<LogHandler.Append>> appendMap = new LinkedHashMap<>();
 
-        Collection<GenericRecord> produceRequestMessageArray = (Collection<GenericRecord>) requestRecord.get("produceRequestMessageArray");
+        // records batches in the order of the produce request sub messages, whose first offsets are assigned when they are added.
+        List<LogHandler.Append> orderedAppends = new ArrayList<>();
 
-        // produceResponseMessageArray.
-        GenericData.Array<GenericData.Record> produceResponseMessageArray = new GenericData.Array<GenericData.Record>(produceRequestMessageArray.size(), produceResponseMessageArraySchema);
+        // partitions to be flushed before acks.
+        Set<TopicPartition> flushPartitions = new HashSet<>();
 
-        for (GenericRecord produceRequestMessage : produceRequestMessageArray) {
-            String topicName = ((Utf8) produceRequestMessage.get("topicName")).toString();
+        for (GenericRecord requestRecord : requestRecords) {
+            int requiredAcks = (Integer) requestRecord.get("requiredAcks");
 
-            Collection<GenericRecord> produceRequestSubMessageArray = (Collection<GenericRecord>) produceRequestMessage.get("produceRequestSubMessageArray");
+            Collection<GenericRecord> produceRequestMessageArray = (Collection<GenericRecord>) requestRecord.get("produceRequestMessageArray");
 
+            for (GenericRecord produceRequestMessage : produceRequestMessageArray) {
+                String topicName = produceRequestMessage.get("topicName").toString();
 
-            // produceResponseSubMessageArray.
-            GenericData.Array<GenericData.Record> produceResponseSubMessageArray = new GenericData.Array<GenericData.Record>(produceRequestSubMessageArray.size(), produceResponseSubMessageArraySchema);
+                Collection<GenericRecord> produceRequestSubMessageArray = (Collection<GenericRecord>) produceRequestMessage.get("produceRequestSubMessageArray");
 
-            for (GenericRecord produceRequestSubMessage : produceRequestSubMessageArray) {
-                int partition = (Integer) produceRequestSubMessage.get("partition");
+                for (GenericRecord produceRequestSubMessage : produceRequestSubMessageArray) {
+                    int partition = (Integer) produceRequestSubMessage.get("partition");
 
-                // avro data records.
-                GenericRecord records = (GenericRecord) produceRequestSubMessage.get("records");
+                    // avro data records.
+                    GenericRecord records = (GenericRecord) produceRequestSubMessage.get("records");
 
-                int recordSize = ((Collection<GenericRecord>) records.get("records")).size();
+                    int recordSize = ((Collection<GenericRecord>) records.get("records")).size();
 
-                TopicPartition topicPartition = new TopicPartition(topicName, partition);
+                    TopicPartition topicPartition = new TopicPartition(topicName, partition);
 
-                // firstOffset for this record array.
-                long firstOffset = offsetHandler.getCurrentOffsetAndIncrease(topicPartition, recordSize);
+                    LogHandler.Append append = new LogHandler.Append(records, recordSize);
 
-                records.put("firstOffset", firstOffset);
+                    List<LogHandler.Append> appends = appendMap.get(topicPartition);
+                    if (appends == null) {
+                        appends = new ArrayList<>();
+                        appendMap.put(topicPartition, appends);
+                    }
+                    appends.add(append);
 
-                int errorCode = logHandler.add(topicPartition, firstOffset, records, recordSize);
+                    orderedAppends.add(append);
 
-                this.metricRegistry.meter("StoreProcessor.save.records").mark(recordSize);
+                    if (requiredAcks == ClientServerSpec.REQUIRED_ACKS_ALL) {
+                        flushPartitions.add(topicPartition);
+                    }
+                }
+            }
+        }
 
-                long timeStamp = new Date().getTime();
+        // add records to the partition logs.
+        Map<TopicPartition, Integer> errorCodeMap = new HashMap<>();
+        for (Map.Entry<TopicPartition, List<LogHandler.Append>> entry : appendMap.entrySet()) {
+            TopicPartition topicPartition = entry.getKey();
 
-                // produceResponseSubMessage.
-                GenericData.Record produceResponseSubMessage = new GenericData.Record(produceResponseSubMessageSchema);
-                produceResponseSubMessage.put("partition", partition);
-                produceResponseSubMessage.put("errorCode", errorCode);
-                produceResponseSubMessage.put("offset", firstOffset);
-                produceResponseSubMessage.put("timestamp", timeStamp);
+            // failure of a partition is responded with the error code, so that the responses of the group are still sent.
+            int errorCode;
+            try {
+                errorCode = logHandler.append(topicPartition, entry.getValue());
+            } catch (Exception e) {
+                log.error("failed to append records to [" + topicPartition.getTopic() + "-" + topicPartition.getPartition() + "]", e);
 
-                produceResponseSubMessageArray.add(produceResponseSubMessage);
+                errorCode = ClientServerSpec.ERROR_CODE_STORAGE_ERROR;
             }
+            errorCodeMap.put(topicPartition, errorCode);
 
-            // produceResponseMessage.
-            GenericData.Record produceResponseMessage = new GenericData.Record(produceResponseMessageSchema);
-            produceResponseMessage.put("topicName", topicName);
-            produceResponseMessage.put("produceResponseSubMessageArray", produceResponseSubMessageArray);
+            if (errorCode != ClientServerSpec.ERROR_CODE_NONE) {
+                continue;
+            }
 
-            produceResponseMessageArray.add(produceResponseMessage);
+            for (LogHandler.Append append : entry.getValue()) {
+                this.metricRegistry.meter("StoreProcessor.save.records").mark(append.getRecordSize());
+            }
         }
 
+        // group fsync: one flush of the partition covers all the requests waiting for it.
+        for (TopicPartition topicPartition : flushPartitions) {
+            if (errorCodeMap.get(topicPartition) != ClientServerSpec.ERROR_CODE_NONE) {
+                continue;
+            }
 
-        // responseHeader.
-        GenericData.Record responseHeader = new GenericData.Record(responseHeaderSchema);
-        responseHeader.put("correlationId", correlationId);
+            int errorCode;
+            try {
+                errorCode = logHandler.flush(topicPartition);
+            } catch (Exception e) {
+                log.error("failed to flush [" + topicPartition.getTopic() + "-" + topicPartition.getPartition() + "]", e);
 
+                errorCode = ClientServerSpec.ERROR_CODE_STORAGE_ERROR;
+            }
+            errorCodeMap.put(topicPartition, errorCode);
 
-        // ProduceResponse.
-        GenericRecord responseRecord = new GenericData.Record(produceResponseSchema);
-        responseRecord.put("responseHeader", responseHeader);
-        responseRecord.put("throttleTime", 4); // TODO: ...
-        responseRecord.put("produceResponseMessageArray", produceResponseMessageArray);
+            this.metricRegistry.meter("StoreProcessor.flush").mark();
+        }
+
+        long timeStamp = new Date().getTime();
+
+        long elapsedTime = timeStamp - groupStartTime;
+
+        Iterator<LogHandler.Append> appendIter = orderedAppends.iterator();
+
+        List<GenericRecord> responseRecords = new ArrayList<>(requestRecords.size());
+
+        for (GenericRecord requestRecord : requestRecords) {
+            GenericRecord requestHeader = (GenericRecord) requestRecord.get("requestHeader");
+
+            int correlationId = (Integer) requestHeader.get("correlationId");
+
+            int requiredAcks = (Integer) requestRecord.get("requiredAcks");
+
+            // request which has missed its deadline is responded with the timeout error.
+            // records already written keep their offsets in the response, so that the client can tell them from the records not written.
+            boolean timedOut = requiredAcks == ClientServerSpec.REQUIRED_ACKS_ALL && elapsedTime > (Integer) requestRecord.get("timeout");
+            if (timedOut) {
+                this.metricRegistry.meter("StoreProcessor.ack.overTimeout").mark();
+            }
+
+            Collection<GenericRecord> produceRequestMessageArray = (Collection<GenericRecord>) requestRecord.get("produceRequestMessageArray");
+
+            // produceResponseMessageArray.
+            GenericData.Array<GenericData.Record> produceResponseMessageArray = new GenericData.Array<GenericData.Record>(produceRequestMessageArray.size(), produceResponseMessageArraySchema);
+
+            for (GenericRecord produceRequestMessage : produceRequestMessageArray) {
+                String topicName = produceRequestMessage.get("topicName").toString();
+
+                Collection<GenericRecord> produceRequestSubMessageArray = (Collection<GenericRecord>) produceRequestMessage.get("produceRequestSubMessageArray");
+
+                // produceResponseSubMessageArray.
+                GenericData.Array<GenericData.Record> produceResponseSubMessageArray = new GenericData.Array<GenericData.Record>(produceRequestSubMessageArray.size(), produceResponseSubMessageArraySchema);
+
+                for (GenericRecord produceRequestSubMessage : produceRequestSubMessageArray) {
+                    int partition = (Integer) produceRequestSubMessage.get("partition");
+
+                    long firstOffset = appendIter.next().getFirstOffset();
+                    int errorCode = errorCodeMap.get(new TopicPartition(topicName, partition));
+                    if (timedOut && errorCode == ClientServerSpec.ERROR_CODE_NONE) {
+                        errorCode = ClientServerSpec.ERROR_CODE_REQUEST_TIMED_OUT;
+                    }
+
+                    // produceResponseSubMessage.
+                    GenericData.Record produceResponseSubMessage = new GenericData.Record(produceResponseSubMessageSchema);
+                    produceResponseSubMessage.put("partition", partition);
+                    produceResponseSubMessage.put("errorCode", errorCode);
+                    produceResponseSubMessage.put("offset", firstOffset);
+                    produceResponseSubMessage.put("timestamp", timeStamp);
+
+                    produceResponseSubMessageArray.add(produceResponseSubMessage);
+                }
+
+                // produceResponseMessage.
+                GenericData.Record produceResponseMessage = new GenericData.Record(produceResponseMessageSchema);
+                produceResponseMessage.put("topicName", topicName);
+                produceResponseMessage.put("produceResponseSubMessageArray", produceResponseSubMessageArray);
+
+                produceResponseMessageArray.add(produceResponseMessage);
+            }
+
+
+            // responseHeader.
+            GenericData.Record responseHeader = new GenericData.Record(responseHeaderSchema);
+            responseHeader.put("correlationId", correlationId);
+
+
+            // ProduceResponse.
+            GenericRecord responseRecord = new GenericData.Record(produceResponseSchema);
+            responseRecord.put("responseHeader", responseHeader);
+            responseRecord.put("throttleTime", 4); // TODO: ...
+            responseRecord.put("produceResponseMessageArray", produceResponseMessageArray);
+
+            responseRecords.add(responseRecord);
+        }
 
-        return responseRecord;
+        return responseRecords;
     }
 }
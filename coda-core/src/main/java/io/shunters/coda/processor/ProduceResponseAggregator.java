@@ -0,0 +1,100 @@
+package io.shunters.coda.processor;
+
+import io.shunters.coda.protocol.ApiKeyAvroSchemaMap;
+import io.shunters.coda.protocol.ClientServerSpec;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the produce responses of the store processor shards to which a produce request has been split,
+ * and merges them into one produce response when the last shard has responded.
+ */
+public class ProduceResponseAggregator {
+
+    private int remainingParts;
+
+    private List<GenericRecord> responseParts;
+
+    public ProduceResponseAggregator(int parts) {
+        this.remainingParts = parts;
+        this.responseParts = new ArrayList<>(parts);
+    }
+
+    /**
+     * add the response of a shard.
+     *
+     * @param responsePart
+     * @return merged produce response if all the shards have responded, otherwise null.
+     */
+    public GenericRecord add(GenericRecord responsePart) {
+        synchronized (this) {
+            responseParts.add(responsePart);
+
+            if (--remainingParts > 0) {
+                return null;
+            }
+        }
+
+        return (responseParts.size() == 1) ? responseParts.get(0) : merge(responseParts);
+    }
+
+    /**
+     * merge produce response messages of the same topic into one message.
+     *
+     * @param responseParts
+     * @return
+     */
+    private static GenericRecord merge(List<GenericRecord> responseParts) {
+        Schema produceResponseSchema = ApiKeyAvroSchemaMap.getApiKeyAvroSchemaMapSingleton().getSchema(ClientServerSpec.API_KEY_PRODUCE_RESPONSE);
+        Schema produceResponseMessageArraySchema = produceResponseSchema.getField("produceResponseMessageArray").schema();
+        Schema produceResponseMessageSchema = produceResponseMessageArraySchema.getElementType();
+        Schema produceResponseSubMessageArraySchema = produceResponseMessageSchema.getField("produceResponseSubMessageArray").schema();
+
+        Map<String, List<GenericRecord>> subMessagesByTopic = new LinkedHashMap<>();
+
+        for (GenericRecord responsePart : responseParts) {
+            Collection<GenericRecord> produceResponseMessageArray = (Collection<GenericRecord>) responsePart.get("produceResponseMessageArray");
+
+            for (GenericRecord produceResponseMessage : produceResponseMessageArray) {
+                String topicName = produceResponseMessage.get("topicName").toString();
+
+                List<GenericRecord> subMessages = subMessagesByTopic.get(topicName);
+                if (subMessages == null) {
+                    subMessages = new ArrayList<>();
+                    subMessagesByTopic.put(topicName, subMessages);
+                }
+
+                subMessages.addAll((Collection<GenericRecord>) produceResponseMessage.get("produceResponseSubMessageArray"));
+            }
+        }
+
+        GenericData.Array<GenericRecord> produceResponseMessageArray = new GenericData.Array<>(subMessagesByTopic.size(), produceResponseMessageArraySchema);
+
+        for (Map.Entry<String, List<GenericRecord>> entry : subMessagesByTopic.entrySet()) {
+            GenericData.Array<GenericRecord> produceResponseSubMessageArray = new GenericData.Array<>(entry.getValue().size(), produceResponseSubMessageArraySchema);
+            produceResponseSubMessageArray.addAll(entry.getValue());
+
+            GenericData.Record produceResponseMessage = new GenericData.Record(produceResponseMessageSchema);
+            produceResponseMessage.put("topicName", entry.getKey());
+            produceResponseMessage.put("produceResponseSubMessageArray", produceResponseSubMessageArray);
+
+            produceResponseMessageArray.add(produceResponseMessage);
+        }
+
+        GenericRecord first = responseParts.get(0);
+
+        GenericRecord responseRecord = new GenericData.Record(produceResponseSchema);
+        responseRecord.put("responseHeader", first.get("responseHeader"));
+        responseRecord.put("throttleTime", first.get("throttleTime"));
+        responseRecord.put("produceResponseMessageArray", produceResponseMessageArray);
+
+        return responseRecord;
+    }
+}
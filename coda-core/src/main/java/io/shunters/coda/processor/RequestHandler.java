@@ -7,5 +7,5 @@ import org.apache.avro.generic.GenericRecord;
  */
 public interface RequestHandler {
 
-    public void handleAndResponse(String channelId, NioSelector nioSelector, GenericRecord requestRecord);
+    public void handleAndResponse(Connection connection, GenericRecord requestRecord);
 }
@@ -1,15 +1,16 @@
 package io.shunters.coda.processor;
 
 import com.lmax.disruptor.EventHandler;
-import com.lmax.disruptor.dsl.Disruptor;
 import io.shunters.coda.deser.AvroDeSer;
 import io.shunters.coda.protocol.ApiKeyAvroSchemaMap;
 import io.shunters.coda.protocol.ClientServerSpec;
-import io.shunters.coda.util.DisruptorCreator;
+import io.shunters.coda.util.BufferPool;
 import org.apache.avro.generic.GenericRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+
 /**
  * Created by mykidong on 2016-09-01.
  */
@@ -18,19 +19,19 @@ public class RequestProcessor implements EventHandler<BaseMessage.RequestBytesEv
     private static Logger log = LoggerFactory.getLogger(RequestProcessor.class);
 
     /**
-     * request event disruptor.
+     * dispatcher of produce requests to the store processor shards.
      */
-    private Disruptor<BaseMessage.RequestEvent> requestEventDisruptor;
+    private ProduceRequestDispatcher produceRequestDispatcher;
 
     /**
-     * request event translator.
+     * dispatcher to the fetch processor shards which serve the requests reading the logs.
      */
-    private BaseMessage.RequestEventTranslator requestEventTranslator;
-
-    private RequestHandler fetchRequestHandler;
+    private FetchRequestDispatcher fetchRequestDispatcher;
 
     private AvroDeSer avroDeSer;
 
+    private BufferPool bufferPool;
+
     private static final Object lock = new Object();
 
     private static RequestProcessor requestProcessor;
@@ -49,55 +50,59 @@ public class RequestProcessor implements EventHandler<BaseMessage.RequestBytesEv
 
     private RequestProcessor() {
         this.avroDeSer = AvroDeSer.getAvroDeSerSingleton();
-        this.fetchRequestHandler = new FetchRequestHandler();
+        this.bufferPool = BufferPool.singleton();
 
-        this.requestEventDisruptor = DisruptorCreator.singleton(DisruptorCreator.DISRUPTOR_NAME_STORE_PROCESSOR, BaseMessage.RequestEvent.FACTORY, 1024, StoreProcessor.singleton());
-        this.requestEventTranslator = new BaseMessage.RequestEventTranslator();
+        this.fetchRequestDispatcher = FetchRequestDispatcher.singleton();
+
+        this.produceRequestDispatcher = new ProduceRequestDispatcher();
     }
 
     @Override
     public void onEvent(BaseMessage.RequestBytesEvent requestBytesEvent, long l, boolean b) throws Exception {
-        String channelId = requestBytesEvent.getChannelId();
-        NioSelector nioSelector = requestBytesEvent.getNioSelector();
+        Connection connection = requestBytesEvent.getConnection();
 
         short apiKey = requestBytesEvent.getApiKey();
 
         short apiVersion = requestBytesEvent.getApiVersion();
 
+        ByteBuffer messageBuffer = requestBytesEvent.getMessageBuffer();
+        requestBytesEvent.setMessageBuffer(null);
+
         // api version 1 is allowed.
         if (apiVersion != ClientServerSpec.API_VERSION_1) {
             log.error("API Version [" + apiVersion + "] not allowed!");
 
+            bufferPool.release(messageBuffer);
+
             return;
         }
 
-        byte[] messsageBytes = requestBytesEvent.getMessageBytes();
+        // requests reading the logs are deserialized and served by the fetch processor shard of the connection.
+        if (FetchProcessor.isFetchRequest(apiKey)) {
+            this.fetchRequestDispatcher.dispatch(requestBytesEvent, messageBuffer);
 
-        // avro schema name.
-        String schemaName = ApiKeyAvroSchemaMap.getApiKeyAvroSchemaMapSingleton().getSchemaName(apiKey);
+            return;
+        }
+
+        GenericRecord genericRecord;
+        try {
+            // avro schema name.
+            String schemaName = ApiKeyAvroSchemaMap.getApiKeyAvroSchemaMapSingleton().getSchemaName(apiKey);
 
-        // deserialize avro bytes message.
-        GenericRecord genericRecord = avroDeSer.deserialize(schemaName, messsageBytes);
+            // deserialize avro bytes message.
+            genericRecord = avroDeSer.deserialize(schemaName, messageBuffer);
+        } finally {
+            // message buffer is not used any more after deserialization.
+            bufferPool.release(messageBuffer);
+        }
 
         // ProduceRequest.
         if (apiKey == ClientServerSpec.API_KEY_PRODUCE_REQUEST) {
 //            String prettyJson = JsonWriter.formatJson(genericRecord.toString());
 //            log.info("produce request message: \n" + prettyJson);
 
-            // construct request event.
-            this.requestEventTranslator.setChannelId(requestBytesEvent.getChannelId());
-            this.requestEventTranslator.setNioSelector(requestBytesEvent.getNioSelector());
-            this.requestEventTranslator.setApiKey(requestBytesEvent.getApiKey());
-            this.requestEventTranslator.setApiVersion(requestBytesEvent.getApiVersion());
-            this.requestEventTranslator.setMessageFormat(requestBytesEvent.getMessageFormat());
-            this.requestEventTranslator.setGenericRecord(genericRecord);
-
-            // send request event to StoreProcessor.
-            this.requestEventDisruptor.publishEvent(this.requestEventTranslator);
-        }
-        // FetchRequest.
-        else if (apiKey == ClientServerSpec.API_KEY_FETCH_REQUEST) {
-            this.fetchRequestHandler.handleAndResponse(channelId, nioSelector, genericRecord);
+            // send request event to the StoreProcessor shards of the topic partitions.
+            this.produceRequestDispatcher.dispatch(requestBytesEvent, genericRecord);
         } else {
             // TODO:
         }
@@ -0,0 +1,158 @@
+package io.shunters.coda.processor;
+
+import io.shunters.coda.util.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.function.Consumer;
+
+/**
+ * Per connection read state which accumulates partial reads across select cycles.
+ * <p>
+ * Request := TotalSize(4 Bytes) Frame(TotalSize Bytes)
+ * <p>
+ * Every complete frame in the read buffer is passed to the frame handler,
+ * so that several pipelined requests can be received with one read.
+ * <p>
+ * Read buffer is borrowed from the buffer pool, and must be released with close() when the connection is closed.
+ */
+public class RequestReader {
+
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    private static final int TOTAL_SIZE_LENGTH = 4;
+
+    /**
+     * read state.
+     */
+    private enum State {
+        READ_SIZE, READ_FRAME
+    }
+
+    private State state = State.READ_SIZE;
+
+    private int frameSize;
+
+    private int maxFrameSize;
+
+    /**
+     * read buffer in write mode, bytes from the position 0 up to the buffer position are not consumed yet.
+     */
+    private ByteBuffer buffer;
+
+    private BufferPool bufferPool;
+
+    public RequestReader(int maxFrameSize, BufferPool bufferPool) {
+        this.maxFrameSize = maxFrameSize;
+        this.bufferPool = bufferPool;
+        this.buffer = allocate(DEFAULT_BUFFER_SIZE);
+    }
+
+    private ByteBuffer allocate(int size) {
+        ByteBuffer newBuffer = bufferPool.allocate(size);
+        newBuffer.limit(newBuffer.capacity());
+
+        return newBuffer;
+    }
+
+    /**
+     * read bytes available in the channel and pass complete frames to the frame handler.
+     * <p>
+     * frame buffer passed to the handler is only valid until the handler returns.
+     *
+     * @param channel
+     * @param frameHandler
+     * @return bytes read, or -1 if end of stream is reached.
+     * @throws IOException
+     */
+    public int read(ReadableByteChannel channel, Consumer<ByteBuffer> frameHandler) throws IOException {
+        int totalRead = 0;
+
+        while (true) {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                return -1;
+            }
+
+            totalRead += read;
+
+            parseFrames(frameHandler);
+
+            // channel may have more bytes if the buffer was filled up.
+            if (read == 0 || buffer.hasRemaining()) {
+                break;
+            }
+        }
+
+        return totalRead;
+    }
+
+    private void parseFrames(Consumer<ByteBuffer> frameHandler) {
+        buffer.flip();
+
+        while (true) {
+            if (state == State.READ_SIZE) {
+                if (buffer.remaining() < TOTAL_SIZE_LENGTH) {
+                    break;
+                }
+
+                frameSize = buffer.getInt();
+                if (frameSize < 0 || frameSize > maxFrameSize) {
+                    throw new IllegalStateException("Invalid request size [" + frameSize + "], max. request size [" + maxFrameSize + "].");
+                }
+
+                state = State.READ_FRAME;
+            }
+
+            if (buffer.remaining() < frameSize) {
+                break;
+            }
+
+            int limit = buffer.limit();
+            int frameEnd = buffer.position() + frameSize;
+
+            ByteBuffer frame = buffer.duplicate();
+            frame.limit(frameEnd);
+            frameHandler.accept(frame);
+
+            buffer.limit(limit);
+            buffer.position(frameEnd);
+
+            state = State.READ_SIZE;
+        }
+
+        buffer.compact();
+
+        ensureCapacity();
+    }
+
+    /**
+     * grow the read buffer to hold the whole frame being read, or shrink it back after a large frame is consumed.
+     */
+    private void ensureCapacity() {
+        int required = (state == State.READ_FRAME) ? frameSize : TOTAL_SIZE_LENGTH;
+
+        if (buffer.capacity() < required) {
+            ByteBuffer newBuffer = allocate(required);
+            buffer.flip();
+            newBuffer.put(buffer);
+
+            bufferPool.release(buffer);
+            buffer = newBuffer;
+        } else if (buffer.capacity() > DEFAULT_BUFFER_SIZE && buffer.position() == 0 && state == State.READ_SIZE) {
+            bufferPool.release(buffer);
+            buffer = allocate(DEFAULT_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * release the read buffer to the buffer pool.
+     */
+    public void close() {
+        if (buffer != null) {
+            bufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+}
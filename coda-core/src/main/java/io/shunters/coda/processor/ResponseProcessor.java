@@ -2,8 +2,6 @@ package io.shunters.coda.processor;
 
 import com.lmax.disruptor.EventHandler;
 
-import java.nio.channels.SelectionKey;
-
 /**
  * Created by mykidong on 2017-08-29.
  */
@@ -37,11 +35,18 @@ public class ResponseProcessor implements EventHandler<BaseMessage.ResponseEvent
 
     @Override
     public void onEvent(BaseMessage.ResponseEvent responseEvent, long l, boolean b) throws Exception {
-        String channelId = responseEvent.getChannelId();
-        NioSelector nioSelector = responseEvent.getNioSelector();
+        Connection connection = responseEvent.getConnection();
+
+        // add response to the send queue of the connection, it is released if the connection is already closed.
+        connection.addSend(responseEvent.getResponse());
+        responseEvent.setResponse(null);
+
+        // selector is read after the response is added, so that a connection migrated in the meantime
+        // is flushed by the channel processor which owns it now.
+        NioSelector nioSelector = connection.getNioSelector();
 
-        // attache response to channel with SelectionKey.OP_WRITE, which causes channel processor to send response to the client.
-        nioSelector.attach(channelId, SelectionKey.OP_WRITE, responseEvent.getResponseBuffer());
+        // notify the connection with SelectionKey.OP_WRITE, which causes channel processor to send response to the client.
+        nioSelector.addWriteReady(connection);
 
         // wakeup must be called.
         nioSelector.wakeup();
@@ -0,0 +1,35 @@
+package io.shunters.coda.processor;
+
+import java.io.IOException;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * Response bytes to be written to the client channel.
+ * <p>
+ * A send may need several write attempts until it is completed.
+ */
+public interface Send {
+
+    /**
+     * total bytes of this send.
+     *
+     * @return
+     */
+    long size();
+
+    /**
+     * write as many bytes as the channel accepts.
+     *
+     * @param channel
+     * @return bytes written.
+     * @throws IOException
+     */
+    long writeTo(GatheringByteChannel channel) throws IOException;
+
+    boolean completed();
+
+    /**
+     * release resources held by this send, called once after the send is completed or the channel is closed.
+     */
+    void release();
+}
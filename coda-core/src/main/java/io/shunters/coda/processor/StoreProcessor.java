@@ -1,40 +1,80 @@
 package io.shunters.coda.processor;
 
+import com.codahale.metrics.MetricRegistry;
 import com.lmax.disruptor.EventHandler;
+import io.shunters.coda.metrics.MetricRegistryFactory;
+import io.shunters.coda.protocol.ClientServerSpec;
+import org.apache.avro.generic.GenericRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
+ * Store processor of a shard, which writes the records of the topic partitions owned by the shard.
+ * <p>
+ * Produce requests are collected until the end of the disruptor batch, and stored together as group commit,
+ * so that the records of a partition from the concurrent producers are written with one write.
+ * <p>
  * Created by mykidong on 2016-09-03.
  */
 public class StoreProcessor implements EventHandler<BaseMessage.RequestEvent> {
 
     private static Logger log = LoggerFactory.getLogger(StoreProcessor.class);
 
-    private RequestHandler produceRequestHandler;
+    private int shard;
 
-    private static final Object lock = new Object();
+    private ProduceRequestHandler produceRequestHandler;
 
-    private static StoreProcessor storeProcessor;
+    private MetricRegistry metricRegistry;
 
-    public static StoreProcessor singleton() {
-        if (storeProcessor == null) {
-            synchronized (lock) {
-                if (storeProcessor == null) {
-                    storeProcessor = new StoreProcessor();
-                }
-            }
-        }
-        return storeProcessor;
-    }
+    /**
+     * request events of the current batch.
+     */
+    private List<Connection> connections = new ArrayList<>();
+    private List<GenericRecord> requestRecords = new ArrayList<>();
+    private List<ProduceResponseAggregator> produceResponseAggregators = new ArrayList<>();
 
+    public StoreProcessor(int shard) {
+        this.shard = shard;
 
-    private StoreProcessor() {
         produceRequestHandler = new ProduceRequestHandler();
+        metricRegistry = MetricRegistryFactory.getInstance();
     }
 
     @Override
-    public void onEvent(BaseMessage.RequestEvent requestEvent, long l, boolean b) throws Exception {
-        this.produceRequestHandler.handleAndResponse(requestEvent.getChannelId(), requestEvent.getNioSelector(), requestEvent.getGenericRecord());
+    public void onEvent(BaseMessage.RequestEvent requestEvent, long l, boolean endOfBatch) throws Exception {
+        connections.add(requestEvent.getConnection());
+        requestRecords.add(requestEvent.getGenericRecord());
+        produceResponseAggregators.add(requestEvent.getProduceResponseAggregator());
+
+        requestEvent.setGenericRecord(null);
+        requestEvent.setProduceResponseAggregator(null);
+
+        if (!endOfBatch) {
+            return;
+        }
+
+        try {
+            List<GenericRecord> responseParts = this.produceRequestHandler.handle(requestRecords);
+
+            this.metricRegistry.histogram("StoreProcessor.groupCommit.size").update(requestRecords.size());
+
+            // responses of the group are sent after all the records of the group have been stored.
+            for (int i = 0; i < responseParts.size(); i++) {
+                // response is sent by the shard which completes the produce request last.
+                GenericRecord responseRecord = produceResponseAggregators.get(i).add(responseParts.get(i));
+
+                // producer with requiredAcks 0 does not wait for the response, which is not sent.
+                if (responseRecord != null && (Integer) requestRecords.get(i).get("requiredAcks") != ClientServerSpec.REQUIRED_ACKS_NONE) {
+                    this.produceRequestHandler.response(connections.get(i), responseRecord);
+                }
+            }
+        } finally {
+            connections.clear();
+            requestRecords.clear();
+            produceResponseAggregators.clear();
+        }
     }
 }
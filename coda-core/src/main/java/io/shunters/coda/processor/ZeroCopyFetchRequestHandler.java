@@ -0,0 +1,191 @@
+package io.shunters.coda.processor;
+
+import io.shunters.coda.offset.TopicPartition;
+import io.shunters.coda.protocol.ClientServerSpec;
+import io.shunters.coda.store.LogHandler;
+import io.shunters.coda.store.OffsetIndex;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Fetch request handler which sends the stored records bytes straight from the log file to the client
+ * with FileChannel.transferTo, stored records are never decoded on the broker.
+ * <p>
+ * Response := ZeroCopyFetchResponse Header, RecordsBytes in the order of recordsSizeArray entries of the header.
+ */
+public class ZeroCopyFetchRequestHandler extends FetchRequestHandler {
+
+    @Override
+    protected Send buildResponse(Connection connection, GenericRecord requestRecord) {
+
+        // ============== ZeroCopyFetchResponse Schema =================
+
+        // zeroCopyFetchResponse Schema.
+        Schema zeroCopyFetchResponseSchema = apiKeyAvroSchemaMap.getSchema(ClientServerSpec.API_KEY_ZERO_COPY_FETCH_RESPONSE);
+
+        // ResponseHeader schema.
+        Schema responseHeaderSchema = zeroCopyFetchResponseSchema.getField("responseHeader").schema();
+
+        // zeroCopyFetchResponseMessageArray schema.
+        Schema zeroCopyFetchResponseMessageArraySchema = zeroCopyFetchResponseSchema.getField("zeroCopyFetchResponseMessageArray").schema();
+
+        // zeroCopyFetchResponseMessage schema.
+        Schema zeroCopyFetchResponseMessageSchema = zeroCopyFetchResponseMessageArraySchema.getElementType();
+
+        // zeroCopyFetchResponseSubMessageArray schema.
+        Schema zeroCopyFetchResponseSubMessageArraySchema = zeroCopyFetchResponseMessageSchema.getField("zeroCopyFetchResponseSubMessageArray").schema();
+
+        // zeroCopyFetchResponseSubMessage schema.
+        Schema zeroCopyFetchResponseSubMessageSchema = zeroCopyFetchResponseSubMessageArraySchema.getElementType();
+
+        // recordsSizeArray schema.
+        Schema recordsSizeArraySchema = zeroCopyFetchResponseSubMessageSchema.getField("recordsSizeArray").schema();
+
+        // ========================================================
+
+
+        GenericRecord requestHeader = (GenericRecord) requestRecord.get("requestHeader");
+
+        int correlationId = (Integer) requestHeader.get("correlationId");
+
+        // file regions to be sent after response header.
+        List<Send> fileRegionSends = new ArrayList<>();
+        long recordsBytesSize = 0;
+
+        Collection<GenericRecord> fetchRequestMessageArray = (Collection<GenericRecord>) requestRecord.get("fetchRequestMessageArray");
+
+        // zeroCopyFetchResponseMessageArray.
+        GenericData.Array<GenericData.Record> zeroCopyFetchResponseMessageArray = new GenericData.Array<GenericData.Record>(fetchRequestMessageArray.size(), zeroCopyFetchResponseMessageArraySchema);
+
+        for (GenericRecord fetchRequestMessage : fetchRequestMessageArray) {
+            String topicName = ((Utf8) fetchRequestMessage.get("topicName")).toString();
+
+            Collection<GenericRecord> fetchRequestSubMessageArray = (Collection<GenericRecord>) fetchRequestMessage.get("fetchRequestSubMessageArray");
+
+            // zeroCopyFetchResponseSubMessageArray.
+            GenericData.Array<GenericData.Record> zeroCopyFetchResponseSubMessageArray = new GenericData.Array<GenericData.Record>(fetchRequestSubMessageArray.size(), zeroCopyFetchResponseSubMessageArraySchema);
+
+            for (GenericRecord fetchRequestSubMessage : fetchRequestSubMessageArray) {
+                int partition = (Integer) fetchRequestSubMessage.get("partition");
+                long fetchOffset = (Long) fetchRequestSubMessage.get("fetchOffset");
+                int maxBytes = (Integer) fetchRequestSubMessage.get("maxBytes");
+
+                // positions of stored records.
+                LogHandler.FetchRegion fetchRegion = logHandler.fetchRegion(new TopicPartition(topicName, partition), fetchOffset, maxBytes);
+
+                int errorCode = 0;
+                long highwaterMarkOffset = 0;
+
+                // recordsSizeArray.
+                GenericData.Array<Integer> recordsSizeArray = new GenericData.Array<>(0, recordsSizeArraySchema);
+
+                if (fetchRegion != null) {
+                    errorCode = fetchRegion.getErrorCode();
+                    highwaterMarkOffset = fetchRegion.getHighwaterMarkOffset();
+
+                    try {
+                        recordsBytesSize += addFileRegionSends(fetchRegion, recordsSizeArray, fileRegionSends);
+                    } finally {
+                        // every send has taken its own reference to the segment.
+                        fetchRegion.release();
+                    }
+                }
+
+                // zeroCopyFetchResponseSubMessage.
+                GenericData.Record zeroCopyFetchResponseSubMessage = new GenericData.Record(zeroCopyFetchResponseSubMessageSchema);
+                zeroCopyFetchResponseSubMessage.put("partition", partition);
+                zeroCopyFetchResponseSubMessage.put("errorCode", errorCode);
+                zeroCopyFetchResponseSubMessage.put("highwaterMarkOffset", highwaterMarkOffset);
+                zeroCopyFetchResponseSubMessage.put("recordsSizeArray", recordsSizeArray);
+
+                zeroCopyFetchResponseSubMessageArray.add(zeroCopyFetchResponseSubMessage);
+            }
+
+            // zeroCopyFetchResponseMessage.
+            GenericData.Record zeroCopyFetchResponseMessage = new GenericData.Record(zeroCopyFetchResponseMessageSchema);
+            zeroCopyFetchResponseMessage.put("topicName", topicName);
+            zeroCopyFetchResponseMessage.put("zeroCopyFetchResponseSubMessageArray", zeroCopyFetchResponseSubMessageArray);
+
+            zeroCopyFetchResponseMessageArray.add(zeroCopyFetchResponseMessage);
+        }
+
+        // responseHeader.
+        GenericData.Record responseHeader = new GenericData.Record(responseHeaderSchema);
+        responseHeader.put("correlationId", correlationId);
+
+
+        // zeroCopyFetchResponse.
+        GenericRecord responseRecord = new GenericData.Record(zeroCopyFetchResponseSchema);
+        responseRecord.put("responseHeader", responseHeader);
+        responseRecord.put("throttleTime", 4); // TODO: ...
+        responseRecord.put("zeroCopyFetchResponseMessageArray", zeroCopyFetchResponseMessageArray);
+
+        ByteBuffer headerBuffer;
+        try {
+            headerBuffer = messageDeSer.serializeZeroCopyResponseHeader(responseRecord, recordsBytesSize).getByteBuffer();
+        } catch (RuntimeException e) {
+            // sends which are never queued release their references to the segments here.
+            for (Send send : fileRegionSends) {
+                send.release();
+            }
+
+            throw e;
+        }
+
+        List<Send> sends = new ArrayList<>();
+        sends.add(new ByteBufferSend(bufferPool, headerBuffer));
+        sends.addAll(fileRegionSends);
+
+        return new MultiSend(sends);
+    }
+
+    /**
+     * add records sizes to the header, and contiguous records in the log file are merged into one file region.
+     * every file region send takes a reference to the segment of the fetch region.
+     *
+     * @param fetchRegion
+     * @param recordsSizeArray
+     * @param fileRegionSends
+     * @return records bytes size.
+     */
+    private long addFileRegionSends(LogHandler.FetchRegion fetchRegion, GenericData.Array<Integer> recordsSizeArray, List<Send> fileRegionSends) {
+        long recordsBytesSize = 0;
+
+        long regionPosition = -1;
+        long regionSize = 0;
+
+        for (OffsetIndex.OffsetPosition offsetPosition : fetchRegion.getOffsetPositions()) {
+            int position = offsetPosition.getPosition();
+            int dataSize = offsetPosition.getDataSize();
+
+            recordsSizeArray.add(dataSize);
+            recordsBytesSize += dataSize;
+
+            if (regionPosition + regionSize == position) {
+                regionSize += dataSize;
+            } else {
+                if (regionSize > 0) {
+                    fetchRegion.retain();
+                    fileRegionSends.add(new FileRegionSend(fetchRegion, regionPosition, regionSize));
+                }
+
+                regionPosition = position;
+                regionSize = dataSize;
+            }
+        }
+
+        if (regionSize > 0) {
+            fetchRegion.retain();
+            fileRegionSends.add(new FileRegionSend(fetchRegion, regionPosition, regionSize));
+        }
+
+        return recordsBytesSize;
+    }
+}
@@ -49,6 +49,14 @@ public class ApiKeyAvroSchemaMap {
         // Fetch.
         apiMap.put(ClientServerSpec.API_KEY_FETCH_REQUEST, ClientServerSpec.AVRO_SCHEMA_NAME_FETCH_REQUEST);
         apiMap.put(ClientServerSpec.API_KEY_FETCH_RESPONSE, ClientServerSpec.AVRO_SCHEMA_NAME_FETCH_RESPONSE);
+
+        // Zero Copy Fetch.
+        apiMap.put(ClientServerSpec.API_KEY_ZERO_COPY_FETCH_REQUEST, ClientServerSpec.AVRO_SCHEMA_NAME_FETCH_REQUEST);
+        apiMap.put(ClientServerSpec.API_KEY_ZERO_COPY_FETCH_RESPONSE, ClientServerSpec.AVRO_SCHEMA_NAME_ZERO_COPY_FETCH_RESPONSE);
+
+        // List Offsets.
+        apiMap.put(ClientServerSpec.API_KEY_LIST_OFFSETS_REQUEST, ClientServerSpec.AVRO_SCHEMA_NAME_LIST_OFFSETS_REQUEST);
+        apiMap.put(ClientServerSpec.API_KEY_LIST_OFFSETS_RESPONSE, ClientServerSpec.AVRO_SCHEMA_NAME_LIST_OFFSETS_RESPONSE);
     }
 
 
@@ -37,10 +37,65 @@ public class ClientServerSpec {
     public static final short API_KEY_FETCH_RESPONSE = 111;
     public static final String AVRO_SCHEMA_NAME_FETCH_RESPONSE = "io.shunters.coda.avro.api.FetchResponse";
 
+    /**
+     * zero copy fetch request has the same schema as fetch request,
+     * but in the response, stored records bytes follow the response header without being decoded.
+     */
+    public static final short API_KEY_ZERO_COPY_FETCH_REQUEST = 112;
+
+    public static final short API_KEY_ZERO_COPY_FETCH_RESPONSE = 113;
+    public static final String AVRO_SCHEMA_NAME_ZERO_COPY_FETCH_RESPONSE = "io.shunters.coda.avro.api.ZeroCopyFetchResponse";
+
+    /**
+     * list offsets request looks up the first offset of the records whose timestamp is at or after the timestamp.
+     */
+    public static final short API_KEY_LIST_OFFSETS_REQUEST = 120;
+    public static final String AVRO_SCHEMA_NAME_LIST_OFFSETS_REQUEST = "io.shunters.coda.avro.api.ListOffsetsRequest";
+
+    public static final short API_KEY_LIST_OFFSETS_RESPONSE = 121;
+    public static final String AVRO_SCHEMA_NAME_LIST_OFFSETS_RESPONSE = "io.shunters.coda.avro.api.ListOffsetsResponse";
+
 
     /**
      * api version
      */
     public static final byte API_VERSION_1 = 1;
 
+
+    /**
+     * required acks of produce request.
+     * <p>
+     * with REQUIRED_ACKS_NONE, no produce response is sent.
+     * with REQUIRED_ACKS_ALL, produce response is sent after the records are flushed to the disk,
+     * and with ERROR_CODE_REQUEST_TIMED_OUT if the timeout of the request has passed.
+     */
+    public static final int REQUIRED_ACKS_NONE = 0;
+    public static final int REQUIRED_ACKS_LEADER = 1;
+    public static final int REQUIRED_ACKS_ALL = -1;
+
+
+    /**
+     * special timestamps of list offsets request.
+     * <p>
+     * with LIST_OFFSETS_TIMESTAMP_LATEST, the offset to be assigned to the next records is returned,
+     * and with LIST_OFFSETS_TIMESTAMP_EARLIEST, the first offset of the partition.
+     */
+    public static final long LIST_OFFSETS_TIMESTAMP_LATEST = -1;
+    public static final long LIST_OFFSETS_TIMESTAMP_EARLIEST = -2;
+
+    /**
+     * offset returned if no records exist at or after the timestamp.
+     */
+    public static final long LIST_OFFSETS_OFFSET_NONE = -1;
+
+
+    /**
+     * error codes.
+     */
+    public static final int ERROR_CODE_NONE = 0;
+    public static final int ERROR_CODE_STORAGE_ERROR = 1;
+    public static final int ERROR_CODE_REQUEST_TIMED_OUT = 2;
+    public static final int ERROR_CODE_UNKNOWN_TOPIC_OR_PARTITION = 3;
+    public static final int ERROR_CODE_CORRUPT_RECORDS = 4;
+
 }
\ No newline at end of file
@@ -0,0 +1,125 @@
+package io.shunters.coda.server;
+
+import io.shunters.coda.processor.ChannelProcessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Places connections on the channel processors by live load, and migrates hot connections
+ * from the most loaded channel processor to the least loaded one.
+ * <p>
+ * Load := BytesRate + ActiveConnections * BytesRatePerConnection
+ * <p>
+ * BytesRatePerConnection is the average bytes rate of a connection over all the channel processors,
+ * so that idle connections are also counted while there is no traffic.
+ */
+public class ChannelProcessorBalancer implements Runnable {
+
+    private static Logger log = LoggerFactory.getLogger(ChannelProcessorBalancer.class);
+
+    /**
+     * connection is migrated if the load of the most loaded channel processor exceeds the load of the least loaded one by this ratio.
+     */
+    public static final double DEFAULT_IMBALANCE_RATIO = 0.2;
+
+    private List<ChannelProcessor> channelProcessors;
+
+    private double imbalanceRatio;
+
+    public ChannelProcessorBalancer(List<ChannelProcessor> channelProcessors) {
+        this(channelProcessors, DEFAULT_IMBALANCE_RATIO);
+    }
+
+    public ChannelProcessorBalancer(List<ChannelProcessor> channelProcessors, double imbalanceRatio) {
+        this.channelProcessors = channelProcessors;
+        this.imbalanceRatio = imbalanceRatio;
+    }
+
+    /**
+     * @return least loaded channel processor to which a new connection is assigned.
+     */
+    public ChannelProcessor leastLoaded() {
+        double bytesRatePerConnection = bytesRatePerConnection();
+
+        ChannelProcessor leastLoaded = null;
+        double minLoad = Double.MAX_VALUE;
+
+        for (ChannelProcessor channelProcessor : channelProcessors) {
+            double load = load(channelProcessor, bytesRatePerConnection);
+            if (load < minLoad) {
+                leastLoaded = channelProcessor;
+                minLoad = load;
+            }
+        }
+
+        return leastLoaded;
+    }
+
+    /**
+     * migrate a hot connection if the channel processors are imbalanced.
+     */
+    @Override
+    public void run() {
+        try {
+            rebalance();
+        } catch (Exception e) {
+            log.error("failed to rebalance channel processors: " + e.getMessage());
+        }
+    }
+
+    private void rebalance() {
+        double bytesRatePerConnection = bytesRatePerConnection();
+
+        ChannelProcessor leastLoaded = null;
+        ChannelProcessor mostLoaded = null;
+        double minLoad = Double.MAX_VALUE;
+        double maxLoad = -1;
+
+        for (ChannelProcessor channelProcessor : channelProcessors) {
+            double load = load(channelProcessor, bytesRatePerConnection);
+            if (load < minLoad) {
+                leastLoaded = channelProcessor;
+                minLoad = load;
+            }
+
+            if (load > maxLoad) {
+                mostLoaded = channelProcessor;
+                maxLoad = load;
+            }
+        }
+
+        if (leastLoaded == null || leastLoaded == mostLoaded || mostLoaded.getActiveConnections() < 2) {
+            return;
+        }
+
+        if (maxLoad - minLoad <= minLoad * imbalanceRatio + bytesRatePerConnection) {
+            return;
+        }
+
+        // connection which moves more than a half of the difference would just make the target channel processor the most loaded one.
+        double maxBytesRate = (mostLoaded.getBytesRate() - leastLoaded.getBytesRate()) / 2;
+        if (maxBytesRate <= 0) {
+            return;
+        }
+
+        mostLoaded.requestMigration(leastLoaded, maxBytesRate);
+    }
+
+    private double bytesRatePerConnection() {
+        double bytesRate = 0;
+        int connections = 0;
+
+        for (ChannelProcessor channelProcessor : channelProcessors) {
+            bytesRate += channelProcessor.getBytesRate();
+            connections += channelProcessor.getActiveConnections();
+        }
+
+        return (connections > 0 && bytesRate > 0) ? bytesRate / connections : 1;
+    }
+
+    private double load(ChannelProcessor channelProcessor, double bytesRatePerConnection) {
+        return channelProcessor.getBytesRate() + channelProcessor.getActiveConnections() * bytesRatePerConnection;
+    }
+}
@@ -12,6 +12,7 @@ import io.shunters.coda.metrics.MetricRegistryFactory;
 import io.shunters.coda.metrics.MetricsReporter;
 import io.shunters.coda.metrics.SystemOutMetricsReporter;
 import io.shunters.coda.processor.ChannelProcessor;
+import io.shunters.coda.store.PartitionLogHandler;
 import io.shunters.coda.util.NetworkUtils;
 import org.apache.log4j.xml.DOMConfigurator;
 import org.slf4j.Logger;
@@ -26,7 +27,9 @@ import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  *  Request / Response Process Flow Example:
@@ -35,6 +38,9 @@ import java.util.Random;
  *
  *        [Channel Processor] --> [Disruptor] --> [Request Processor] --> [Disruptor] --> [Store Processor]
  *                 ^                                       |                                        |
+ *                 |                                  [Disruptor]                                   |
+ *                 |                                       |                                        |
+ *                 |                               [Fetch Processor]                                |
  *                 |                                       |                                        |
  *                 |                              [Fetch Request Handler]                  [Produce Request Handler]
  *                 |                                       |                                        |
@@ -66,7 +72,9 @@ public class CodaServer implements Runnable {
 
     private int channelProcessorSize;
 
-    private Random random = new Random();
+    private ChannelProcessorBalancer channelProcessorBalancer;
+
+    private ScheduledExecutorService rebalanceExecutor;
 
     private ServiceDiscovery serviceDiscovery;
 
@@ -76,6 +84,17 @@ public class CodaServer implements Runnable {
 
     private boolean shutdown = false;
 
+    public static final long DEFAULT_REBALANCE_INTERVAL_MS = 10000;
+
+    /**
+     * channel processor size is taken from the configuration, which defaults to the number of cores.
+     *
+     * @param port
+     */
+    public CodaServer(int port) {
+        this(port, channelProcessorSize());
+    }
+
     public CodaServer(int port, int channelProcessorSize) {
 
         configHandler = YamlConfigHandler.getConfigHandler();
@@ -97,20 +116,33 @@ public class CodaServer implements Runnable {
 
         channelProcessors = new ArrayList<>();
         for (int i = 0; i < channelProcessorSize; i++) {
-            ChannelProcessor channelProcessor = new ChannelProcessor(this.metricRegistry);
+            ChannelProcessor channelProcessor = new ChannelProcessor(i, this.metricRegistry);
             channelProcessor.start();
 
             channelProcessors.add(channelProcessor);
         }
 
+        // hot connections are migrated periodically to keep the load of the channel processors even.
+        channelProcessorBalancer = new ChannelProcessorBalancer(channelProcessors);
+
+        Object rebalanceIntervalObj = configHandler.get(ConfigHandler.CONFIG_CHANNEL_PROCESSOR_REBALANCE_INTERVAL_MS);
+        long rebalanceIntervalMs = (rebalanceIntervalObj != null) ? ((Number) rebalanceIntervalObj).longValue() : DEFAULT_REBALANCE_INTERVAL_MS;
+
+        rebalanceExecutor = Executors.newSingleThreadScheduledExecutor();
+        rebalanceExecutor.scheduleWithFixedDelay(channelProcessorBalancer, rebalanceIntervalMs, rebalanceIntervalMs, TimeUnit.MILLISECONDS);
+
         // run broker controller.
         controller = BrokerController.singleton(port);
     }
 
-    private ChannelProcessor getNextChannelProcessor() {
-        int randomIndex = random.nextInt(this.channelProcessorSize);
+    private static int channelProcessorSize() {
+        Object channelProcessorSizeObj = YamlConfigHandler.getConfigHandler().get(ConfigHandler.CONFIG_CHANNEL_PROCESSOR_SIZE);
 
-        return this.channelProcessors.get(randomIndex);
+        return (channelProcessorSizeObj != null) ? (Integer) channelProcessorSizeObj : Runtime.getRuntime().availableProcessors();
+    }
+
+    private ChannelProcessor getNextChannelProcessor() {
+        return this.channelProcessorBalancer.leastLoaded();
     }
 
 
@@ -166,12 +198,17 @@ public class CodaServer implements Runnable {
 
         log.info("socket channel accepted: [{}]", socketChannel.socket().getRemoteSocketAddress());
 
-        // put socket channel to read channel processor.
+        // put socket channel to the least loaded channel processor.
         this.getNextChannelProcessor().put(socketChannel);
     }
 
     public void shutdown()
     {
         shutdown = true;
+
+        rebalanceExecutor.shutdownNow();
+
+        // write the checkpoint of the active segments, so that the next startup does not scan them.
+        PartitionLogHandler.singleton().close();
     }
 }
@@ -0,0 +1,57 @@
+package io.shunters.coda.store;
+
+import org.xerial.snappy.PureJavaCrc32C;
+
+import java.lang.reflect.Constructor;
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C of the records batches.
+ * <p>
+ * java.util.zip.CRC32C, which is intrinsified with the crc32 instructions, is used if the jvm provides it,
+ * and the pure java implementation otherwise. both compute the same checksum.
+ */
+public class Crc32C {
+
+    private static final Constructor<?> crc32cConstructor = loadCrc32cConstructor();
+
+    private static final ThreadLocal<Checksum> checksum = ThreadLocal.withInitial(Crc32C::newChecksum);
+
+    private static Constructor<?> loadCrc32cConstructor() {
+        try {
+            return Class.forName("java.util.zip.CRC32C").getConstructor();
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Checksum newChecksum() {
+        if (crc32cConstructor != null) {
+            try {
+                return (Checksum) crc32cConstructor.newInstance();
+            } catch (ReflectiveOperationException e) {
+                // fall back to the pure java implementation.
+            }
+        }
+
+        return new PureJavaCrc32C();
+    }
+
+    /**
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return crc32c of the bytes.
+     */
+    public static int compute(byte[] bytes, int offset, int length) {
+        Checksum crc = checksum.get();
+        crc.reset();
+        crc.update(bytes, offset, length);
+
+        return (int) crc.getValue();
+    }
+
+    public static int compute(byte[] bytes) {
+        return compute(bytes, 0, bytes.length);
+    }
+}
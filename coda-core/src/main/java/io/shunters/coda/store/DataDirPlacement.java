@@ -0,0 +1,125 @@
+package io.shunters.coda.store;
+
+import io.shunters.coda.offset.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Places the partitions in the data directories.
+ * <p>
+ * all the segments of a partition are placed in one data directory, so that the partition is written by the writer of that directory.
+ * new partition is placed in the data directory with the least partitions per usable byte,
+ * so that the partitions are balanced by both the partition count and the free space of the disks.
+ */
+public class DataDirPlacement {
+
+    private static Logger log = LoggerFactory.getLogger(DataDirPlacement.class);
+
+    private List<String> dataDirs;
+
+    private ConcurrentMap<TopicPartition, Integer> dataDirIndexMap = new ConcurrentHashMap<>();
+
+    /**
+     * partition count per data directory.
+     */
+    private int[] partitionCounts;
+
+    public DataDirPlacement(List<String> dataDirs) {
+        this.dataDirs = dataDirs;
+
+        partitionCounts = new int[dataDirs.size()];
+
+        for (String dataDir : dataDirs) {
+            File dataDirFile = new File(dataDir);
+            if (!dataDirFile.exists() && !dataDirFile.mkdirs()) {
+                log.warn("failed to create data directory [" + dataDirFile.getAbsolutePath() + "]");
+            }
+        }
+    }
+
+    public List<String> getDataDirs() {
+        return dataDirs;
+    }
+
+    /**
+     * place the partition loaded from the data directory.
+     *
+     * @param topicPartition
+     * @param dataDir
+     */
+    public synchronized void place(TopicPartition topicPartition, String dataDir) {
+        int index = dataDirs.indexOf(dataDir);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown data directory [" + dataDir + "]");
+        }
+
+        Integer previous = dataDirIndexMap.put(topicPartition, index);
+        if (previous != null) {
+            partitionCounts[previous]--;
+        }
+        partitionCounts[index]++;
+    }
+
+    /**
+     * @param topicPartition
+     * @return index of the data directory of the partition, which is placed if it is new.
+     */
+    public int getDataDirIndex(TopicPartition topicPartition) {
+        Integer index = dataDirIndexMap.get(topicPartition);
+        if (index != null) {
+            return index;
+        }
+
+        synchronized (this) {
+            index = dataDirIndexMap.get(topicPartition);
+            if (index == null) {
+                index = select();
+                dataDirIndexMap.put(topicPartition, index);
+                partitionCounts[index]++;
+
+                log.info("[" + topicPartition.getTopic() + "-" + topicPartition.getPartition() + "] placed in [" + dataDirs.get(index) + "]");
+            }
+
+            return index;
+        }
+    }
+
+    public String getDataDir(TopicPartition topicPartition) {
+        return dataDirs.get(getDataDirIndex(topicPartition));
+    }
+
+    /**
+     * @return index of the data directory with the least partitions per usable byte,
+     * or with the least partitions if the usable space of no data directory is known.
+     */
+    private int select() {
+        int selected = -1;
+        double minPartitionsPerByte = Double.MAX_VALUE;
+
+        int leastPartitions = 0;
+
+        for (int i = 0; i < dataDirs.size(); i++) {
+            if (partitionCounts[i] < partitionCounts[leastPartitions]) {
+                leastPartitions = i;
+            }
+
+            long usableSpace = new File(dataDirs.get(i)).getUsableSpace();
+            if (usableSpace <= 0) {
+                continue;
+            }
+
+            double partitionsPerByte = (partitionCounts[i] + 1) / (double) usableSpace;
+            if (partitionsPerByte < minPartitionsPerByte) {
+                minPartitionsPerByte = partitionsPerByte;
+                selected = i;
+            }
+        }
+
+        return (selected >= 0) ? selected : leastPartitions;
+    }
+}
@@ -0,0 +1,129 @@
+package io.shunters.coda.store;
+
+import io.shunters.coda.config.ConfigHandler;
+import io.shunters.coda.config.YamlConfigHandler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Flush policy of the partition logs, set for the broker and overridden per topic.
+ * <p>
+ * Partition log is flushed after the number of messages is appended, or if the interval has elapsed since the last flush.
+ * Zero disables the condition, and if both are zero, partition log is flushed only before acks of REQUIRED_ACKS_ALL.
+ */
+public class FlushPolicy {
+
+    public static final String TOPIC_CONFIG_MESSAGES = "messages";
+    public static final String TOPIC_CONFIG_INTERVAL_MS = "intervalMs";
+
+    private static FlushPolicy brokerPolicy;
+
+    private static ConcurrentMap<String, FlushPolicy> topicPolicyMap = new ConcurrentHashMap<>();
+
+    private static final Object lock = new Object();
+
+    private long messages;
+
+    private long intervalMs;
+
+    public FlushPolicy(long messages, long intervalMs) {
+        this.messages = messages;
+        this.intervalMs = intervalMs;
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    /**
+     * @param unflushedMessages
+     * @param lastFlushTime
+     * @param now
+     * @return true if the partition log is to be flushed.
+     */
+    public boolean shouldFlush(long unflushedMessages, long lastFlushTime, long now) {
+        if (unflushedMessages == 0) {
+            return false;
+        }
+
+        return (messages > 0 && unflushedMessages >= messages) || (intervalMs > 0 && now - lastFlushTime >= intervalMs);
+    }
+
+    /**
+     * @param topicConfig
+     * @return flush policy whose conditions are overridden by the topic config, or this flush policy if the topic config is null.
+     */
+    FlushPolicy override(Map<String, Object> topicConfig) {
+        if (topicConfig == null) {
+            return this;
+        }
+
+        long messages = topicConfig.containsKey(TOPIC_CONFIG_MESSAGES) ? toLong(topicConfig.get(TOPIC_CONFIG_MESSAGES)) : this.messages;
+        long intervalMs = topicConfig.containsKey(TOPIC_CONFIG_INTERVAL_MS) ? toLong(topicConfig.get(TOPIC_CONFIG_INTERVAL_MS)) : this.intervalMs;
+
+        return new FlushPolicy(messages, intervalMs);
+    }
+
+    public static FlushPolicy broker() {
+        if (brokerPolicy == null) {
+            synchronized (lock) {
+                if (brokerPolicy == null) {
+                    ConfigHandler configHandler = YamlConfigHandler.getConfigHandler();
+
+                    brokerPolicy = new FlushPolicy(toLong(configHandler.get(ConfigHandler.CONFIG_LOG_FLUSH_MESSAGES)),
+                            toLong(configHandler.get(ConfigHandler.CONFIG_LOG_FLUSH_INTERVAL_MS)));
+                }
+            }
+        }
+
+        return brokerPolicy;
+    }
+
+    /**
+     * @param topic
+     * @return flush policy of the topic, or the broker flush policy if the topic does not override it.
+     */
+    public static FlushPolicy forTopic(String topic) {
+        FlushPolicy flushPolicy = topicPolicyMap.get(topic);
+        if (flushPolicy != null) {
+            return flushPolicy;
+        }
+
+        Map<String, Map<String, Object>> topicConfigs = (Map<String, Map<String, Object>>) YamlConfigHandler.getConfigHandler().get(ConfigHandler.CONFIG_LOG_FLUSH_TOPICS);
+
+        flushPolicy = broker().override((topicConfigs != null) ? topicConfigs.get(topic) : null);
+
+        topicPolicyMap.put(topic, flushPolicy);
+
+        return flushPolicy;
+    }
+
+    /**
+     * @return the smallest flush interval of the broker and the topics, 0 if no interval is set.
+     */
+    public static long minIntervalMs() {
+        long minIntervalMs = broker().getIntervalMs();
+
+        Map<String, Map<String, Object>> topicConfigs = (Map<String, Map<String, Object>>) YamlConfigHandler.getConfigHandler().get(ConfigHandler.CONFIG_LOG_FLUSH_TOPICS);
+        if (topicConfigs != null) {
+            for (String topic : topicConfigs.keySet()) {
+                long intervalMs = forTopic(topic).getIntervalMs();
+                if (intervalMs > 0 && (minIntervalMs == 0 || intervalMs < minIntervalMs)) {
+                    minIntervalMs = intervalMs;
+                }
+            }
+        }
+
+        return minIntervalMs;
+    }
+
+    private static long toLong(Object value) {
+        return (value != null) ? ((Number) value).longValue() : 0;
+    }
+}
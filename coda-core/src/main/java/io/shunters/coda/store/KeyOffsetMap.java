@@ -0,0 +1,137 @@
+package io.shunters.coda.store;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Off-heap map of the record key hash to the latest offset of the key, used by log compaction.
+ * <p>
+ * Slot := KeyHash(16 Bytes) Offset(8 Bytes)
+ * <p>
+ * keys are hashed with md5, and slots are probed linearly. because offsets start from 1, slot whose offset is 0 is empty.
+ */
+public class KeyOffsetMap {
+
+    private static final int HASH_SIZE = 16;
+
+    private static final int SLOT_SIZE = HASH_SIZE + 8;
+
+    /**
+     * max. ratio of the used slots.
+     */
+    private static final double LOAD_FACTOR = 0.9;
+
+    private ByteBuffer buffer;
+
+    private int slots;
+
+    private int maxEntries;
+
+    private int entries = 0;
+
+    private MessageDigest digest;
+
+    private byte[] hash = new byte[HASH_SIZE];
+
+    private byte[] slotHash = new byte[HASH_SIZE];
+
+    public KeyOffsetMap(int memoryBytes) {
+        slots = memoryBytes / SLOT_SIZE;
+        maxEntries = (int) (slots * LOAD_FACTOR);
+        buffer = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the number of the entries which can be put further.
+     */
+    public int remaining() {
+        return maxEntries - entries;
+    }
+
+    /**
+     * put the offset of the key, which replaces the previous offset of the key.
+     *
+     * @param key
+     * @param offset
+     */
+    public void put(ByteBuffer key, long offset) {
+        if (entries >= maxEntries) {
+            throw new IllegalStateException("key offset map is full");
+        }
+
+        hash(key);
+
+        int slot = findSlot();
+        int position = slot * SLOT_SIZE;
+        if (buffer.getLong(position + HASH_SIZE) == 0) {
+            for (int i = 0; i < HASH_SIZE; i++) {
+                buffer.put(position + i, hash[i]);
+            }
+            entries++;
+        }
+
+        buffer.putLong(position + HASH_SIZE, offset);
+    }
+
+    /**
+     * @param key
+     * @return the latest offset of the key, or -1 if the key does not exist.
+     */
+    public long get(ByteBuffer key) {
+        hash(key);
+
+        long offset = buffer.getLong(findSlot() * SLOT_SIZE + HASH_SIZE);
+
+        return (offset == 0) ? -1 : offset;
+    }
+
+    public void clear() {
+        for (int i = 0; i < slots; i++) {
+            buffer.putLong(i * SLOT_SIZE + HASH_SIZE, 0);
+        }
+
+        entries = 0;
+    }
+
+    private void hash(ByteBuffer key) {
+        digest.update(key.duplicate());
+        try {
+            digest.digest(hash, 0, HASH_SIZE);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the slot of the hash, or the empty slot where the hash is to be put.
+     */
+    private int findSlot() {
+        int slot = ((hash[0] & 0xFF) << 24 | (hash[1] & 0xFF) << 16 | (hash[2] & 0xFF) << 8 | (hash[3] & 0xFF)) & Integer.MAX_VALUE;
+        slot = slot % slots;
+
+        while (true) {
+            int position = slot * SLOT_SIZE;
+            if (buffer.getLong(position + HASH_SIZE) == 0) {
+                return slot;
+            }
+
+            for (int i = 0; i < HASH_SIZE; i++) {
+                slotHash[i] = buffer.get(position + i);
+            }
+
+            if (Arrays.equals(hash, slotHash)) {
+                return slot;
+            }
+
+            slot = (slot + 1) % slots;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package io.shunters.coda.store;
+
+import io.shunters.coda.config.ConfigHandler;
+import io.shunters.coda.config.YamlConfigHandler;
+import io.shunters.coda.offset.TopicPartition;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compacts the sealed segments of the compacted topics in the background, so that only the latest record per key is kept.
+ * <p>
+ * offsets of the keys in the dirty segments, which have not been compacted yet, are put to the off-heap key offset map,
+ * and the sealed segments up to the last mapped offset are rewritten to the cleaned files without the records shadowed by the later ones.
+ * record whose value is empty is a tombstone of the key, which is removed after delete retention ms.
+ * <p>
+ * cleaned segment replaces the original one in the segment list, and the files of the original one are deleted after the delay,
+ * so that fetch which has already got the original segment can complete.
+ * files of the cleaned segment are renamed with the swap suffix before the original files are deleted,
+ * so that the swap can be completed when the partition logs are loaded.
+ */
+public class LogCompactor implements Runnable {
+
+    private static Logger log = LoggerFactory.getLogger(LogCompactor.class);
+
+    public static final String CLEANED_FILE_SUFFIX = ".cleaned";
+    public static final String SWAP_FILE_SUFFIX = ".swap";
+
+    /**
+     * default delete retention ms of the tombstones, 1 day.
+     */
+    public static final long DEFAULT_DELETE_RETENTION_MS = 24 * 60 * 60 * 1000L;
+
+    public static final int DEFAULT_OFFSET_MAP_BYTES = 64 * 1024 * 1024;
+
+    private static Set<String> compactedTopics;
+
+    private static final Object lock = new Object();
+
+    private ConcurrentMap<TopicPartition, List<PartitionLog>> partitionLogMap;
+
+    private ScheduledExecutorService executor;
+
+    private long fileDeleteDelayMs;
+
+    private long deleteRetentionMs;
+
+    private int indexMaxBytes;
+
+    private int indexIntervalBytes;
+
+    private KeyOffsetMap keyOffsetMap;
+
+    /**
+     * first offset of the records which have not been compacted yet per partition.
+     */
+    private Map<TopicPartition, Long> firstDirtyOffsetMap = new ConcurrentHashMap<>();
+
+    /**
+     * @param partitionLogMap
+     * @param executor           executor on which files are deleted after the delay.
+     * @param fileDeleteDelayMs
+     * @param deleteRetentionMs  ms after which the tombstones are removed.
+     * @param offsetMapBytes     memory of the key offset map.
+     * @param indexMaxBytes
+     * @param indexIntervalBytes
+     */
+    public LogCompactor(ConcurrentMap<TopicPartition, List<PartitionLog>> partitionLogMap,
+                        ScheduledExecutorService executor,
+                        long fileDeleteDelayMs,
+                        long deleteRetentionMs,
+                        int offsetMapBytes,
+                        int indexMaxBytes,
+                        int indexIntervalBytes) {
+        this.partitionLogMap = partitionLogMap;
+        this.executor = executor;
+        this.fileDeleteDelayMs = fileDeleteDelayMs;
+        this.deleteRetentionMs = deleteRetentionMs;
+        this.indexMaxBytes = indexMaxBytes;
+        this.indexIntervalBytes = indexIntervalBytes;
+
+        keyOffsetMap = new KeyOffsetMap(offsetMapBytes);
+    }
+
+    /**
+     * @param topic
+     * @return true if the topic is compacted instead of being deleted by retention.
+     */
+    public static boolean isCompacted(String topic) {
+        if (compactedTopics == null) {
+            synchronized (lock) {
+                if (compactedTopics == null) {
+                    Set<String> topics = new HashSet<>();
+
+                    Object topicsObj = YamlConfigHandler.getConfigHandler().get(ConfigHandler.CONFIG_LOG_COMPACTION_TOPICS);
+                    if (topicsObj != null) {
+                        topics.addAll((Collection<String>) topicsObj);
+                    }
+
+                    compactedTopics = topics;
+                }
+            }
+        }
+
+        return compactedTopics.contains(topic);
+    }
+
+    @Override
+    public void run() {
+        for (Map.Entry<TopicPartition, List<PartitionLog>> entry : partitionLogMap.entrySet()) {
+            TopicPartition topicPartition = entry.getKey();
+            if (!isCompacted(topicPartition.getTopic())) {
+                continue;
+            }
+
+            try {
+                clean(topicPartition, entry.getValue(), System.currentTimeMillis());
+            } catch (Exception e) {
+                log.error("failed to compact [" + topicPartition.getTopic() + "-" + topicPartition.getPartition() + "]: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * compact the sealed segments of the partition with the key offsets of the dirty segments.
+     *
+     * @param topicPartition
+     * @param partitionLogs
+     * @param now
+     * @return the number of the segments replaced with the cleaned ones.
+     * @throws IOException
+     */
+    int clean(TopicPartition topicPartition, List<PartitionLog> partitionLogs, long now) throws IOException {
+        long firstDirtyOffset = firstDirtyOffsetMap.getOrDefault(topicPartition, 0L);
+
+        // active segment is never compacted.
+        List<PartitionLog> sealedLogs = new ArrayList<>();
+        for (PartitionLog partitionLog : partitionLogs) {
+            if (!partitionLog.isSealed()) {
+                break;
+            }
+
+            sealedLogs.add(partitionLog);
+        }
+
+        // put the key offsets of the whole dirty segments as many as the map can hold.
+        keyOffsetMap.clear();
+
+        long endOffset = -1;
+        for (PartitionLog partitionLog : sealedLogs) {
+            if (partitionLog.getLastOffset() < firstDirtyOffset) {
+                continue;
+            }
+
+            if (keyOffsetMap.remaining() < partitionLog.getLastOffset() - partitionLog.getBaseOffset() + 1) {
+                break;
+            }
+
+            partitionLog.forEachBatch(append -> {
+                for (GenericRecord record : (Collection<GenericRecord>) append.getRecords().get("records")) {
+                    ByteBuffer key = (ByteBuffer) record.get("key");
+                    if (key != null) {
+                        keyOffsetMap.put(key, append.getFirstOffset() + (Integer) record.get("offsetDelta"));
+                    }
+                }
+            });
+
+            endOffset = partitionLog.getLastOffset();
+        }
+
+        if (endOffset < 0) {
+            return 0;
+        }
+
+        int cleaned = 0;
+        for (PartitionLog partitionLog : sealedLogs) {
+            if (partitionLog.getLastOffset() > endOffset) {
+                break;
+            }
+
+            if (cleanSegment(partitionLogs, partitionLog, now)) {
+                cleaned++;
+            }
+        }
+
+        firstDirtyOffsetMap.put(topicPartition, endOffset + 1);
+
+        log.info("[" + topicPartition.getTopic() + "-" + topicPartition.getPartition() + "] compacted up to offset [" + endOffset + "], cleaned segments [" + cleaned + "]");
+
+        return cleaned;
+    }
+
+    /**
+     * rewrite the segment without the shadowed records and the expired tombstones, and swap the cleaned segment in.
+     *
+     * @param partitionLogs
+     * @param partitionLog
+     * @param now
+     * @return true if the segment is replaced with the cleaned one.
+     * @throws IOException
+     */
+    private boolean cleanSegment(List<PartitionLog> partitionLogs, PartitionLog partitionLog, long now) throws IOException {
+        long baseOffset = partitionLog.getBaseOffset();
+        long lastModified = partitionLog.getLastModified();
+        boolean removeTombstones = now - lastModified > deleteRetentionMs;
+
+        File dir = new File(partitionLog.getFilePath()).getParentFile();
+
+        OffsetIndex offsetIndex = new OffsetIndex(new File(dir, baseOffset + PartitionLogHandler.INDEX_FILE_EXTENSION + CLEANED_FILE_SUFFIX), baseOffset, indexMaxBytes);
+        TimeIndex timeIndex = new TimeIndex(new File(dir, baseOffset + PartitionLogHandler.TIME_INDEX_FILE_EXTENSION + CLEANED_FILE_SUFFIX), baseOffset, indexMaxBytes);
+        PartitionLog cleanedLog = new PartitionLog(new File(dir, baseOffset + PartitionLogHandler.LOG_FILE_EXTENSION + CLEANED_FILE_SUFFIX), baseOffset, offsetIndex, timeIndex, indexIntervalBytes);
+
+        int[] removed = {0};
+        int[] errorCode = {0};
+        try {
+            partitionLog.forEachBatch(append -> {
+                GenericRecord records = append.getRecords();
+                Collection<GenericRecord> recordList = (Collection<GenericRecord>) records.get("records");
+
+                GenericData.Array<GenericRecord> retained = new GenericData.Array<>(recordList.size(), records.getSchema().getField("records").schema());
+                for (GenericRecord record : recordList) {
+                    if (shouldRetain(record, append.getFirstOffset(), removeTombstones)) {
+                        retained.add(record);
+                    } else {
+                        removed[0]++;
+                    }
+                }
+
+                if (retained.isEmpty() || errorCode[0] != 0) {
+                    return;
+                }
+
+                // record size is still the span of the offsets of the batch, which the offset lookup depends on.
+                records.put("records", retained);
+                errorCode[0] = cleanedLog.add(append.getFirstOffset(), records, append.getRecordSize());
+            });
+        } catch (IOException e) {
+            cleanedLog.delete();
+
+            throw e;
+        }
+
+        if (removed[0] == 0 || errorCode[0] != 0) {
+            cleanedLog.delete();
+
+            return false;
+        }
+
+        cleanedLog.seal();
+        cleanedLog.renameTo(SWAP_FILE_SUFFIX, CLEANED_FILE_SUFFIX);
+
+        // readers which walk the snapshot of the segment list still read the original segment.
+        synchronized (partitionLogs) {
+            int index = partitionLogs.indexOf(partitionLog);
+            if (index < 0) {
+                cleanedLog.delete();
+
+                return false;
+            }
+
+            partitionLogs.set(index, cleanedLog);
+        }
+
+        partitionLog.markDeleted();
+        cleanedLog.renameTo("", SWAP_FILE_SUFFIX);
+
+        OpenSegmentCache openSegmentCache = partitionLog.getOpenSegmentCache();
+        if (openSegmentCache != null) {
+            cleanedLog.setOpenSegmentCache(openSegmentCache);
+        }
+
+        // keep the last modified time of the original segment for retention and tombstones.
+        new File(cleanedLog.getFilePath()).setLastModified(lastModified);
+
+        executor.schedule(partitionLog::delete, fileDeleteDelayMs, TimeUnit.MILLISECONDS);
+
+        log.info("segment [" + partitionLog.getFilePath() + "] replaced with the cleaned one, removed records [" + removed[0] + "]");
+
+        return true;
+    }
+
+    /**
+     * @param record
+     * @param firstOffset
+     * @param removeTombstones
+     * @return true if the record has no key, or it is the latest record of the key which is not an expired tombstone.
+     */
+    private boolean shouldRetain(GenericRecord record, long firstOffset, boolean removeTombstones) {
+        ByteBuffer key = (ByteBuffer) record.get("key");
+        if (key == null) {
+            return true;
+        }
+
+        long offset = firstOffset + (Integer) record.get("offsetDelta");
+
+        long latestOffset = keyOffsetMap.get(key);
+        if (latestOffset > offset) {
+            return false;
+        }
+
+        ByteBuffer value = (ByteBuffer) record.get("value");
+
+        return !(removeTombstones && (value == null || !value.hasRemaining()));
+    }
+}
@@ -0,0 +1,131 @@
+package io.shunters.coda.store;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Version of the segment format in a data directory, which is kept in the format file of the data directory.
+ * <p>
+ * no version: records without batch headers, located by the offset index entry of every batch.
+ * <p>
+ * version 1: BatchHeader := FirstOffset(8 Bytes) DataSize(4 Bytes) RecordSize(4 Bytes), with the sparse offset index.
+ * <p>
+ * version 2: BatchHeader := FirstOffset(8 Bytes) DataSize(4 Bytes) RecordSize(4 Bytes) Checksum(4 Bytes).
+ * <p>
+ * segments of the other version are not migrated, and the server refuses to start on them,
+ * because they would be misparsed, or truncated as torn batches by recovery.
+ */
+public class LogFormat {
+
+    private static Logger log = LoggerFactory.getLogger(LogFormat.class);
+
+    public static final String FORMAT_FILE_NAME = "log-format";
+
+    public static final int VERSION = 2;
+
+    private File file;
+
+    private File dataDir;
+
+    public LogFormat(File dataDir) {
+        this.dataDir = dataDir;
+        this.file = new File(dataDir, FORMAT_FILE_NAME);
+    }
+
+    /**
+     * check the format version of the data directory, and write the current version to the data directory without segments.
+     *
+     * @throws IOException
+     * @throws IllegalStateException if the segments of the data directory are written in another format.
+     */
+    public void checkOrWrite() throws IOException {
+        if (file.exists()) {
+            int version = read();
+            if (version != VERSION) {
+                throw new IllegalStateException("segments of data directory [" + dataDir.getAbsolutePath() + "] are written in format version ["
+                        + version + "], but version [" + VERSION + "] is supported, which are not migrated");
+            }
+
+            return;
+        }
+
+        // segments written before the format file was introduced have no version.
+        if (hasSegments()) {
+            throw new IllegalStateException("segments of data directory [" + dataDir.getAbsolutePath() + "] have no format version, "
+                    + "which are written in an older format than version [" + VERSION + "] and are not migrated");
+        }
+
+        FileUtils.forceMkdir(dataDir);
+        write();
+
+        log.info("format version [" + VERSION + "] written to [" + file.getAbsolutePath() + "]");
+    }
+
+    private int read() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            try {
+                return Integer.parseInt(line.trim());
+            } catch (Exception e) {
+                throw new IllegalStateException("invalid format file [" + file.getAbsolutePath() + "]: " + line);
+            }
+        }
+    }
+
+    /**
+     * write the version to the temporary file first, which replaces the format file.
+     *
+     * @throws IOException
+     */
+    private void write() throws IOException {
+        File tempFile = new File(file.getAbsolutePath() + ".tmp");
+
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8))) {
+            writer.write(String.valueOf(VERSION));
+            writer.newLine();
+
+            writer.flush();
+            outputStream.getFD().sync();
+        }
+
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return true if any partition directory of the data directory has a log file.
+     */
+    private boolean hasSegments() {
+        File[] topicFiles = dataDir.listFiles();
+        if (topicFiles == null) {
+            return false;
+        }
+
+        for (File topicFile : topicFiles) {
+            File[] partitionFiles = topicFile.listFiles();
+            if (partitionFiles == null) {
+                continue;
+            }
+
+            for (File partitionFile : partitionFiles) {
+                String[] logFiles = partitionFile.list((dir, name) -> name.contains(PartitionLogHandler.LOG_FILE_EXTENSION));
+                if (logFiles != null && logFiles.length > 0) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+}
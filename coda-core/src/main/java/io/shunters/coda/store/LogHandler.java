@@ -1,8 +1,10 @@
 package io.shunters.coda.store;
 
+import io.shunters.coda.deser.AvroDeSer;
 import io.shunters.coda.offset.TopicPartition;
 import org.apache.avro.generic.GenericRecord;
 
+import java.nio.channels.FileChannel;
 import java.util.List;
 import java.util.concurrent.ConcurrentMap;
 
@@ -13,20 +15,177 @@ public interface LogHandler {
 
     ConcurrentMap<TopicPartition, List<PartitionLog>> getPartitionLogMap();
 
+    List<String> getDataDirs();
+
+    /**
+     * all the segments of the partition are placed in the same data directory.
+     *
+     * @param topicPartition
+     * @return index of the data directory of the partition, in which new partition is placed.
+     */
+    int getDataDirIndex(TopicPartition topicPartition);
+
     int add(TopicPartition topicPartition, long firstOffset, GenericRecord records, int recordSize);
 
+    /**
+     * add records batches of the partition with one write to the log file and one update of the offset index.
+     *
+     * @param topicPartition
+     * @param appends records batches in the order of the first offsets.
+     * @return error code.
+     */
+    int add(TopicPartition topicPartition, List<Append> appends);
+
+    /**
+     * assign the offsets to the records batches and add them atomically,
+     * so that the batches of the concurrent producers are always appended in the order of their offsets.
+     *
+     * @param topicPartition
+     * @param appends records batches whose first offsets are assigned by the partition log.
+     * @return error code.
+     */
+    int append(TopicPartition topicPartition, List<Append> appends);
+
+    /**
+     * @param topicPartition
+     * @return offset sequencer of the partition, which is created if the partition is new.
+     */
+    OffsetSequencer getOffsetSequencer(TopicPartition topicPartition);
+
+    /**
+     * @param appendListener listener which is notified after records are committed to any partition.
+     */
+    void addAppendListener(AppendListener appendListener);
+
+    /**
+     * force the active segment of the partition to the disk.
+     *
+     * @param topicPartition
+     * @return error code.
+     */
+    int flush(TopicPartition topicPartition);
+
     FetchRecord fetch(TopicPartition topicPartition, long fetchOffset, int maxBytes);
 
+    /**
+     * look up the first offset of the records whose timestamp is at or after the timestamp with the time indexes.
+     *
+     * @param topicPartition
+     * @param timestamp      timestamp, or one of the special timestamps for the latest and the earliest offset.
+     * @return
+     */
+    ListOffset listOffset(TopicPartition topicPartition, long timestamp);
+
+    FetchRegion fetchRegion(TopicPartition topicPartition, long fetchOffset, int maxBytes);
+
+    /**
+     * flush and close the partition logs, and write the checkpoint of the active segments for the next startup.
+     */
+    void close();
+
+    /**
+     * listener of the records committed to the partitions, which is called by the writer of the partition, so that it must not block.
+     */
+    public static interface AppendListener {
+        /**
+         * @param topicPartition
+         * @param bytes          bytes of the records added to the partition.
+         */
+        void onAppend(TopicPartition topicPartition, long bytes);
+    }
+
+    /**
+     * records batch to be added to the partition log.
+     */
+    public static class Append {
+        private long firstOffset;
+
+        private GenericRecord records;
+
+        private int recordSize;
+
+        private byte[] bytes;
+
+        private int checksum;
+
+        public Append(long firstOffset, GenericRecord records, int recordSize) {
+            this.firstOffset = firstOffset;
+            this.records = records;
+            this.recordSize = recordSize;
+        }
+
+        /**
+         * records batch whose first offset is assigned when it is appended.
+         *
+         * @param records
+         * @param recordSize
+         */
+        public Append(GenericRecord records, int recordSize) {
+            this(0, records, recordSize);
+        }
+
+        /**
+         * set the first offset to the records before they are serialized.
+         *
+         * @param firstOffset
+         */
+        void assignFirstOffset(long firstOffset) {
+            this.firstOffset = firstOffset;
+            records.put("firstOffset", firstOffset);
+
+            bytes = null;
+        }
+
+        /**
+         * @return avro bytes of the records, which are serialized and checksummed once.
+         */
+        public byte[] getBytes() {
+            if (bytes == null) {
+                bytes = AvroDeSer.getAvroDeSerSingleton().serialize(records);
+                checksum = Crc32C.compute(bytes);
+            }
+
+            return bytes;
+        }
+
+        /**
+         * @return crc32c of the avro bytes of the records.
+         */
+        public int getChecksum() {
+            getBytes();
+
+            return checksum;
+        }
+
+        public long getFirstOffset() {
+            return firstOffset;
+        }
+
+        public GenericRecord getRecords() {
+            return records;
+        }
+
+        public int getRecordSize() {
+            return recordSize;
+        }
+    }
+
+    /**
+     * fetched records, which are not beyond the high-water mark.
+     */
     public static class FetchRecord {
         private int errorCode;
 
         private long highwaterMarkOffset;
 
+        private long logEndOffset;
+
         private List<GenericRecord> recordsList;
 
-        public FetchRecord(int errorCode, long highwaterMarkOffset, List<GenericRecord> recordsList) {
+        public FetchRecord(int errorCode, long highwaterMarkOffset, long logEndOffset, List<GenericRecord> recordsList) {
             this.errorCode = errorCode;
             this.highwaterMarkOffset = highwaterMarkOffset;
+            this.logEndOffset = logEndOffset;
             this.recordsList = recordsList;
         }
 
@@ -34,12 +193,127 @@ public interface LogHandler {
             return errorCode;
         }
 
+        /**
+         * @return the last offset of the committed records of the partition, from which the consumer lag is computed.
+         */
         public long getHighwaterMarkOffset() {
             return highwaterMarkOffset;
         }
 
+        /**
+         * @return the last offset of the records written to the partition.
+         */
+        public long getLogEndOffset() {
+            return logEndOffset;
+        }
+
         public List<GenericRecord> getRecordsList() {
             return recordsList;
         }
     }
+
+    /**
+     * stored records positions in the log file to be sent without being decoded.
+     * <p>
+     * region with records holds a reference to the segment, which keeps the file channel open until the region is released.
+     * every send of the region takes its own reference with retain, and the region is released once the sends are built.
+     */
+    public static class FetchRegion {
+        private int errorCode;
+
+        private long highwaterMarkOffset;
+
+        private long logEndOffset;
+
+        private FileChannel fileChannel;
+
+        private List<OffsetIndex.OffsetPosition> offsetPositions;
+
+        private PartitionLog partitionLog;
+
+        public FetchRegion(int errorCode, long highwaterMarkOffset, long logEndOffset, FileChannel fileChannel, List<OffsetIndex.OffsetPosition> offsetPositions) {
+            this(errorCode, highwaterMarkOffset, logEndOffset, fileChannel, offsetPositions, null);
+        }
+
+        /**
+         * @param errorCode
+         * @param highwaterMarkOffset
+         * @param logEndOffset
+         * @param fileChannel
+         * @param offsetPositions
+         * @param partitionLog        segment whose reference is held by the region, or null if the region has no reference.
+         */
+        public FetchRegion(int errorCode, long highwaterMarkOffset, long logEndOffset, FileChannel fileChannel, List<OffsetIndex.OffsetPosition> offsetPositions, PartitionLog partitionLog) {
+            this.errorCode = errorCode;
+            this.highwaterMarkOffset = highwaterMarkOffset;
+            this.logEndOffset = logEndOffset;
+            this.fileChannel = fileChannel;
+            this.offsetPositions = offsetPositions;
+            this.partitionLog = partitionLog;
+        }
+
+        /**
+         * take one more reference to the segment, which is called before the region is released.
+         */
+        public void retain() {
+            if (partitionLog != null) {
+                partitionLog.retainOpen();
+            }
+        }
+
+        /**
+         * release a reference to the segment.
+         */
+        public void release() {
+            if (partitionLog != null) {
+                partitionLog.release();
+            }
+        }
+
+        public int getErrorCode() {
+            return errorCode;
+        }
+
+        public long getHighwaterMarkOffset() {
+            return highwaterMarkOffset;
+        }
+
+        public long getLogEndOffset() {
+            return logEndOffset;
+        }
+
+        public FileChannel getFileChannel() {
+            return fileChannel;
+        }
+
+        public List<OffsetIndex.OffsetPosition> getOffsetPositions() {
+            return offsetPositions;
+        }
+    }
+
+    public static class ListOffset {
+        private int errorCode;
+
+        private long timestamp;
+
+        private long offset;
+
+        public ListOffset(int errorCode, long timestamp, long offset) {
+            this.errorCode = errorCode;
+            this.timestamp = timestamp;
+            this.offset = offset;
+        }
+
+        public int getErrorCode() {
+            return errorCode;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+    }
 }
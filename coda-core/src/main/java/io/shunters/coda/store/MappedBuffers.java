@@ -0,0 +1,50 @@
+package io.shunters.coda.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * unmaps the mappings of the index files when they are closed, instead of keeping them until the buffers are garbage collected.
+ * <p>
+ * the cleaner of the direct buffer is invoked on java 8, and Unsafe.invokeCleaner on java 9 and later,
+ * where the cleaner is not accessible any more.
+ */
+class MappedBuffers {
+    private static Logger log = LoggerFactory.getLogger(MappedBuffers.class);
+
+    private MappedBuffers() {
+    }
+
+    /**
+     * unmap the buffer, which must not be accessed any more, otherwise the jvm crashes.
+     *
+     * @param buffer
+     */
+    static void unmap(MappedByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            // java 9 and later.
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+
+                unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+            } catch (Exception ex) {
+                log.warn("failed to unmap the buffer, which is unmapped when it is garbage collected: " + ex.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package io.shunters.coda.store;
+
+import io.shunters.coda.offset.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checkpoint of the active segments of the partitions in a data directory, which is written at clean shutdown.
+ * <p>
+ * Checkpoint := Version(line) Count(line) Entry(line)*
+ * <p>
+ * Entry := Topic Partition BaseOffset LastOffset Size
+ * <p>
+ * checkpoint is deleted once it is read at startup, so that the active segments are scanned after an unclean shutdown.
+ */
+public class OffsetCheckpoint {
+
+    private static Logger log = LoggerFactory.getLogger(OffsetCheckpoint.class);
+
+    public static final String CHECKPOINT_FILE_NAME = "clean-shutdown.checkpoint";
+
+    private static final int VERSION = 0;
+
+    private File file;
+
+    public OffsetCheckpoint(File dataDir) {
+        this.file = new File(dataDir, CHECKPOINT_FILE_NAME);
+    }
+
+    /**
+     * write the entries to the temporary file first, which replaces the checkpoint file.
+     *
+     * @param entries
+     * @throws IOException
+     */
+    public void write(Map<TopicPartition, Entry> entries) throws IOException {
+        File tempFile = new File(file.getAbsolutePath() + ".tmp");
+
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8))) {
+            writer.write(String.valueOf(VERSION));
+            writer.newLine();
+            writer.write(String.valueOf(entries.size()));
+            writer.newLine();
+
+            for (Map.Entry<TopicPartition, Entry> entry : entries.entrySet()) {
+                TopicPartition topicPartition = entry.getKey();
+                Entry checkpoint = entry.getValue();
+
+                writer.write(topicPartition.getTopic() + " " + topicPartition.getPartition() + " "
+                        + checkpoint.getBaseOffset() + " " + checkpoint.getLastOffset() + " " + checkpoint.getSize());
+                writer.newLine();
+            }
+
+            writer.flush();
+            outputStream.getFD().sync();
+        }
+
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the entries of the checkpoint, which are empty if there is no valid checkpoint.
+     */
+    public Map<TopicPartition, Entry> read() {
+        Map<TopicPartition, Entry> entries = new HashMap<>();
+        if (!file.exists()) {
+            return entries;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            int version = Integer.parseInt(reader.readLine());
+            if (version != VERSION) {
+                log.warn("unknown version [" + version + "] of checkpoint [" + file.getAbsolutePath() + "]");
+
+                return entries;
+            }
+
+            int count = Integer.parseInt(reader.readLine());
+            for (int i = 0; i < count; i++) {
+                String[] tokens = reader.readLine().split(" ");
+
+                entries.put(new TopicPartition(tokens[0], Integer.parseInt(tokens[1])),
+                        new Entry(Long.parseLong(tokens[2]), Long.parseLong(tokens[3]), Long.parseLong(tokens[4])));
+            }
+        } catch (Exception e) {
+            log.warn("failed to read checkpoint [" + file.getAbsolutePath() + "]: " + e.getMessage());
+
+            entries.clear();
+        }
+
+        return entries;
+    }
+
+    public void delete() {
+        if (file.exists() && !file.delete()) {
+            log.warn("failed to delete [" + file.getAbsolutePath() + "]");
+        }
+    }
+
+    /**
+     * base offset, last offset and size of the active segment.
+     */
+    public static class Entry {
+        private long baseOffset;
+
+        private long lastOffset;
+
+        private long size;
+
+        public Entry(long baseOffset, long lastOffset, long size) {
+            this.baseOffset = baseOffset;
+            this.lastOffset = lastOffset;
+            this.size = size;
+        }
+
+        public long getBaseOffset() {
+            return baseOffset;
+        }
+
+        public long getLastOffset() {
+            return lastOffset;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+}
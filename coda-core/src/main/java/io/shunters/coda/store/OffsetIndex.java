@@ -1,5 +1,6 @@
 package io.shunters.coda.store;
 
+import io.shunters.coda.protocol.ClientServerSpec;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,40 +9,65 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Entry := DeltaOffset(4 Bytes) DataPosition(4 Bytes) DataSize(4 Bytes) RecordSize(4 Bytes)
  * <p>
- * TODO: Rolling offset index file to offset.
+ * index file is mapped once, and the mapping is grown by preallocating the file up to the max. index size
+ * when the entries are added first. entries are added and looked up through the mapping,
+ * and the preallocated space is trimmed when the segment rolls. the mapping is unmapped when the index is closed.
+ * <p>
+ * because the preallocated space is filled with zero, valid entries are the ones whose data size is not zero.
  */
 public class OffsetIndex {
     private static Logger log = LoggerFactory.getLogger(OffsetIndex.class);
 
     private static final int ENTRY_SIZE = 16;
 
+    /**
+     * default max. size of the index file to be preallocated.
+     */
+    public static final int DEFAULT_MAX_INDEX_SIZE = 10 * 1024 * 1024;
+
     private final ReentrantLock lock = new ReentrantLock();
 
     private File file;
     private long baseOffset;
-    private FileChannel fileChannel;
-    private long size = 0;
+    private RandomAccessFile raf;
+    private volatile MappedByteBuffer mmap;
+    private int maxIndexSize;
+    private volatile long size = 0;
     private long lastFirstOffset = 0;
-    private long lastOffset = 0;
+    private volatile long lastOffset = 0;
 
     public OffsetIndex(File file, long baseOffset) {
+        this(file, baseOffset, DEFAULT_MAX_INDEX_SIZE);
+    }
+
+    public OffsetIndex(File file, long baseOffset, int maxIndexSize) {
         this.file = file;
         this.baseOffset = baseOffset;
+        this.maxIndexSize = maxIndexSize - (maxIndexSize % ENTRY_SIZE);
         try {
             if (!file.exists()) {
                 FileUtils.forceMkdir(file.getParentFile());
                 file.createNewFile();
             }
 
-            RandomAccessFile raf = new RandomAccessFile(file, "rw");
-            fileChannel = raf.getChannel();
-            size = raf.length();
+            raf = new RandomAccessFile(file, "rw");
+
+            long length = raf.length() - (raf.length() % ENTRY_SIZE);
+            mmap = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+
+            size = this.getValidEntryCount() * ENTRY_SIZE;
 
             log.info("initial size [{}]", size);
 
@@ -60,27 +86,82 @@ public class OffsetIndex {
         return this.lastOffset;
     }
 
-    private ByteBuffer getMMap(int position, long length) {
-        try {
-            return fileChannel.map(FileChannel.MapMode.READ_WRITE, position, length).duplicate();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * @param entryCount
+     * @return true if the entries do not fit in the max. index size any more.
+     */
+    public boolean isFull(int entryCount) {
+        return size + (long) entryCount * ENTRY_SIZE > maxIndexSize;
     }
 
     private int getEntryCount() {
         return (int) (size / ENTRY_SIZE);
     }
 
+    /**
+     * valid entries are followed by the zero filled entries preallocated, so that the first entry with zero data size is searched.
+     */
+    private int getValidEntryCount() {
+        int first = 0;
+        ByteBuffer buffer = mapping();
+        int last = buffer.capacity() / ENTRY_SIZE - 1;
+        while (first <= last) {
+            int middle = (first + last) / 2;
+            if (getDataSize(buffer, middle) != 0) {
+                first = middle + 1;
+            } else {
+                last = middle - 1;
+            }
+        }
+
+        return first;
+    }
+
+    /**
+     * grow the mapping by preallocating the index file, if the entries do not fit in the mapping.
+     *
+     * @param entryCount
+     * @throws IOException
+     */
+    private void ensureCapacity(int entryCount) throws IOException {
+        long requiredSize = size + (long) entryCount * ENTRY_SIZE;
+        if (requiredSize <= mapping().capacity()) {
+            return;
+        }
+
+        remap(Math.max(requiredSize, maxIndexSize));
+    }
+
+    private void remap(long length) throws IOException {
+        raf.setLength(length);
+        mmap = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+    }
+
+    /**
+     * trim the preallocated space of the index file to the valid entries, which is called when the segment rolls.
+     */
+    public void trimToSize() {
+        lock.lock();
+        try {
+            MappedByteBuffer buffer = mapping();
+            if (buffer.capacity() != size) {
+                buffer.force();
+                remap(size);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     private void readLastOffset() {
         if (this.getEntryCount() > 0) {
-            ByteBuffer buffer = getMMap(0, size);
-
             // the first offset in the last entry.
+            ByteBuffer buffer = mapping();
             this.lastFirstOffset = baseOffset + this.getDeltaOffset(buffer, this.getEntryCount() - 1);
 
-            int entryIndex = this.getEntryIndex(buffer, lastFirstOffset);
-            int recordSize = this.getRecordSize(buffer, entryIndex);
+            int recordSize = this.getRecordSize(buffer, this.getEntryCount() - 1);
 
             // last offset.
             this.lastOffset = this.lastFirstOffset + recordSize - 1;
@@ -92,7 +173,7 @@ public class OffsetIndex {
             log.info("no entries to print");
         }
 
-        ByteBuffer buffer = getMMap(0, size).duplicate();
+        ByteBuffer buffer = mapping();
         for (int i = 0; i < this.getEntryCount(); i++) {
             long firstOffset = baseOffset + getDeltaOffset(buffer, i);
             int position = getPosition(buffer, i);
@@ -100,80 +181,187 @@ public class OffsetIndex {
         }
     }
 
-    public void add(long firstOffset, int position, int dataSize, int recordSize) {
+    private void putEntry(ByteBuffer buffer, int n, long firstOffset, int position, int dataSize, int recordSize) {
+        int index = n * ENTRY_SIZE;
+        buffer.putInt(index, (int) (firstOffset - baseOffset));
+        buffer.putInt(index + 4, position);
+        buffer.putInt(index + 8, dataSize);
+        buffer.putInt(index + 12, recordSize);
+    }
+
+    /**
+     * index is append-only, so that the entry is added just after the last one.
+     *
+     * @param firstOffset
+     * @param position
+     * @param dataSize
+     * @param recordSize
+     * @return error code, storage error if the first offset is not after the last offset of the index.
+     */
+    public int add(long firstOffset, int position, int dataSize, int recordSize) {
+        return add(Collections.singletonList(new OffsetPosition(firstOffset, position, dataSize, recordSize)));
+    }
+
+
+    /**
+     * add entries through the mapping after the last entry.
+     * <p>
+     * partition log appends the batches in the order of the offsets, so that the entries out of order are rejected,
+     * not to hide the ordering bugs of the offset assignment.
+     *
+     * @param offsetPositions
+     * @return error code, storage error if the first offsets do not increase after the last offset of the index.
+     */
+    public int add(List<OffsetPosition> offsetPositions) {
+        if (offsetPositions.isEmpty()) {
+            return ClientServerSpec.ERROR_CODE_NONE;
+        }
+
         lock.lock();
         try {
-            if (lastFirstOffset < firstOffset) {
-                fileChannel.position((int) size);
-                ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE);
-                buffer.putInt((int) (firstOffset - baseOffset));
-                buffer.putInt(position);
-                buffer.putInt(dataSize);
-                buffer.putInt(recordSize);
-                buffer.rewind();
-                fileChannel.write(buffer);
+            long previousLastOffset = (this.getEntryCount() > 0) ? lastOffset : baseOffset - 1;
+            for (OffsetPosition offsetPosition : offsetPositions) {
+                if (offsetPosition.getOffset() <= previousLastOffset) {
+                    log.error("offset [" + offsetPosition.getOffset() + "] is not after the last offset [" + previousLastOffset + "] of [" + file.getAbsolutePath() + "]");
 
-                lastFirstOffset = firstOffset;
+                    return ClientServerSpec.ERROR_CODE_STORAGE_ERROR;
+                }
 
-                // last offset.
-                this.lastOffset = this.lastFirstOffset + recordSize - 1;
+                previousLastOffset = offsetPosition.getOffset() + offsetPosition.getRecordSize() - 1;
+            }
 
-            } else {
-                // offset sequential order check should be performed.
-                // search for the entry index whose offset value is greater than the target offset(firstOffset) and difference between them is smallest.
-                ByteBuffer buffer = this.getMMap(0, size).duplicate();
-                int first = 0;
-                int last = (int) this.getEntryCount() - 1;
-                while (first <= last) {
-                    int middle = (first + last) / 2;
-                    long retOffset = baseOffset + getDeltaOffset(buffer, middle);
-                    if (retOffset < firstOffset) {
-                        first = middle + 1;
-                    } else if (retOffset > firstOffset) {
-                        last = middle - 1;
-                    } else {
-                        throw new RuntimeException("Offset [" + firstOffset + "] Already exists.");
-                    }
-                }
+            ensureCapacity(offsetPositions.size());
+
+            ByteBuffer buffer = mapping();
+            int entryIndex = this.getEntryCount();
+            for (OffsetPosition offsetPosition : offsetPositions) {
+                putEntry(buffer, entryIndex++, offsetPosition.getOffset(), offsetPosition.getPosition(), offsetPosition.getDataSize(), offsetPosition.getRecordSize());
+            }
+
+            OffsetPosition last = offsetPositions.get(offsetPositions.size() - 1);
+            lastFirstOffset = last.getOffset();
+
+            // last offset.
+            this.lastOffset = this.lastFirstOffset + last.getRecordSize() - 1;
 
-                int entryIndex = first;
+            // entries become visible to the lookups after they are written.
+            size += ENTRY_SIZE * offsetPositions.size();
+
+            return ClientServerSpec.ERROR_CODE_NONE;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-                // slice the buffer from the chosen entry index.
-                byte[] lastBytes = new byte[(this.getEntryCount() * ENTRY_SIZE) - (entryIndex * ENTRY_SIZE)];
-                buffer.position(entryIndex * ENTRY_SIZE);
-                buffer.get(lastBytes);
 
-                ByteBuffer lastByteBuffer = ByteBuffer.wrap(lastBytes);
-                lastByteBuffer.rewind();
+    /**
+     * @return the valid entries, whose positions are the ones of the batch headers.
+     */
+    public List<OffsetPosition> getOffsetPositions() {
+        int entryCount = this.getEntryCount();
+        ByteBuffer buffer = mapping();
 
-                // put new offset entry.
-                fileChannel.position(entryIndex * ENTRY_SIZE);
+        List<OffsetPosition> offsetPositions = new ArrayList<>(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            offsetPositions.add(new OffsetPosition(baseOffset + getDeltaOffset(buffer, i), getPosition(buffer, i), getDataSize(buffer, i), getRecordSize(buffer, i)));
+        }
 
-                ByteBuffer newBuffer = ByteBuffer.allocate(ENTRY_SIZE);
-                newBuffer.putInt((int) (firstOffset - baseOffset));
-                newBuffer.putInt(position);
-                newBuffer.putInt(dataSize);
-                newBuffer.putInt(recordSize);
-                newBuffer.rewind();
-                fileChannel.write(newBuffer);
+        return offsetPositions;
+    }
 
-                // after that, append the sliced buffer.
-                fileChannel.write(lastByteBuffer);
+    /**
+     * remove the entries after the entry count, whose space is filled with zero again.
+     *
+     * @param entryCount
+     */
+    public void truncateTo(int entryCount) {
+        lock.lock();
+        try {
+            ByteBuffer buffer = mapping();
+            for (int i = entryCount * ENTRY_SIZE; i < size; i++) {
+                buffer.put(i, (byte) 0);
             }
 
-            size += ENTRY_SIZE;
+            size = (long) entryCount * ENTRY_SIZE;
 
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            lastFirstOffset = 0;
+            lastOffset = 0;
+            readLastOffset();
         } finally {
             lock.unlock();
         }
     }
 
+    public void flush() throws IOException {
+        mapping().force();
+    }
+
+    /**
+     * rename the index file, which is still accessible through the mapping.
+     *
+     * @param target
+     * @throws IOException
+     */
+    public void renameTo(File target) throws IOException {
+        Files.move(file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        file = target;
+    }
 
-    private int getEntryIndex(ByteBuffer buffer, long offset) {
+    /**
+     * close the index file, and unmap the mapping, which must not be accessed any more.
+     * <p>
+     * the caller makes sure that no lookup is made through the mapping while it is closed.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                log.warn("failed to close [" + file.getAbsolutePath() + "]: " + e.getMessage());
+            }
+
+            MappedByteBuffer buffer = mmap;
+            mmap = null;
+
+            if (buffer != null) {
+                MappedBuffers.unmap(buffer);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the mapping of the index file.
+     * @throws IllegalStateException if the index is closed, so that the unmapped buffer is never accessed.
+     */
+    private MappedByteBuffer mapping() {
+        MappedByteBuffer buffer = mmap;
+        if (buffer == null) {
+            throw new IllegalStateException("index [" + file.getAbsolutePath() + "] is closed");
+        }
+
+        return buffer;
+    }
+
+    /**
+     * close the index file, and delete it.
+     */
+    public void delete() {
+        close();
+
+        if (!file.delete()) {
+            log.warn("failed to delete [" + file.getAbsolutePath() + "]");
+        }
+    }
+
+
+    private int getEntryIndex(ByteBuffer buffer, int entryCount, long offset) {
         int first = 0;
-        int last = this.getEntryCount() - 1;
+        int last = entryCount - 1;
         while (first <= last) {
             int middle = (first + last) / 2;
             long retOffset = baseOffset + getDeltaOffset(buffer, middle);
@@ -189,18 +377,24 @@ public class OffsetIndex {
         return last;
     }
 
+    /**
+     * @param offset
+     * @return the last entry whose first offset is not greater than the offset, or null if there is no such entry.
+     */
     public OffsetPosition getFirstOffsetPosition(long offset) {
-        if (size == 0) {
+        // read the size before the mapping, because the mapping is replaced before the size grows beyond it.
+        int entryCount = this.getEntryCount();
+        ByteBuffer buffer = mapping();
+
+        if (entryCount == 0) {
             return null;
         }
-        // offset does not exist in this index file.
-        else if (offset > this.lastOffset) {
+
+        int entryIndex = this.getEntryIndex(buffer, entryCount, offset);
+        if (entryIndex < 0) {
             return null;
         }
 
-        ByteBuffer buffer = this.getMMap(0, size).duplicate();
-        int entryIndex = this.getEntryIndex(buffer, offset);
-
         long firstOffset = baseOffset + getDeltaOffset(buffer, entryIndex);
         int position = getPosition(buffer, entryIndex);
         int dataSize = this.getDataSize(buffer, entryIndex);
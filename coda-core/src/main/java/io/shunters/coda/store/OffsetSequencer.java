@@ -0,0 +1,96 @@
+package io.shunters.coda.store;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Offset sequencer of a partition, which reserves the offset ranges of the records batches,
+ * and tracks the log end offset and the high-water mark of the partition.
+ * <p>
+ * offset range is reserved by the writer of the partition under the lock of the partition together with the append,
+ * so that the records are added to the partition log in the order of their offsets.
+ * log end offset is published after the records are written to the partition log,
+ * and high-water mark is moved up to the log end offset when the written records are committed, which is acknowledged by the replicas.
+ * records up to the high-water mark can be read by fetch.
+ */
+public class OffsetSequencer {
+
+    private final AtomicLong nextOffset;
+
+    private volatile long logEndOffset;
+
+    private volatile long highwaterMark;
+
+    /**
+     * @param nextOffset offset of the next records, all the records before which have been written.
+     */
+    public OffsetSequencer(long nextOffset) {
+        this.nextOffset = new AtomicLong(nextOffset);
+        this.logEndOffset = nextOffset - 1;
+        this.highwaterMark = nextOffset - 1;
+    }
+
+    /**
+     * called under the lock of the partition, and the reserved range must be appended before the lock is released.
+     *
+     * @param size number of the records.
+     * @return the first offset of the reserved range.
+     */
+    public long reserve(long size) {
+        return nextOffset.getAndAdd(size);
+    }
+
+    /**
+     * move the next offset after the records added with their own offsets.
+     *
+     * @param offset
+     */
+    public void advanceTo(long offset) {
+        long current;
+        while ((current = nextOffset.get()) < offset) {
+            if (nextOffset.compareAndSet(current, offset)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * publish the last offset of the written records, which is called by the writer of the partition.
+     *
+     * @param lastOffset
+     */
+    public void publish(long lastOffset) {
+        if (lastOffset > logEndOffset) {
+            logEndOffset = lastOffset;
+        }
+    }
+
+    /**
+     * move the high-water mark up to the committed offset, which does not pass the log end offset.
+     *
+     * @param offset
+     */
+    public synchronized void commit(long offset) {
+        long committed = Math.min(offset, logEndOffset);
+        if (committed > highwaterMark) {
+            highwaterMark = committed;
+        }
+    }
+
+    public long getNextOffset() {
+        return nextOffset.get();
+    }
+
+    /**
+     * @return the last offset of the records which have been written completely.
+     */
+    public long getLogEndOffset() {
+        return logEndOffset;
+    }
+
+    /**
+     * @return the last offset of the committed records.
+     */
+    public long getHighwaterMark() {
+        return highwaterMark;
+    }
+}
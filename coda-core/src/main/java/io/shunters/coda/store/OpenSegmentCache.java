@@ -0,0 +1,78 @@
+package io.shunters.coda.store;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LRU of the sealed segments whose log and index files are open.
+ * <p>
+ * files of the least recently used segment are closed after the delay, when the number of the open segments exceeds the max.
+ * files referenced by the reads of the segment then, for instance the zero-copy sends waiting in the send queues,
+ * are closed when the last reference is released. the segment is opened again on the next read.
+ */
+public class OpenSegmentCache {
+
+    public static final int DEFAULT_MAX_OPEN_SEGMENTS = 1000;
+
+    private final LinkedHashMap<PartitionLog, Boolean> openSegments;
+
+    private ScheduledExecutorService executor;
+
+    private long closeDelayMs;
+
+    /**
+     * @param maxOpenSegments
+     * @param executor        executor on which files are closed after the delay.
+     * @param closeDelayMs
+     */
+    public OpenSegmentCache(int maxOpenSegments, ScheduledExecutorService executor, long closeDelayMs) {
+        this.executor = executor;
+        this.closeDelayMs = closeDelayMs;
+
+        openSegments = new LinkedHashMap<PartitionLog, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PartitionLog, Boolean> eldest) {
+                if (size() <= maxOpenSegments) {
+                    return false;
+                }
+
+                Runnable closer = eldest.getKey().evict();
+                if (closer != null) {
+                    OpenSegmentCache.this.executor.schedule(closer, OpenSegmentCache.this.closeDelayMs, TimeUnit.MILLISECONDS);
+                }
+
+                return true;
+            }
+        };
+    }
+
+    /**
+     * mark the segment as the most recently used one.
+     *
+     * @param partitionLog
+     */
+    public void touch(PartitionLog partitionLog) {
+        synchronized (openSegments) {
+            openSegments.put(partitionLog, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * remove the segment whose files are closed.
+     *
+     * @param partitionLog
+     */
+    public void remove(PartitionLog partitionLog) {
+        synchronized (openSegments) {
+            openSegments.remove(partitionLog);
+        }
+    }
+
+    public int size() {
+        synchronized (openSegments) {
+            return openSegments.size();
+        }
+    }
+}
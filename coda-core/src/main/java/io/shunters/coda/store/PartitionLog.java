@@ -12,13 +12,33 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
 
 /**
- * Created by mykidong on 2017-08-30.
+ * Batch := BatchHeader Records
+ * <p>
+ * BatchHeader := FirstOffset(8 Bytes) DataSize(4 Bytes) RecordSize(4 Bytes) Checksum(4 Bytes)
+ * <p>
+ * checksum is the crc32c of the records, which is computed once on append and verified by fetch if it is asked, by recovery and by the scrubber.
+ * <p>
+ * this is the format version {@link LogFormat#VERSION}, which is checked for the data directories at startup.
+ * <p>
+ * offset index has an entry just every index interval bytes of the log, so that the batch of an offset is looked up
+ * by scanning the batch headers forward from the nearest index entry.
+ * <p>
+ * sealed segment loaded at startup opens the log and index files lazily on the first read,
+ * and the files are closed by the open segment cache when the segment is not used for a while.
  */
 public class PartitionLog {
 
@@ -29,19 +49,111 @@ public class PartitionLog {
      */
     private static AvroDeSer avroDeSer = AvroDeSer.getAvroDeSerSingleton();
 
+    public static final int BATCH_HEADER_SIZE = 20;
+
+    /**
+     * position of the checksum in the batch header.
+     */
+    private static final int CHECKSUM_POSITION = 16;
+
+    /**
+     * default bytes of the log between offset index entries.
+     */
+    public static final int DEFAULT_INDEX_INTERVAL_BYTES = 4096;
 
     private long baseOffset;
     private File file;
-    private FileChannel fileChannel;
-    private OffsetIndex offsetIndex;
-    private long size = 0;
+    private volatile RandomAccessFile raf;
+    private volatile FileChannel fileChannel;
+    private volatile OffsetIndex offsetIndex;
+    private volatile TimeIndex timeIndex;
+    private volatile long size = 0;
+    private volatile long lastOffset = 0;
+
+    /**
+     * max. timestamp of the sealed segment which has not been opened, read from the time index file, or -1 if not read yet.
+     */
+    private volatile long sealedMaxTimestamp = -1;
+
+    private int indexIntervalBytes;
+
+    private int indexMaxBytes = OffsetIndex.DEFAULT_MAX_INDEX_SIZE;
+
+    /**
+     * log and index files are open.
+     */
+    private volatile boolean opened = false;
+
+    /**
+     * segment is closed for good, and is not opened again.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * cache which closes the files of the sealed segment when it is not used, or null if the files are kept open.
+     */
+    private volatile OpenSegmentCache openSegmentCache;
+
+    /**
+     * bytes of the log added after the last offset index entry.
+     */
+    private long bytesSinceLastIndexEntry = Long.MAX_VALUE;
+
+    /**
+     * messages appended after the last flush.
+     */
+    private AtomicLong unflushedMessages = new AtomicLong(0);
+
+    private volatile long lastFlushTime = System.currentTimeMillis();
+
+    /**
+     * time at which the segment is created or loaded.
+     */
+    private long createdTime = System.currentTimeMillis();
+
+    /**
+     * sealed segment does not accept records any more.
+     */
+    private volatile boolean sealed = false;
 
     private final ReentrantLock lock = new ReentrantLock();
 
+    /**
+     * references to the open files held by the reads of the segment, for instance the zero-copy sends waiting in the send queues.
+     * files requested to be closed or deleted while they are referenced are closed and deleted when the last reference is released.
+     */
+    private int refCount = 0;
+
+    private boolean closePending = false;
+
+    private boolean deletePending = false;
+
     public PartitionLog(File file, long baseOffset, OffsetIndex offsetIndex) {
+        this(file, baseOffset, offsetIndex, DEFAULT_INDEX_INTERVAL_BYTES);
+    }
+
+    public PartitionLog(File file, long baseOffset, OffsetIndex offsetIndex, int indexIntervalBytes) {
+        this(file, baseOffset, offsetIndex, new TimeIndex(new File(file.getParentFile(), baseOffset + PartitionLogHandler.TIME_INDEX_FILE_EXTENSION), baseOffset), indexIntervalBytes);
+    }
+
+    public PartitionLog(File file, long baseOffset, OffsetIndex offsetIndex, TimeIndex timeIndex, int indexIntervalBytes) {
+        this(file, baseOffset, offsetIndex, timeIndex, indexIntervalBytes, null);
+    }
+
+    /**
+     * @param file
+     * @param baseOffset
+     * @param offsetIndex
+     * @param timeIndex
+     * @param indexIntervalBytes
+     * @param checkpoint         size and last offset of the segment written at clean shutdown, or null if the log is to be scanned.
+     */
+    public PartitionLog(File file, long baseOffset, OffsetIndex offsetIndex, TimeIndex timeIndex, int indexIntervalBytes, OffsetCheckpoint.Entry checkpoint) {
         this.file = file;
         this.baseOffset = baseOffset;
         this.offsetIndex = offsetIndex;
+        this.timeIndex = timeIndex;
+        this.indexIntervalBytes = indexIntervalBytes;
 
         try {
             if (!file.exists()) {
@@ -49,70 +161,772 @@ public class PartitionLog {
                 file.createNewFile();
             }
 
-            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf = new RandomAccessFile(file, "rw");
             fileChannel = raf.getChannel();
 
-            size = raf.length();
-            log.info("initial size [{}]", size);
+            if (checkpoint != null && checkpoint.getBaseOffset() == baseOffset && checkpoint.getSize() <= raf.length()) {
+                size = checkpoint.getSize();
+                lastOffset = checkpoint.getLastOffset();
+
+                OffsetIndex.OffsetPosition lastEntry = offsetIndex.getFirstOffsetPosition(Long.MAX_VALUE);
+                if (lastEntry != null) {
+                    bytesSinceLastIndexEntry = size - lastEntry.getPosition();
+                }
+            } else {
+                // log file may be preallocated, so that the size is the end of the last batch.
+                size = readLastOffset(raf.length());
+            }
+
+            opened = true;
+
+            log.info("initial size [{}], last offset [{}]", size, lastOffset);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * sealed segment whose log and index files are opened on the first read.
+     *
+     * @param file
+     * @param baseOffset
+     * @param indexMaxBytes
+     * @param indexIntervalBytes
+     * @param openSegmentCache
+     */
+    public PartitionLog(File file, long baseOffset, int indexMaxBytes, int indexIntervalBytes, OpenSegmentCache openSegmentCache) {
+        this.file = file;
+        this.baseOffset = baseOffset;
+        this.indexMaxBytes = indexMaxBytes;
+        this.indexIntervalBytes = indexIntervalBytes;
+        this.openSegmentCache = openSegmentCache;
+
+        // sealed segment is trimmed to the end of the last batch.
+        sealed = true;
+        size = file.length();
+    }
+
+    /**
+     * open the log and index files if they are not open.
+     *
+     * @throws IOException
+     */
+    private void ensureOpen() throws IOException {
+        if (!opened) {
+            lock.lock();
+            try {
+                if (closed) {
+                    throw new IOException("segment [" + file.getAbsolutePath() + "] is closed");
+                }
+
+                if (!opened) {
+                    offsetIndex = new OffsetIndex(siblingFile(PartitionLogHandler.INDEX_FILE_EXTENSION), baseOffset, indexMaxBytes);
+                    timeIndex = new TimeIndex(siblingFile(PartitionLogHandler.TIME_INDEX_FILE_EXTENSION), baseOffset, indexMaxBytes);
+
+                    raf = new RandomAccessFile(file, "rw");
+                    fileChannel = raf.getChannel();
+
+                    // sealed segment which had not been trimmed before unclean shutdown is preallocated.
+                    size = readLastOffset(size);
+
+                    opened = true;
+
+                    log.debug("segment [{}] opened, last offset [{}]", file.getAbsolutePath(), lastOffset);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        OpenSegmentCache openSegmentCache = this.openSegmentCache;
+        if (openSegmentCache != null) {
+            openSegmentCache.touch(this);
+        }
+    }
+
+    /**
+     * open the files for the getters, which return the last state of the segment once it is closed.
+     */
+    private void ensureOpenUnchecked() {
+        if (closed) {
+            return;
+        }
+
+        try {
+            ensureOpen();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param extension
+     * @return the index file of the segment, which has the same name as the log file except the extension.
+     */
+    private File siblingFile(String extension) {
+        return new File(file.getParentFile(), file.getName().replaceFirst(Pattern.quote(PartitionLogHandler.LOG_FILE_EXTENSION), extension));
+    }
+
+    /**
+     * let the open segment cache close the files of the sealed segment when it is not used.
+     *
+     * @param openSegmentCache
+     */
+    void setOpenSegmentCache(OpenSegmentCache openSegmentCache) {
+        this.openSegmentCache = openSegmentCache;
+
+        if (opened) {
+            openSegmentCache.touch(this);
+        }
+    }
+
+    OpenSegmentCache getOpenSegmentCache() {
+        return openSegmentCache;
+    }
+
+    /**
+     * the sealed segment is evicted from the open segment cache.
+     *
+     * @return task to close the files, which is run after the delay, or null if the files are not open.
+     */
+    Runnable evict() {
+        lock.lock();
+        try {
+            if (!opened || !sealed) {
+                return null;
+            }
+
+            return this::closeUnreferenced;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * close the files of the evicted segment, or let the last reference to them close them.
+     */
+    private void closeUnreferenced() {
+        lock.lock();
+        try {
+            if (!opened) {
+                return;
+            }
+
+            if (refCount > 0) {
+                closePending = true;
+            } else {
+                closeOpenFiles();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * take a reference to the open files, which are not closed until the reference is released.
+     *
+     * @throws IOException if the segment is closed.
+     */
+    private void retain() throws IOException {
+        while (true) {
+            ensureOpen();
+
+            lock.lock();
+            try {
+                if (closed) {
+                    throw new IOException("segment [" + file.getAbsolutePath() + "] is closed");
+                }
+
+                // files may have been closed by the open segment cache after they were opened.
+                if (opened) {
+                    refCount++;
+
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * take one more reference to the files, which are kept open by the reference of the caller.
+     */
+    void retainOpen() {
+        lock.lock();
+        try {
+            refCount++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * release the reference to the open files.
+     */
+    void release() {
+        lock.lock();
+        try {
+            refCount--;
+
+            if (refCount == 0 && closePending) {
+                closeOpenFiles();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * close the files, and delete them if the segment has been deleted. it is called under the lock without references.
+     */
+    private void closeOpenFiles() {
+        opened = false;
+        closePending = false;
+
+        closeFiles(raf, offsetIndex, timeIndex);
+
+        if (deletePending) {
+            deletePending = false;
+
+            deleteFiles();
+        }
+    }
+
+    private void closeFiles(RandomAccessFile raf, OffsetIndex offsetIndex, TimeIndex timeIndex) {
+        try {
+            raf.close();
+        } catch (IOException e) {
+            log.warn("failed to close [" + file.getAbsolutePath() + "]: " + e.getMessage());
+        }
+
+        offsetIndex.close();
+        timeIndex.close();
+    }
+
+    /**
+     * scan the batches after the last offset index entry.
+     *
+     * @param logSize length of the log file.
+     * @return the end position of the last batch.
+     * @throws IOException
+     */
+    private long readLastOffset(long logSize) throws IOException {
+        ByteBuffer headerBuffer = ByteBuffer.allocate(BATCH_HEADER_SIZE);
+
+        OffsetIndex.OffsetPosition lastEntry = offsetIndex.getFirstOffsetPosition(Long.MAX_VALUE);
+        long position = (lastEntry != null) ? lastEntry.getPosition() : 0;
+        if (lastEntry != null) {
+            bytesSinceLastIndexEntry = logSize - position;
+        }
+
+        OffsetIndex.OffsetPosition batch;
+        while ((batch = readBatch(position, logSize, headerBuffer)) != null) {
+            lastOffset = batch.getOffset() + batch.getRecordSize() - 1;
+
+            position = batch.getPosition() + batch.getDataSize();
+        }
+
+        return position;
+    }
+
+    /**
+     * @return the last offset of the records added to this log.
+     */
+    public long getLastOffset() {
+        ensureOpenUnchecked();
+
+        return lastOffset;
+    }
+
     public String getFilePath() {
         return file.getAbsolutePath();
     }
 
     public OffsetIndex getOffsetIndex() {
+        ensureOpenUnchecked();
+
         return offsetIndex;
     }
 
-    public long getBaseOffset() {
-        return baseOffset;
+    public TimeIndex getTimeIndex() {
+        ensureOpenUnchecked();
+
+        return timeIndex;
     }
 
-    public long getSize() {
-        return this.size;
+    /**
+     * max. timestamp of the records, which does not open the files of the sealed segment,
+     * so that the segments can be searched by timestamp without opening them.
+     *
+     * @return the max. timestamp, 0 if there is no timestamp.
+     */
+    public long getMaxTimestamp() {
+        // time index of the segment once opened keeps its max. timestamp after it is closed.
+        TimeIndex timeIndex = this.timeIndex;
+        if (timeIndex != null) {
+            return timeIndex.getMaxTimestamp();
+        }
+
+        if (sealedMaxTimestamp < 0) {
+            try {
+                sealedMaxTimestamp = TimeIndex.readMaxTimestamp(siblingFile(PartitionLogHandler.TIME_INDEX_FILE_EXTENSION));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        return sealedMaxTimestamp;
+    }
+
+    public long getCreatedTime() {
+        return createdTime;
     }
 
-    private ByteBuffer getMMap(int position, long length) {
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    public long getLastModified() {
+        return file.lastModified();
+    }
+
+    /**
+     * rename the log and index files with the deleted suffix, after the segment is removed from the segment list.
+     * <p>
+     * renamed files are still accessible through the opened file channel and the mappings.
+     */
+    public void markDeleted() {
         try {
-            return fileChannel.map(FileChannel.MapMode.READ_WRITE, position, length).duplicate();
+            renameTo(RetentionManager.DELETED_FILE_SUFFIX, "");
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            log.error("failed to mark [" + file.getAbsolutePath() + "] deleted: " + e.getMessage());
+        }
+    }
+
+    /**
+     * rename the log and index files by replacing the suffix of the file names.
+     *
+     * @param suffix         suffix to be added.
+     * @param suffixToRemove suffix to be removed from the file names.
+     * @throws IOException
+     */
+    public void renameTo(String suffix, String suffixToRemove) throws IOException {
+        lock.lock();
+        try {
+            File indexFile = siblingFile(PartitionLogHandler.INDEX_FILE_EXTENSION);
+            File timeIndexFile = siblingFile(PartitionLogHandler.TIME_INDEX_FILE_EXTENSION);
+
+            File target = new File(replaceSuffix(file.getAbsolutePath(), suffix, suffixToRemove));
+            Files.move(file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            file = target;
+
+            if (opened) {
+                offsetIndex.renameTo(new File(replaceSuffix(offsetIndex.getFilePath(), suffix, suffixToRemove)));
+                timeIndex.renameTo(new File(replaceSuffix(timeIndex.getFilePath(), suffix, suffixToRemove)));
+            } else {
+                // index files of the segment which is not open.
+                for (File indexFileToMove : new File[]{indexFile, timeIndexFile}) {
+                    if (indexFileToMove.exists()) {
+                        Files.move(indexFileToMove.toPath(), new File(replaceSuffix(indexFileToMove.getAbsolutePath(), suffix, suffixToRemove)).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String replaceSuffix(String path, String suffix, String suffixToRemove) {
+        if (!suffixToRemove.isEmpty() && path.endsWith(suffixToRemove)) {
+            path = path.substring(0, path.length() - suffixToRemove.length());
+        }
+
+        return path + suffix;
+    }
+
+    /**
+     * close the log and index files without deleting them, after which the segment is not opened again.
+     * files are closed when the last reference to them is released.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+
+            if (opened) {
+                if (refCount > 0) {
+                    closePending = true;
+                } else {
+                    closeOpenFiles();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        OpenSegmentCache openSegmentCache = this.openSegmentCache;
+        if (openSegmentCache != null) {
+            openSegmentCache.remove(this);
+        }
+    }
+
+    /**
+     * close the log and index files, and delete them, which is done when the last reference to them is released.
+     */
+    public void delete() {
+        close();
+
+        lock.lock();
+        try {
+            if (opened) {
+                deletePending = true;
+            } else {
+                deleteFiles();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void deleteFiles() {
+        for (File fileToDelete : new File[]{file, siblingFile(PartitionLogHandler.INDEX_FILE_EXTENSION), siblingFile(PartitionLogHandler.TIME_INDEX_FILE_EXTENSION)}) {
+            if (fileToDelete.exists() && !fileToDelete.delete()) {
+                log.warn("failed to delete [" + fileToDelete.getAbsolutePath() + "]");
+            }
+        }
+    }
+
+    /**
+     * read all the records batches of the segment in the order of the offsets.
+     * <p>
+     * record size of the batch is the span of the offsets in the batch, which may be larger than the number of the records after compaction.
+     *
+     * @param consumer
+     * @throws IOException
+     */
+    public void forEachBatch(Consumer<LogHandler.Append> consumer) throws IOException {
+        ensureOpen();
+
+        long logSize = size;
+        ByteBuffer headerBuffer = ByteBuffer.allocate(BATCH_HEADER_SIZE);
+
+        OffsetIndex.OffsetPosition batch = readBatch(0, logSize, headerBuffer);
+        while (batch != null) {
+            byte[] avroBytes = readData(batch);
+
+            GenericRecord records = avroDeSer.deserialize(ClientServerSpec.AVRO_SCHEMA_NAME_RECORDS, avroBytes);
+
+            consumer.accept(new LogHandler.Append(batch.getOffset(), records, batch.getRecordSize()));
+
+            batch = readBatch(batch.getPosition() + batch.getDataSize(), logSize, headerBuffer);
         }
     }
 
+    /**
+     * validate the batches of the log after unclean shutdown, and truncate the log to the end of the last valid batch.
+     * <p>
+     * batch is valid, if it is completely written, its offsets follow the previous batch, its checksum matches, and its records can be decoded.
+     * offset index is truncated to the entries of the valid batches, and rebuilt from the log if an entry points to no valid batch.
+     * time index is rebuilt from the valid batches.
+     *
+     * @return bytes truncated from the log, including the preallocated space.
+     * @throws IOException
+     */
+    public long recover() throws IOException {
+        ensureOpen();
+
+        lock.lock();
+        try {
+            long logSize = raf.length();
+            ByteBuffer headerBuffer = ByteBuffer.allocate(BATCH_HEADER_SIZE);
+
+            // valid batches by the positions of the batch headers.
+            Map<Integer, OffsetIndex.OffsetPosition> batchMap = new LinkedHashMap<>();
+            Map<Long, Long> maxTimestampMap = new LinkedHashMap<>();
+
+            // last offset of the valid batches, which is not compared until the first valid batch is read.
+            long validLastOffset = 0;
+            boolean hasValidBatch = false;
+            long position = 0;
+
+            OffsetIndex.OffsetPosition batch;
+            while ((batch = readBatch(position, logSize, headerBuffer)) != null) {
+                if (batch.getRecordSize() <= 0 || batch.getOffset() < baseOffset || (hasValidBatch && batch.getOffset() <= validLastOffset)) {
+                    break;
+                }
+
+                byte[] avroBytes = readData(batch);
+                if (Crc32C.compute(avroBytes) != headerBuffer.getInt(CHECKSUM_POSITION)) {
+                    log.warn("checksum mismatch at [" + batch.getPosition() + "] of [" + file.getAbsolutePath() + "]");
+
+                    break;
+                }
+
+                GenericRecord records;
+                try {
+                    records = avroDeSer.deserialize(ClientServerSpec.AVRO_SCHEMA_NAME_RECORDS, avroBytes);
+                } catch (Exception e) {
+                    log.warn("invalid records at [" + batch.getPosition() + "] of [" + file.getAbsolutePath() + "]: " + e.getMessage());
+
+                    break;
+                }
+
+                batchMap.put(batch.getPosition() - BATCH_HEADER_SIZE, batch);
+
+                Object maxTimestamp = records.get("maxTimestamp");
+                if (maxTimestamp != null) {
+                    maxTimestampMap.put(batch.getOffset(), (Long) maxTimestamp);
+                }
+
+                validLastOffset = batch.getOffset() + batch.getRecordSize() - 1;
+                hasValidBatch = true;
+                position = batch.getPosition() + batch.getDataSize();
+            }
+
+            long validSize = position;
+
+            // entries of the valid batches are kept, and the entries after the last valid batch are the torn tail of the index.
+            List<OffsetIndex.OffsetPosition> entries = offsetIndex.getOffsetPositions();
+
+            int validEntryCount = 0;
+            boolean rebuild = false;
+            for (OffsetIndex.OffsetPosition entry : entries) {
+                OffsetIndex.OffsetPosition validBatch = batchMap.get(entry.getPosition());
+                if (validBatch != null && validBatch.getOffset() == entry.getOffset()
+                        && validBatch.getDataSize() == entry.getDataSize() && validBatch.getRecordSize() == entry.getRecordSize()) {
+                    validEntryCount++;
+                    continue;
+                }
+
+                rebuild = entry.getPosition() < validSize;
+                break;
+            }
+
+            if (rebuild) {
+                log.warn("offset index [" + offsetIndex.getFilePath() + "] does not match the log, which is rebuilt");
+
+                offsetIndex.truncateTo(0);
+
+                List<OffsetIndex.OffsetPosition> offsetPositions = new ArrayList<>();
+                long indexBytes = Long.MAX_VALUE;
+                for (Map.Entry<Integer, OffsetIndex.OffsetPosition> entry : batchMap.entrySet()) {
+                    OffsetIndex.OffsetPosition validBatch = entry.getValue();
+                    if (indexBytes >= indexIntervalBytes) {
+                        offsetPositions.add(new OffsetIndex.OffsetPosition(validBatch.getOffset(), entry.getKey(), validBatch.getDataSize(), validBatch.getRecordSize()));
+                        indexBytes = 0;
+                    }
+
+                    indexBytes += BATCH_HEADER_SIZE + validBatch.getDataSize();
+                }
+
+                if (offsetIndex.add(offsetPositions) != ClientServerSpec.ERROR_CODE_NONE) {
+                    throw new IOException("offset index [" + offsetIndex.getFilePath() + "] can not be rebuilt in the order of the offsets");
+                }
+            } else if (validEntryCount < entries.size()) {
+                offsetIndex.truncateTo(validEntryCount);
+            }
+
+            timeIndex.truncateTo(0);
+            for (Map.Entry<Long, Long> entry : maxTimestampMap.entrySet()) {
+                timeIndex.maybeAdd(entry.getValue(), entry.getKey());
+            }
+
+            // preallocated space is truncated too, which is preallocated again for the active segment.
+            long truncatedBytes = logSize - validSize;
+            if (truncatedBytes > 0) {
+                raf.setLength(validSize);
+
+                log.info("[" + file.getAbsolutePath() + "] truncated from [" + logSize + "] to [" + validSize + "] bytes");
+            }
+
+            size = validSize;
+            lastOffset = validLastOffset;
+
+            OffsetIndex.OffsetPosition lastEntry = offsetIndex.getFirstOffsetPosition(Long.MAX_VALUE);
+            bytesSinceLastIndexEntry = (lastEntry != null) ? validSize - lastEntry.getPosition() : Long.MAX_VALUE;
+
+            fileChannel.force(true);
+            offsetIndex.flush();
+            timeIndex.flush();
+
+            return truncatedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * preallocate the log file to the length.
+     *
+     * @param length
+     */
+    public void preallocate(long length) {
+        lock.lock();
+        try {
+            if (!sealed && raf.length() < length) {
+                raf.setLength(length);
+            }
+        } catch (IOException e) {
+            log.error("failed to preallocate [" + file.getAbsolutePath() + "]: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * seal the segment when it rolls: records are flushed, and the preallocated space of the log file and the indexes is trimmed.
+     */
+    public void seal() {
+        lock.lock();
+        try {
+            if (sealed) {
+                return;
+            }
+
+            sealed = true;
+
+            flush();
+
+            if (raf.length() != size) {
+                raf.setLength(size);
+            }
+
+            offsetIndex.trimToSize();
+            timeIndex.trimToSize();
+        } catch (IOException e) {
+            log.error("failed to seal [" + file.getAbsolutePath() + "]: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBaseOffset() {
+        return baseOffset;
+    }
+
+    public long getSize() {
+        return this.size;
+    }
 
     public int add(long firstOffset, GenericRecord records, int recordSize) {
+        return add(Collections.singletonList(new LogHandler.Append(firstOffset, records, recordSize)));
+    }
+
+    /**
+     * add records batches with one gathering write to the log file, followed by one update of the offset index.
+     * <p>
+     * offset index entry is added for the batch, if index interval bytes are added to the log after the last entry.
+     * <p>
+     * if the write or the update of the offset index fails, the batches are discarded and the log is left as it was.
+     *
+     * @param appends
+     * @return
+     */
+    public int add(List<LogHandler.Append> appends) {
         int errorCode = 0;
 
         lock.lock();
         try {
+            if (sealed) {
+                log.error("records can not be added to sealed segment [" + file.getAbsolutePath() + "]");
+
+                return ClientServerSpec.ERROR_CODE_STORAGE_ERROR;
+            }
+
+            // batches are appended strictly in the order of the offsets, so that the offset index is append-only.
+            long previousLastOffset = (size == 0) ? baseOffset - 1 : lastOffset;
+            for (LogHandler.Append append : appends) {
+                if (append.getFirstOffset() <= previousLastOffset) {
+                    log.error("offset [" + append.getFirstOffset() + "] is not after the last offset [" + previousLastOffset + "] of [" + file.getAbsolutePath() + "]");
+
+                    return ClientServerSpec.ERROR_CODE_STORAGE_ERROR;
+                }
+
+                previousLastOffset = append.getFirstOffset() + append.getRecordSize() - 1;
+            }
+
             int currentPosition = (int) size;
 
-            byte[] avroBytes = avroDeSer.serialize(records);
+            ByteBuffer[] buffers = new ByteBuffer[appends.size() * 2];
+            List<OffsetIndex.OffsetPosition> offsetPositions = new ArrayList<>();
+
+            long indexBytes = bytesSinceLastIndexEntry;
+
+            int position = currentPosition;
+            for (int i = 0; i < appends.size(); i++) {
+                LogHandler.Append append = appends.get(i);
+
+                byte[] avroBytes = append.getBytes();
+
+                ByteBuffer headerBuffer = ByteBuffer.allocate(BATCH_HEADER_SIZE);
+                headerBuffer.putLong(append.getFirstOffset());
+                headerBuffer.putInt(avroBytes.length);
+                headerBuffer.putInt(append.getRecordSize());
+                headerBuffer.putInt(append.getChecksum());
+                headerBuffer.flip();
+
+                buffers[i * 2] = headerBuffer;
+                buffers[i * 2 + 1] = ByteBuffer.wrap(avroBytes);
+
+                // index entry points to the batch header.
+                if (indexBytes >= indexIntervalBytes) {
+                    offsetPositions.add(new OffsetIndex.OffsetPosition(append.getFirstOffset(), position, avroBytes.length, append.getRecordSize()));
+                    indexBytes = 0;
+                }
+
+                indexBytes += BATCH_HEADER_SIZE + avroBytes.length;
+                position += BATCH_HEADER_SIZE + avroBytes.length;
+            }
+
+            long fileLength = raf.length();
+
+            // batches written are discarded, unless they become part of the log, so that a retried produce does not duplicate them.
+            boolean added = false;
+            try {
+                fileChannel.position(currentPosition);
+
+                // add avro records to segment file.
+                ByteBuffer lastBuffer = buffers[buffers.length - 1];
+                while (lastBuffer.hasRemaining()) {
+                    fileChannel.write(buffers);
+                }
 
-            int dataSize = avroBytes.length;
+                // add offset positions to offset index file after records are written,
+                // because fetch may transfer the indexed bytes straight from the segment file.
+                if (offsetIndex.add(offsetPositions) != ClientServerSpec.ERROR_CODE_NONE) {
+                    return ClientServerSpec.ERROR_CODE_STORAGE_ERROR;
+                }
 
-            // add offset position to offset index file.
-            offsetIndex.add(firstOffset, currentPosition, dataSize, recordSize);
+                added = true;
+            } finally {
+                if (!added) {
+                    discard(currentPosition, fileLength);
+                }
+            }
+
+            // batches become part of the log after the offset index is updated.
+            size = position;
 
-            fileChannel.position(currentPosition);
+            LogHandler.Append lastAppend = appends.get(appends.size() - 1);
+            lastOffset = lastAppend.getFirstOffset() + lastAppend.getRecordSize() - 1;
 
-            ByteBuffer buffer = ByteBuffer.wrap(avroBytes);
-            buffer.rewind();
+            bytesSinceLastIndexEntry = indexBytes;
 
-            // add avro records to segment file.
-            while (buffer.hasRemaining()) {
-                fileChannel.write(buffer);
+            for (LogHandler.Append append : appends) {
+                Object maxTimestamp = append.getRecords().get("maxTimestamp");
+                if (maxTimestamp != null) {
+                    timeIndex.maybeAdd((Long) maxTimestamp, append.getFirstOffset());
+                }
             }
 
-            size += avroBytes.length;
+            for (LogHandler.Append append : appends) {
+                unflushedMessages.addAndGet(append.getRecordSize());
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("failed to add records to [" + file.getAbsolutePath() + "]: " + e.getMessage());
 
-            // TODO: set errorCode if exception occurs.
+            errorCode = ClientServerSpec.ERROR_CODE_STORAGE_ERROR;
         } finally {
             lock.unlock();
         }
@@ -120,58 +934,389 @@ public class PartitionLog {
         return errorCode;
     }
 
-    public LogHandler.FetchRecord fetch(long fetchOffset, int maxBytes) {
-        int errorCode = 0;
-        long highwaterMarkOffset = 0; // TODO: set highwaterMarkOffset!
+    /**
+     * truncate the batches written after the end of the log, so that they are neither fetched nor recovered.
+     * the preallocated space of the log file is kept, which is filled with zero.
+     *
+     * @param position   end of the log.
+     * @param fileLength length of the log file before the batches were written.
+     */
+    private void discard(long position, long fileLength) {
+        try {
+            fileChannel.truncate(position);
+
+            if (fileLength > position) {
+                raf.setLength(fileLength);
+            }
+        } catch (IOException e) {
+            log.error("failed to discard the batches after [" + position + "] of [" + file.getAbsolutePath() + "]: " + e.getMessage());
+        }
+    }
+
+    public long getUnflushedMessages() {
+        return unflushedMessages.get();
+    }
+
+    public long getLastFlushTime() {
+        return lastFlushTime;
+    }
+
+    /**
+     * force the log file and the offset index file to the disk.
+     * <p>
+     * it can be called concurrently with add, and all the messages appended before the call are flushed.
+     *
+     * @return error code.
+     */
+    public int flush() {
+        long messages = unflushedMessages.get();
+        if (messages == 0) {
+            return ClientServerSpec.ERROR_CODE_NONE;
+        }
+
+        try {
+            fileChannel.force(false);
+            offsetIndex.flush();
+            timeIndex.flush();
+        } catch (IOException e) {
+            log.error("failed to flush [" + file.getAbsolutePath() + "]: " + e.getMessage());
+
+            return ClientServerSpec.ERROR_CODE_STORAGE_ERROR;
+        }
+
+        unflushedMessages.addAndGet(-messages);
+        lastFlushTime = System.currentTimeMillis();
 
-        if (size == 0) {
+        return ClientServerSpec.ERROR_CODE_NONE;
+    }
+
+    /**
+     * read the batch header at the position.
+     *
+     * @param position     position of the batch header.
+     * @param logSize      size of the log to which batches are read.
+     * @param headerBuffer
+     * @return offset position of the records, or null if no batch is completely written at the position.
+     * @throws IOException
+     */
+    private OffsetIndex.OffsetPosition readBatch(long position, long logSize, ByteBuffer headerBuffer) throws IOException {
+        if (position + BATCH_HEADER_SIZE > logSize) {
             return null;
         }
 
-        int lengthSum = 0;
+        headerBuffer.clear();
+        while (headerBuffer.hasRemaining()) {
+            if (fileChannel.read(headerBuffer, position + headerBuffer.position()) < 0) {
+                return null;
+            }
+        }
+        headerBuffer.flip();
 
-        long currentOffset = fetchOffset;
+        long firstOffset = headerBuffer.getLong();
+        int dataSize = headerBuffer.getInt();
+        int recordSize = headerBuffer.getInt();
 
-        List<GenericRecord> recordsList = new ArrayList<>();
+        if (dataSize <= 0 || position + BATCH_HEADER_SIZE + dataSize > logSize) {
+            return null;
+        }
 
-        while (lengthSum < maxBytes) {
-            OffsetIndex.OffsetPosition offsetPosition = offsetIndex.getFirstOffsetPosition(currentOffset);
+        return new OffsetIndex.OffsetPosition(firstOffset, (int) position + BATCH_HEADER_SIZE, dataSize, recordSize);
+    }
 
-            if (offsetPosition == null) {
-                break;
+    /**
+     * @param batch offset position of the records.
+     * @return avro bytes of the records.
+     * @throws IOException
+     */
+    private byte[] readData(OffsetIndex.OffsetPosition batch) throws IOException {
+        byte[] avroBytes = new byte[batch.getDataSize()];
+
+        ByteBuffer buffer = ByteBuffer.wrap(avroBytes);
+        while (buffer.hasRemaining()) {
+            if (fileChannel.read(buffer, batch.getPosition() + buffer.position()) < 0) {
+                throw new IOException("unexpected end of [" + file.getAbsolutePath() + "]");
             }
+        }
 
-            int position = offsetPosition.getPosition();
-            int dataSize = offsetPosition.getDataSize();
+        return avroBytes;
+    }
 
-            lengthSum += dataSize;
-            if (maxBytes < lengthSum) {
-                break;
+    /**
+     * @param batch
+     * @param avroBytes
+     * @return true if the checksum in the batch header matches the records.
+     * @throws IOException
+     */
+    private boolean hasValidChecksum(OffsetIndex.OffsetPosition batch, byte[] avroBytes) throws IOException {
+        ByteBuffer checksumBuffer = ByteBuffer.allocate(4);
+        long checksumPosition = batch.getPosition() - BATCH_HEADER_SIZE + CHECKSUM_POSITION;
+        while (checksumBuffer.hasRemaining()) {
+            if (fileChannel.read(checksumBuffer, checksumPosition + checksumBuffer.position()) < 0) {
+                return false;
             }
+        }
+
+        return Crc32C.compute(avroBytes) == checksumBuffer.getInt(0);
+    }
 
-            byte[] avroBytes = new byte[dataSize];
+    /**
+     * verify the checksums of all the batches, which is run by the scrubber.
+     *
+     * @param throttle called with the bytes of every batch verified, which may pause the verification.
+     * @return the first offset of the first corrupt batch, or -1 if all the batches are valid or the verification is interrupted.
+     * @throws IOException
+     */
+    public long verify(LongConsumer throttle) throws IOException {
+        ensureOpen();
 
-            // TODO: it may cause to be memory-exhausting???
-            ByteBuffer buffer = getMMap(position, dataSize);
-            buffer.rewind();
-            buffer.get(avroBytes);
+        long logSize = size;
+        ByteBuffer headerBuffer = ByteBuffer.allocate(BATCH_HEADER_SIZE);
 
-            GenericRecord records = avroDeSer.deserialize(ClientServerSpec.AVRO_SCHEMA_NAME_RECORDS, avroBytes);
-            int recordSize = ((Collection<GenericRecord>) records.get("records")).size();
+        OffsetIndex.OffsetPosition batch = readBatch(0, logSize, headerBuffer);
+        while (batch != null && !Thread.currentThread().isInterrupted()) {
+            if (Crc32C.compute(readData(batch)) != headerBuffer.getInt(CHECKSUM_POSITION)) {
+                return batch.getOffset();
+            }
 
-            currentOffset += recordSize;
+            throttle.accept(BATCH_HEADER_SIZE + batch.getDataSize());
 
-            recordsList.add(records);
+            batch = readBatch(batch.getPosition() + batch.getDataSize(), logSize, headerBuffer);
         }
 
+        return -1;
+    }
+
+    /**
+     * look up the batch which contains the offset, or the first batch after the offset.
+     * <p>
+     * batch headers are scanned forward from the nearest offset index entry,
+     * which is bounded by index interval bytes.
+     *
+     * @param offset
+     * @param logSize
+     * @param headerBuffer
+     * @return offset position of the records.
+     * @throws IOException
+     */
+    private OffsetIndex.OffsetPosition lookup(long offset, long logSize, ByteBuffer headerBuffer) throws IOException {
+        // offset does not exist in this log.
+        if (offset > lastOffset) {
+            return null;
+        }
+
+        long position = 0;
+
+        OffsetIndex.OffsetPosition entry = offsetIndex.getFirstOffsetPosition(offset);
+        if (entry != null) {
+            if (offset < entry.getOffset() + entry.getRecordSize()) {
+                return new OffsetIndex.OffsetPosition(entry.getOffset(), entry.getPosition() + BATCH_HEADER_SIZE, entry.getDataSize(), entry.getRecordSize());
+            }
+
+            position = entry.getPosition() + BATCH_HEADER_SIZE + entry.getDataSize();
+        }
+
+        OffsetIndex.OffsetPosition batch;
+        while ((batch = readBatch(position, logSize, headerBuffer)) != null) {
+            if (offset < batch.getOffset() + batch.getRecordSize()) {
+                return batch;
+            }
+
+            position = batch.getPosition() + batch.getDataSize();
+        }
+
+        return null;
+    }
+
+    /**
+     * @param batch
+     * @param highwaterMarkOffset
+     * @return true if all the records of the batch are committed.
+     */
+    private static boolean isCommitted(OffsetIndex.OffsetPosition batch, long highwaterMarkOffset) {
+        return batch.getOffset() + batch.getRecordSize() - 1 <= highwaterMarkOffset;
+    }
+
+    public LogHandler.FetchRecord fetch(long fetchOffset, int maxBytes) {
+        return fetch(fetchOffset, maxBytes, false);
+    }
+
+    public LogHandler.FetchRecord fetch(long fetchOffset, int maxBytes, boolean verifyChecksum) {
+        long lastOffset = getLastOffset();
+
+        return fetch(fetchOffset, maxBytes, verifyChecksum, lastOffset, lastOffset);
+    }
+
+    /**
+     * @param fetchOffset
+     * @param maxBytes
+     * @param verifyChecksum      verify the checksums of the fetched batches.
+     * @param highwaterMarkOffset last offset of the committed records of the partition, beyond which batches are not fetched.
+     * @param logEndOffset
+     * @return
+     */
+    public LogHandler.FetchRecord fetch(long fetchOffset, int maxBytes, boolean verifyChecksum, long highwaterMarkOffset, long logEndOffset) {
+        int errorCode = 0;
+
+        int lengthSum = 0;
+
+        List<GenericRecord> recordsList = new ArrayList<>();
+
+        boolean retained = false;
 
-        return new LogHandler.FetchRecord(errorCode, highwaterMarkOffset, recordsList);
+        ByteBuffer headerBuffer = ByteBuffer.allocate(BATCH_HEADER_SIZE);
+        try {
+            retain();
+            retained = true;
+
+            // size of the lazily opened segment is read when its files are opened.
+            long logSize = size;
+
+            OffsetIndex.OffsetPosition offsetPosition = (fetchOffset <= highwaterMarkOffset) ? lookup(fetchOffset, logSize, headerBuffer) : null;
+            while (offsetPosition != null && isCommitted(offsetPosition, highwaterMarkOffset)) {
+                int position = offsetPosition.getPosition();
+                int dataSize = offsetPosition.getDataSize();
+
+                lengthSum += dataSize;
+                if (maxBytes < lengthSum) {
+                    break;
+                }
+
+                byte[] avroBytes = readData(offsetPosition);
+                if (verifyChecksum && !hasValidChecksum(offsetPosition, avroBytes)) {
+                    log.error("checksum mismatch of the batch [" + offsetPosition.getOffset() + "] in [" + file.getAbsolutePath() + "]");
+
+                    errorCode = ClientServerSpec.ERROR_CODE_CORRUPT_RECORDS;
+                    break;
+                }
+
+                GenericRecord records = avroDeSer.deserialize(ClientServerSpec.AVRO_SCHEMA_NAME_RECORDS, avroBytes);
+
+                recordsList.add(records);
+
+                // the next batch follows the records.
+                offsetPosition = readBatch(position + dataSize, logSize, headerBuffer);
+            }
+        } catch (IOException e) {
+            log.error("failed to fetch from [" + file.getAbsolutePath() + "]: " + e.getMessage());
+
+            errorCode = ClientServerSpec.ERROR_CODE_STORAGE_ERROR;
+        } finally {
+            if (retained) {
+                release();
+            }
+        }
+
+        return new LogHandler.FetchRecord(errorCode, highwaterMarkOffset, logEndOffset, recordsList);
+    }
+
+    /**
+     * collect the positions of the stored records without reading them.
+     *
+     * @param fetchOffset
+     * @param maxBytes
+     * @return
+     */
+    public LogHandler.FetchRegion fetchRegion(long fetchOffset, int maxBytes) {
+        return fetchRegion(fetchOffset, maxBytes, false);
+    }
+
+    public LogHandler.FetchRegion fetchRegion(long fetchOffset, int maxBytes, boolean verifyChecksum) {
+        long lastOffset = getLastOffset();
+
+        return fetchRegion(fetchOffset, maxBytes, verifyChecksum, lastOffset, lastOffset);
+    }
+
+    /**
+     * @param fetchOffset
+     * @param maxBytes
+     * @param verifyChecksum      read the records to verify their checksums before they are sent without being decoded.
+     * @param highwaterMarkOffset last offset of the committed records of the partition, beyond which batches are not fetched.
+     * @param logEndOffset
+     * @return region which holds a reference to the log file if it has records, which must be released after it is sent.
+     */
+    public LogHandler.FetchRegion fetchRegion(long fetchOffset, int maxBytes, boolean verifyChecksum, long highwaterMarkOffset, long logEndOffset) {
+        int errorCode = 0;
+
+        List<OffsetIndex.OffsetPosition> offsetPositions = new ArrayList<>();
+
+        int lengthSum = 0;
+
+        boolean retained = false;
+        FileChannel fileChannel = null;
+
+        ByteBuffer headerBuffer = ByteBuffer.allocate(BATCH_HEADER_SIZE);
+        try {
+            retain();
+            retained = true;
+
+            fileChannel = this.fileChannel;
+
+            // size of the lazily opened segment is read when its files are opened.
+            long logSize = size;
+
+            OffsetIndex.OffsetPosition offsetPosition = (fetchOffset <= highwaterMarkOffset) ? lookup(fetchOffset, logSize, headerBuffer) : null;
+            while (offsetPosition != null && isCommitted(offsetPosition, highwaterMarkOffset)) {
+                lengthSum += offsetPosition.getDataSize();
+                if (maxBytes < lengthSum) {
+                    break;
+                }
+
+                if (verifyChecksum && !hasValidChecksum(offsetPosition, readData(offsetPosition))) {
+                    log.error("checksum mismatch of the batch [" + offsetPosition.getOffset() + "] in [" + file.getAbsolutePath() + "]");
+
+                    errorCode = ClientServerSpec.ERROR_CODE_CORRUPT_RECORDS;
+                    break;
+                }
+
+                offsetPositions.add(offsetPosition);
+
+                // the next batch follows the records.
+                offsetPosition = readBatch(offsetPosition.getPosition() + offsetPosition.getDataSize(), logSize, headerBuffer);
+            }
+        } catch (IOException e) {
+            log.error("failed to fetch region from [" + file.getAbsolutePath() + "]: " + e.getMessage());
+
+            errorCode = ClientServerSpec.ERROR_CODE_STORAGE_ERROR;
+        }
+
+        // region to be sent keeps the reference to the file, which is released after it is sent.
+        if (retained && (errorCode != ClientServerSpec.ERROR_CODE_NONE || offsetPositions.isEmpty())) {
+            release();
+            retained = false;
+        }
+
+        return new LogHandler.FetchRegion(errorCode, highwaterMarkOffset, logEndOffset, fileChannel, offsetPositions, retained ? this : null);
+    }
+
+    /**
+     * @param timestamp
+     * @return timestamp and first offset of the first records batch whose max. timestamp is at or after the timestamp,
+     * or null if there is no such batch in this log, or the segment has been closed.
+     */
+    public TimeIndex.TimestampOffset lookupByTimestamp(long timestamp) {
+        // time index is not unmapped during the lookup.
+        try {
+            retain();
+        } catch (IOException e) {
+            if (closed) {
+                return null;
+            }
+
+            throw new RuntimeException(e);
+        }
+
+        try {
+            return timeIndex.lookup(timestamp);
+        } finally {
+            release();
+        }
     }
 
     @Override
     public String toString()
     {
-        return "log file: " + this.getFilePath() + ", index file: " + this.offsetIndex.getFilePath();
+        return "log file: " + this.getFilePath() + ", index file: " + siblingFile(PartitionLogHandler.INDEX_FILE_EXTENSION).getAbsolutePath()
+                + ", time index file: " + siblingFile(PartitionLogHandler.TIME_INDEX_FILE_EXTENSION).getAbsolutePath();
     }
 }
 
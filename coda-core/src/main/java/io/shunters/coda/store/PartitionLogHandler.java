@@ -3,44 +3,96 @@ package io.shunters.coda.store;
 import io.shunters.coda.config.ConfigHandler;
 import io.shunters.coda.config.YamlConfigHandler;
 import io.shunters.coda.offset.TopicPartition;
+import io.shunters.coda.protocol.ClientServerSpec;
 import org.apache.avro.generic.GenericRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * data directory structures look like this:
  * <p>
  * index file path: [data-dir]/[topic]/[partition]/[first-offset].index
+ * time index file path: [data-dir]/[topic]/[partition]/[first-offset].timeindex
  * log file path: [data-dir]/[topic]/[partition]/[first-offset].log
+ * <p>
+ * segments of a partition are kept in a copy-on-write list sorted by base offset, and the last one is the active segment
+ * to which records are added. the other segments are sealed, so that fetch walks the list without locks.
+ * sealed segments are deleted by retention, or replaced with the cleaned ones by compaction.
  */
 public class PartitionLogHandler implements LogHandler {
 
     private static Logger log = LoggerFactory.getLogger(PartitionLogHandler.class);
 
     public static final String INDEX_FILE_EXTENSION = ".index";
+    public static final String TIME_INDEX_FILE_EXTENSION = ".timeindex";
     public static final String LOG_FILE_EXTENSION = ".log";
 
+    /**
+     * default max. age of the active segment, 7 days.
+     */
+    public static final long DEFAULT_SEGMENT_MAX_AGE_MS = 7 * 24 * 60 * 60 * 1000L;
+
+    public static final long DEFAULT_RETENTION_CHECK_INTERVAL_MS = 5 * 60 * 1000L;
+
+    public static final long DEFAULT_FILE_DELETE_DELAY_MS = 60 * 1000L;
+
+    /**
+     * default interval of the checksum scrubbing, 1 day.
+     */
+    public static final long DEFAULT_SCRUB_INTERVAL_MS = 24 * 60 * 60 * 1000L;
+
+    public static final long DEFAULT_SCRUB_BYTES_PER_SEC = 10 * 1024 * 1024L;
+
     private static LogHandler logHandler;
 
     private static final Object lock = new Object();
 
     private ConcurrentMap<TopicPartition, List<PartitionLog>> partitionLogMap;
 
+    private ConcurrentMap<TopicPartition, OffsetSequencer> offsetSequencerMap = new ConcurrentHashMap<>();
+
+    private List<AppendListener> appendListeners = new CopyOnWriteArrayList<>();
+
     private ConfigHandler configHandler;
 
     private List<String> dataDirs;
 
+    private DataDirPlacement dataDirPlacement;
+
     private long segmentMaxBytes;
 
-    private Random random;
+    private long segmentMaxAgeMs = DEFAULT_SEGMENT_MAX_AGE_MS;
+
+    private boolean segmentPreallocate = false;
+
+    private int indexMaxBytes = OffsetIndex.DEFAULT_MAX_INDEX_SIZE;
+
+    private int indexIntervalBytes = PartitionLog.DEFAULT_INDEX_INTERVAL_BYTES;
+
+    private ScheduledExecutorService flushExecutor;
+
+    private ScheduledExecutorService cleanerExecutor;
+
+    private OpenSegmentCache openSegmentCache;
 
-    private final ReentrantLock reentrantLock = new ReentrantLock();
+    private boolean verifyChecksumOnFetch = false;
+
+    private ScheduledExecutorService scrubberExecutor;
 
     public static LogHandler singleton() {
         if (logHandler == null) {
@@ -55,7 +107,6 @@ public class PartitionLogHandler implements LogHandler {
 
     private PartitionLogHandler() {
         partitionLogMap = new ConcurrentHashMap<>();
-        random = new Random();
 
         configHandler = YamlConfigHandler.getConfigHandler();
 
@@ -67,15 +118,175 @@ public class PartitionLogHandler implements LogHandler {
             segmentMaxBytes = ((Integer) segmentMaxBytesObj).longValue();
         }
 
+        // get max. age of the active segment.
+        Object segmentMaxAgeMsObj = configHandler.get(ConfigHandler.CONFIG_DATA_SEGMENT_MAX_AGE_MS);
+        if (segmentMaxAgeMsObj != null) {
+            segmentMaxAgeMs = ((Number) segmentMaxAgeMsObj).longValue();
+        }
+
+        // preallocate new segment file to max. segment size or not.
+        Object segmentPreallocateObj = configHandler.get(ConfigHandler.CONFIG_DATA_SEGMENT_PREALLOCATE);
+        if (segmentPreallocateObj != null) {
+            segmentPreallocate = (Boolean) segmentPreallocateObj;
+        }
+
+        // get max. offset index file size to be preallocated.
+        Object indexMaxBytesObj = configHandler.get(ConfigHandler.CONFIG_DATA_INDEX_MAX_BYTES);
+        if (indexMaxBytesObj != null) {
+            indexMaxBytes = ((Number) indexMaxBytesObj).intValue();
+        }
+
+        // verify the checksums of the fetched batches or not.
+        Object verifyChecksumOnFetchObj = configHandler.get(ConfigHandler.CONFIG_DATA_CHECKSUM_VERIFY_ON_FETCH);
+        if (verifyChecksumOnFetchObj != null) {
+            verifyChecksumOnFetch = (Boolean) verifyChecksumOnFetchObj;
+        }
+
+        // get bytes of the log between offset index entries.
+        Object indexIntervalBytesObj = configHandler.get(ConfigHandler.CONFIG_DATA_INDEX_INTERVAL_BYTES);
+        if (indexIntervalBytesObj != null) {
+            indexIntervalBytes = ((Number) indexIntervalBytesObj).intValue();
+        }
+
+
+        long fileDeleteDelayMs = toLong(configHandler.get(ConfigHandler.CONFIG_LOG_RETENTION_FILE_DELETE_DELAY_MS), DEFAULT_FILE_DELETE_DELAY_MS);
+
+        // retention and compaction run on the same thread, so that they do not touch the same segments at the same time.
+        cleanerExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "partition-log-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // files of the sealed segments not used for a while are closed.
+        int maxOpenSegments = (int) toLong(configHandler.get(ConfigHandler.CONFIG_DATA_SEGMENT_MAX_OPEN), OpenSegmentCache.DEFAULT_MAX_OPEN_SEGMENTS);
+        openSegmentCache = new OpenSegmentCache(maxOpenSegments, cleanerExecutor, fileDeleteDelayMs);
 
-        // load log and index files from data directories.
         dataDirs = (List<String>) configHandler.get(ConfigHandler.CONFIG_DATA_DIRS);
+        dataDirPlacement = new DataDirPlacement(dataDirs);
+
+        // segments of another format are not loaded.
+        for (String dataDir : dataDirs) {
+            try {
+                new LogFormat(new File(dataDir)).checkOrWrite();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        // active segments written at clean shutdown.
+        Map<TopicPartition, OffsetCheckpoint.Entry> checkpoints = new HashMap<>();
+        for (String dataDir : dataDirs) {
+            checkpoints.putAll(new OffsetCheckpoint(new File(dataDir)).read());
+        }
+
+        // base offsets of the segments, and the data directories in which they are placed.
+        Map<TopicPartition, TreeMap<Long, String>> loadedSegmentMap = listSegments(dataDirs);
+
+        // partition stays in the data directory of its active segment, in which new segments are rolled.
+        for (Map.Entry<TopicPartition, TreeMap<Long, String>> entry : loadedSegmentMap.entrySet()) {
+            TopicPartition topicPartition = entry.getKey();
+            TreeMap<Long, String> segments = entry.getValue();
+
+            if (new HashSet<>(segments.values()).size() > 1) {
+                log.warn("segments of [" + topicPartition.getTopic() + "-" + topicPartition.getPartition() + "] are placed in several data directories, "
+                        + "new segments are placed in [" + segments.lastEntry().getValue() + "]");
+            }
+
+            dataDirPlacement.place(topicPartition, segments.lastEntry().getValue());
+        }
+
+        // segments may be placed in several data directories, which are sorted by base offset.
+        // just the last one, the active segment, is opened, and the sealed segments are opened on the first read.
+        // active segments not in the checkpoints are recovered in parallel, because they may have been torn by unclean shutdown.
+        int recoveryThreads = (int) toLong(configHandler.get(ConfigHandler.CONFIG_DATA_RECOVERY_THREADS), Runtime.getRuntime().availableProcessors());
+        ExecutorService recoveryExecutor = Executors.newFixedThreadPool(Math.max(1, recoveryThreads));
+        try {
+            Map<TopicPartition, Future<List<PartitionLog>>> loadingMap = new HashMap<>();
+            for (Map.Entry<TopicPartition, TreeMap<Long, String>> entry : loadedSegmentMap.entrySet()) {
+                TopicPartition topicPartition = entry.getKey();
+
+                loadingMap.put(topicPartition, recoveryExecutor.submit(() -> loadPartitionLogs(topicPartition, entry.getValue(), checkpoints.get(topicPartition))));
+            }
+
+            for (Map.Entry<TopicPartition, Future<List<PartitionLog>>> entry : loadingMap.entrySet()) {
+                partitionLogMap.put(entry.getKey(), entry.getValue().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            recoveryExecutor.shutdownNow();
+        }
+
+        // checkpoints are not valid any more once records are added to the active segments.
+        for (String dataDir : dataDirs) {
+            new OffsetCheckpoint(new File(dataDir)).delete();
+        }
+
+        // flush partition logs periodically if any flush interval is set.
+        long flushIntervalMs = FlushPolicy.minIntervalMs();
+        if (flushIntervalMs > 0) {
+            flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "partition-log-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flushExecutor.scheduleWithFixedDelay(this::flushByInterval, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        }
+
+        // delete segments by retention in the background.
+        long retentionCheckIntervalMs = toLong(configHandler.get(ConfigHandler.CONFIG_LOG_RETENTION_CHECK_INTERVAL_MS), DEFAULT_RETENTION_CHECK_INTERVAL_MS);
+        long deleteBytesPerSec = toLong(configHandler.get(ConfigHandler.CONFIG_LOG_RETENTION_DELETE_BYTES_PER_SEC), 0);
+
+        cleanerExecutor.scheduleWithFixedDelay(new RetentionManager(partitionLogMap, cleanerExecutor, fileDeleteDelayMs, deleteBytesPerSec),
+                retentionCheckIntervalMs, retentionCheckIntervalMs, TimeUnit.MILLISECONDS);
+
+        // verify the checksums of the sealed segments in the background.
+        long scrubIntervalMs = toLong(configHandler.get(ConfigHandler.CONFIG_DATA_CHECKSUM_SCRUB_INTERVAL_MS), DEFAULT_SCRUB_INTERVAL_MS);
+        long scrubBytesPerSec = toLong(configHandler.get(ConfigHandler.CONFIG_DATA_CHECKSUM_SCRUB_BYTES_PER_SEC), DEFAULT_SCRUB_BYTES_PER_SEC);
+        if (scrubIntervalMs > 0) {
+            scrubberExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "partition-log-scrubber");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scrubberExecutor.scheduleWithFixedDelay(new SegmentScrubber(partitionLogMap, scrubBytesPerSec), scrubIntervalMs, scrubIntervalMs, TimeUnit.MILLISECONDS);
+        }
+
+        // compact segments of the compacted topics in the background.
+        long compactionCheckIntervalMs = toLong(configHandler.get(ConfigHandler.CONFIG_LOG_COMPACTION_CHECK_INTERVAL_MS), DEFAULT_RETENTION_CHECK_INTERVAL_MS);
+        long deleteRetentionMs = toLong(configHandler.get(ConfigHandler.CONFIG_LOG_COMPACTION_DELETE_RETENTION_MS), LogCompactor.DEFAULT_DELETE_RETENTION_MS);
+        int offsetMapBytes = (int) toLong(configHandler.get(ConfigHandler.CONFIG_LOG_COMPACTION_OFFSET_MAP_BYTES), LogCompactor.DEFAULT_OFFSET_MAP_BYTES);
+
+        Object compactionTopicsObj = configHandler.get(ConfigHandler.CONFIG_LOG_COMPACTION_TOPICS);
+        if (compactionTopicsObj != null && !((List<String>) compactionTopicsObj).isEmpty()) {
+            cleanerExecutor.scheduleWithFixedDelay(new LogCompactor(partitionLogMap, cleanerExecutor, fileDeleteDelayMs, deleteRetentionMs, offsetMapBytes, indexMaxBytes, indexIntervalBytes),
+                    compactionCheckIntervalMs, compactionCheckIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * list the segment files of the partitions in the data directories, and clean up the files left by retention and compaction.
+     * <p>
+     * partition directory which has no segment file, for instance one created just before a crash, is not listed.
+     *
+     * @param dataDirs
+     * @return data directories of the segments by base offset of the partitions.
+     */
+    static Map<TopicPartition, TreeMap<Long, String>> listSegments(List<String> dataDirs) {
+        Map<TopicPartition, TreeMap<Long, String>> loadedSegmentMap = new HashMap<>();
+
+        // list log and index files in data directories.
         for (String dataDir : dataDirs) {
             File dataDirFile = new File(dataDir);
 
             File[] topicFiles = dataDirFile.listFiles();
             if (topicFiles == null) {
-                break;
+                continue;
             }
 
             for (File topicFile : topicFiles) {
@@ -104,6 +315,37 @@ public class PartitionLogHandler implements LogHandler {
                             continue;
                         }
 
+                        // files of the segment deleted by retention before shutdown.
+                        if (logFile.getName().endsWith(RetentionManager.DELETED_FILE_SUFFIX)) {
+                            if (!logFile.delete()) {
+                                log.warn("failed to delete [" + logFile.getAbsolutePath() + "]");
+                            }
+
+                            continue;
+                        }
+
+                        // files of the segment which had not been cleaned completely by compaction before shutdown.
+                        if (logFile.getName().endsWith(LogCompactor.CLEANED_FILE_SUFFIX)) {
+                            if (!logFile.delete()) {
+                                log.warn("failed to delete [" + logFile.getAbsolutePath() + "]");
+                            }
+
+                            continue;
+                        }
+
+                        // files of the cleaned segment which had not been swapped in completely, replace the original files.
+                        if (logFile.getName().endsWith(LogCompactor.SWAP_FILE_SUFFIX)) {
+                            String swappedPath = logFile.getAbsolutePath();
+                            File swappedFile = new File(swappedPath.substring(0, swappedPath.length() - LogCompactor.SWAP_FILE_SUFFIX.length()));
+                            try {
+                                Files.move(logFile.toPath(), swappedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                            } catch (IOException e) {
+                                throw new RuntimeException(e);
+                            }
+
+                            logFile = swappedFile;
+                        }
+
                         // log or index file.
                         String logFileName = logFile.getName();
 
@@ -112,31 +354,145 @@ public class PartitionLogHandler implements LogHandler {
                         offsetSet.add(offsetString);
                     }
 
-                    TopicPartition topicPartition = new TopicPartition(topicName, partition);
-                    List<PartitionLog> partitionLogs = null;
-                    if (partitionLogMap.containsKey(topicPartition)) {
-                        partitionLogs = partitionLogMap.get(topicPartition);
-                    } else {
-                        partitionLogs = new ArrayList<>();
+                    if (offsetSet.isEmpty()) {
+                        log.warn("no segment in [" + partitionFile.getAbsolutePath() + "], skipped");
+
+                        continue;
                     }
 
+                    TopicPartition topicPartition = new TopicPartition(topicName, partition);
+                    TreeMap<Long, String> segments = loadedSegmentMap.computeIfAbsent(topicPartition, key -> new TreeMap<>());
 
                     for (String offsetString : offsetSet) {
-                        long offset = Long.valueOf(offsetString);
+                        segments.put(Long.valueOf(offsetString), dataDir);
+                    }
+                }
+            }
+        }
+
+        return loadedSegmentMap;
+    }
+    /**
+     * @param topicPartition
+     * @param segments       data directories of the segments by base offset.
+     * @param checkpoint     active segment written at clean shutdown, or null.
+     * @return segments of the partition.
+     * @throws IOException
+     */
+    private List<PartitionLog> loadPartitionLogs(TopicPartition topicPartition, TreeMap<Long, String> segments, OffsetCheckpoint.Entry checkpoint) throws IOException {
+        List<PartitionLog> partitionLogs = new ArrayList<>();
+        for (Map.Entry<Long, String> segment : segments.headMap(segments.lastKey()).entrySet()) {
+            partitionLogs.add(newSealedPartitionLog(topicPartition, segment.getKey(), segment.getValue()));
+        }
 
-                        String indexFilePath = dataDir + File.separator + topicName + File.separator + partition + File.separator + offset + PartitionLogHandler.INDEX_FILE_EXTENSION;
-                        String logFilePath = dataDir + File.separator + topicName + File.separator + partition + File.separator + offset + PartitionLogHandler.LOG_FILE_EXTENSION;
+        long baseOffset = segments.lastKey();
+        boolean cleanShutdown = checkpoint != null && checkpoint.getBaseOffset() == baseOffset;
 
-                        OffsetIndex offsetIndex = new OffsetIndex(new File(indexFilePath), offset);
-                        PartitionLog partitionLog = new PartitionLog(new File(logFilePath), offset, offsetIndex);
+        PartitionLog activePartitionLog = newPartitionLog(topicPartition, baseOffset, segments.lastEntry().getValue(), cleanShutdown ? checkpoint : null);
+        if (!cleanShutdown) {
+            activePartitionLog.recover();
+        }
 
-                        partitionLogs.add(partitionLog);
+        if (segmentPreallocate) {
+            activePartitionLog.preallocate(segmentMaxBytes);
+        }
+        partitionLogs.add(activePartitionLog);
 
-                        partitionLogMap.put(topicPartition, partitionLogs);
-                    }
+        return new CopyOnWriteArrayList<>(partitionLogs);
+    }
+
+    private static long toLong(Object value, long defaultValue) {
+        return (value != null) ? ((Number) value).longValue() : defaultValue;
+    }
+
+    private static String partitionDir(TopicPartition topicPartition, String dataDir) {
+        return dataDir + File.separator + topicPartition.getTopic() + File.separator + topicPartition.getPartition() + File.separator;
+    }
+
+    private PartitionLog newSealedPartitionLog(TopicPartition topicPartition, long baseOffset, String dataDir) {
+        String logFilePath = partitionDir(topicPartition, dataDir) + baseOffset + PartitionLogHandler.LOG_FILE_EXTENSION;
+
+        return new PartitionLog(new File(logFilePath), baseOffset, indexMaxBytes, indexIntervalBytes, openSegmentCache);
+    }
+
+    private PartitionLog newPartitionLog(TopicPartition topicPartition, long baseOffset, String dataDir, OffsetCheckpoint.Entry checkpoint) {
+        String partitionDir = partitionDir(topicPartition, dataDir);
+
+        String indexFilePath = partitionDir + baseOffset + PartitionLogHandler.INDEX_FILE_EXTENSION;
+        String timeIndexFilePath = partitionDir + baseOffset + PartitionLogHandler.TIME_INDEX_FILE_EXTENSION;
+        String logFilePath = partitionDir + baseOffset + PartitionLogHandler.LOG_FILE_EXTENSION;
+
+        OffsetIndex offsetIndex = new OffsetIndex(new File(indexFilePath), baseOffset, indexMaxBytes);
+        TimeIndex timeIndex = new TimeIndex(new File(timeIndexFilePath), baseOffset, indexMaxBytes);
+
+        return new PartitionLog(new File(logFilePath), baseOffset, offsetIndex, timeIndex, indexIntervalBytes, checkpoint);
+    }
+
+    private void flushByInterval() {
+        long now = System.currentTimeMillis();
+
+        for (Map.Entry<TopicPartition, List<PartitionLog>> entry : partitionLogMap.entrySet()) {
+            try {
+                FlushPolicy flushPolicy = FlushPolicy.forTopic(entry.getKey().getTopic());
+
+                List<PartitionLog> partitionLogs = entry.getValue();
+                if (partitionLogs.isEmpty()) {
+                    continue;
+                }
+
+                PartitionLog partitionLog = partitionLogs.get(partitionLogs.size() - 1);
+                if (flushPolicy.getIntervalMs() > 0 && flushPolicy.shouldFlush(partitionLog.getUnflushedMessages(), partitionLog.getLastFlushTime(), now)) {
+                    partitionLog.flush();
+                }
+            } catch (Exception e) {
+                log.error("failed to flush [" + entry.getKey().getTopic() + "-" + entry.getKey().getPartition() + "]: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdownNow();
+        }
+        if (scrubberExecutor != null) {
+            scrubberExecutor.shutdownNow();
+        }
+        cleanerExecutor.shutdownNow();
+
+        // checkpoint of the active segments per data directory.
+        Map<String, Map<TopicPartition, OffsetCheckpoint.Entry>> checkpointMap = new HashMap<>();
+
+        for (Map.Entry<TopicPartition, List<PartitionLog>> entry : partitionLogMap.entrySet()) {
+            TopicPartition topicPartition = entry.getKey();
+            List<PartitionLog> partitionLogs = entry.getValue();
+
+            synchronized (partitionLogs) {
+                if (partitionLogs.isEmpty()) {
+                    continue;
+                }
+
+                PartitionLog activePartitionLog = partitionLogs.get(partitionLogs.size() - 1);
+                if (activePartitionLog.flush() == ClientServerSpec.ERROR_CODE_NONE) {
+                    String dataDir = new File(activePartitionLog.getFilePath()).getParentFile().getParentFile().getParent();
+
+                    checkpointMap.computeIfAbsent(dataDir, key -> new HashMap<>()).put(topicPartition,
+                            new OffsetCheckpoint.Entry(activePartitionLog.getBaseOffset(), activePartitionLog.getLastOffset(), activePartitionLog.getSize()));
+                }
+
+                for (PartitionLog partitionLog : partitionLogs) {
+                    partitionLog.close();
                 }
             }
         }
+
+        for (Map.Entry<String, Map<TopicPartition, OffsetCheckpoint.Entry>> entry : checkpointMap.entrySet()) {
+            try {
+                new OffsetCheckpoint(new File(entry.getKey())).write(entry.getValue());
+            } catch (IOException e) {
+                log.error("failed to write checkpoint to [" + entry.getKey() + "]: " + e.getMessage());
+            }
+        }
     }
 
     @Override
@@ -145,9 +501,14 @@ public class PartitionLogHandler implements LogHandler {
     }
 
 
-    private int getPartitionLogIndex(TopicPartition topicPartition, long offset) {
-        List<PartitionLog> partitionLogs = this.partitionLogMap.get(topicPartition);
-
+    /**
+     * binary search for the segment which contains the offset.
+     *
+     * @param partitionLogs
+     * @param offset
+     * @return index of the last segment whose base offset is not greater than the offset, or 0 if the offset is before the first segment.
+     */
+    private int getPartitionLogIndex(List<PartitionLog> partitionLogs, long offset) {
         int first = 0;
         int last = partitionLogs.size() - 1;
         while (first <= last) {
@@ -162,85 +523,319 @@ public class PartitionLogHandler implements LogHandler {
             }
         }
 
-        return last;
+        return Math.max(last, 0);
     }
 
+    /**
+     * @param segments
+     * @param offset
+     * @return the segment which contains the offset, or the next segment if the offset is after the last batch of the segment,
+     * whose records at the end may have been removed by compaction.
+     */
+    private PartitionLog getPartitionLog(List<PartitionLog> segments, long offset) {
+        int index = this.getPartitionLogIndex(segments, offset);
+        while (index < segments.size() - 1 && segments.get(index).getLastOffset() < offset) {
+            index++;
+        }
+
+        return segments.get(index);
+    }
+
+    @Override
+    public List<String> getDataDirs() {
+        return dataDirs;
+    }
+
+    @Override
+    public int getDataDirIndex(TopicPartition topicPartition) {
+        return dataDirPlacement.getDataDirIndex(topicPartition);
+    }
 
     @Override
     public int add(TopicPartition topicPartition, long firstOffset, GenericRecord records, int recordSize) {
-        int errorCode = 0;
+        return add(topicPartition, Collections.singletonList(new Append(firstOffset, records, recordSize)));
+    }
 
-        PartitionLog partitionLog = null;
-        if (partitionLogMap.containsKey(topicPartition)) {
-            int partitionLogIndex = this.getPartitionLogIndex(topicPartition, firstOffset);
+    @Override
+    public int add(TopicPartition topicPartition, List<Append> appends) {
+        return add(topicPartition, appends, false);
+    }
 
-            List<PartitionLog> partitionLogs = partitionLogMap.get(topicPartition);
+    @Override
+    public int append(TopicPartition topicPartition, List<Append> appends) {
+        return add(topicPartition, appends, true);
+    }
 
-            partitionLog = partitionLogs.get(partitionLogIndex);
+    /**
+     * @param topicPartition
+     * @param appends
+     * @param assignOffsets reserve the offsets of the appends from the sequencer of the partition under the lock of the partition.
+     * @return error code.
+     */
+    private int add(TopicPartition topicPartition, List<Append> appends, boolean assignOffsets) {
+        int errorCode = 0;
 
-            long partitionLogFileSize = partitionLog.getSize();
+        List<PartitionLog> partitionLogs = partitionLogMap.computeIfAbsent(topicPartition, key -> new CopyOnWriteArrayList<>());
+        OffsetSequencer offsetSequencer = getOffsetSequencer(topicPartition);
 
-            // if segment file size is reached to the maximum size of segment bytes, create new one.
-            if (segmentMaxBytes < partitionLogFileSize) {
-                // random selected data dir in which segment file will be created.
-                String selectedDataDir = dataDirs.get(random.nextInt(dataDirs.size()));
+        // segments are added to the list just by the writer of the partition, and fetch walks the list without locks.
+        synchronized (partitionLogs) {
+            if (assignOffsets) {
+                long recordSize = 0;
+                for (Append append : appends) {
+                    recordSize += append.getRecordSize();
+                }
 
-                errorCode = createNewPartitionLogFileAndSaveRecords(topicPartition, firstOffset, records, recordSize, partitionLogs, partitionLogMap, selectedDataDir);
+                long nextOffset = offsetSequencer.reserve(recordSize);
+                for (Append append : appends) {
+                    append.assignFirstOffset(nextOffset);
+                    nextOffset += append.getRecordSize();
+                }
+            }
+
+            long firstOffset = appends.get(0).getFirstOffset();
+
+            PartitionLog activePartitionLog;
+            if (partitionLogs.isEmpty()) {
+                activePartitionLog = newActivePartitionLog(topicPartition, firstOffset, dataDirPlacement.getDataDir(topicPartition));
+                partitionLogs.add(activePartitionLog);
             } else {
-                // save records.
-                errorCode = partitionLog.add(firstOffset, records, recordSize);
+                activePartitionLog = partitionLogs.get(partitionLogs.size() - 1);
+
+                if (shouldRoll(activePartitionLog, appends)) {
+                    activePartitionLog = roll(topicPartition, partitionLogs, activePartitionLog, firstOffset);
+                }
+            }
+
+            // save records.
+            errorCode = activePartitionLog.add(appends);
+
+            // records become visible to fetch after they are written and committed.
+            // partition has no replicas to acknowledge the records, so that they are committed once they are written.
+            if (errorCode == 0) {
+                long lastOffset = activePartitionLog.getLastOffset();
+
+                offsetSequencer.advanceTo(lastOffset + 1);
+                offsetSequencer.publish(lastOffset);
+                offsetSequencer.commit(lastOffset);
             }
         }
-        // if there is no partition log file for the topic and partition.
-        else {
-            String firstDataDir = dataDirs.get(0);
-            List<PartitionLog> partitionLogs = new ArrayList<>();
 
-            errorCode = createNewPartitionLogFileAndSaveRecords(topicPartition, firstOffset, records, recordSize, partitionLogs, partitionLogMap, firstDataDir);
+        // waiting fetches are notified of the committed records.
+        if (errorCode == 0 && !appendListeners.isEmpty()) {
+            long bytes = 0;
+            for (Append append : appends) {
+                bytes += append.getBytes().length;
+            }
+
+            for (AppendListener appendListener : appendListeners) {
+                appendListener.onAppend(topicPartition, bytes);
+            }
+        }
+
+        // flush if the number of unflushed messages is reached.
+        if (errorCode == 0) {
+            FlushPolicy flushPolicy = FlushPolicy.forTopic(topicPartition.getTopic());
+            if (flushPolicy.getMessages() > 0) {
+                PartitionLog activePartitionLog = activePartitionLog(topicPartition);
+                if (flushPolicy.shouldFlush(activePartitionLog.getUnflushedMessages(), activePartitionLog.getLastFlushTime(), System.currentTimeMillis())) {
+                    errorCode = activePartitionLog.flush();
+                }
+            }
         }
 
         return errorCode;
     }
 
-    private int createNewPartitionLogFileAndSaveRecords(TopicPartition topicPartition,
-                                                        long firstOffset,
-                                                        GenericRecord records,
-                                                        int recordSize,
-                                                        List<PartitionLog> partitionLogs,
-                                                        ConcurrentMap<TopicPartition, List<PartitionLog>> partitionLogMap,
-                                                        String dataDir) {
+    @Override
+    public void addAppendListener(AppendListener appendListener) {
+        appendListeners.add(appendListener);
+    }
 
-        String topicName = topicPartition.getTopic();
-        int partition = topicPartition.getPartition();
+    @Override
+    public OffsetSequencer getOffsetSequencer(TopicPartition topicPartition) {
+        OffsetSequencer offsetSequencer = offsetSequencerMap.get(topicPartition);
+        if (offsetSequencer != null) {
+            return offsetSequencer;
+        }
 
-        int errorCode = 0;
+        // sequencer is created before the first records of the partition are added.
+        return offsetSequencerMap.computeIfAbsent(topicPartition, key -> {
+            List<PartitionLog> partitionLogs = partitionLogMap.get(key);
+
+            return new OffsetSequencer((partitionLogs != null) ? nextOffset(partitionLogs) : 1);
+        });
+    }
+
+    /**
+     * @param partitionLogs
+     * @return offset following the last offset of the active segment, or the base offset of the empty active segment.
+     */
+    private static long nextOffset(List<PartitionLog> partitionLogs) {
+        if (partitionLogs.isEmpty()) {
+            return 1;
+        }
 
-        String indexFilePath = dataDir + File.separator + topicName + File.separator + partition + File.separator + firstOffset + PartitionLogHandler.INDEX_FILE_EXTENSION;
-        String logFilePath = dataDir + File.separator + topicName + File.separator + partition + File.separator + firstOffset + PartitionLogHandler.LOG_FILE_EXTENSION;
+        PartitionLog activePartitionLog = partitionLogs.get(partitionLogs.size() - 1);
 
-        OffsetIndex offsetIndex = new OffsetIndex(new File(indexFilePath), firstOffset);
-        PartitionLog partitionLog = new PartitionLog(new File(logFilePath), firstOffset, offsetIndex);
+        return (activePartitionLog.getSize() == 0) ? activePartitionLog.getBaseOffset() : activePartitionLog.getLastOffset() + 1;
+    }
 
-        // save records.
-        errorCode = partitionLog.add(firstOffset, records, recordSize);
+    private PartitionLog activePartitionLog(TopicPartition topicPartition) {
+        List<PartitionLog> partitionLogs = partitionLogMap.get(topicPartition);
 
+        return (partitionLogs == null || partitionLogs.isEmpty()) ? null : partitionLogs.get(partitionLogs.size() - 1);
+    }
+
+    @Override
+    public int flush(TopicPartition topicPartition) {
+        PartitionLog partitionLog = activePartitionLog(topicPartition);
+
+        return (partitionLog != null) ? partitionLog.flush() : 0;
+    }
+
+    /**
+     * active segment is rolled, if the records do not fit in the max. segment size or in the indexes,
+     * or if the active segment is older than max. segment age.
+     *
+     * @param activePartitionLog
+     * @param appends
+     * @return
+     */
+    private boolean shouldRoll(PartitionLog activePartitionLog, List<Append> appends) {
+        long size = activePartitionLog.getSize();
+        if (size == 0) {
+            return false;
+        }
+
+        long appendBytes = 0;
+        for (Append append : appends) {
+            appendBytes += PartitionLog.BATCH_HEADER_SIZE + append.getBytes().length;
+        }
+
+        if (size + appendBytes > segmentMaxBytes) {
+            return true;
+        }
+
+        if (activePartitionLog.getOffsetIndex().isFull(appends.size()) || activePartitionLog.getTimeIndex().isFull(appends.size())) {
+            return true;
+        }
+
+        return segmentMaxAgeMs > 0 && System.currentTimeMillis() - activePartitionLog.getCreatedTime() >= segmentMaxAgeMs;
+    }
+
+    /**
+     * seal the active segment, and add new active segment in the same data directory.
+     */
+    private PartitionLog roll(TopicPartition topicPartition, List<PartitionLog> partitionLogs, PartitionLog activePartitionLog, long firstOffset) {
+        activePartitionLog.seal();
+        activePartitionLog.setOpenSegmentCache(openSegmentCache);
+
+        String dataDir = new File(activePartitionLog.getFilePath()).getParentFile().getParentFile().getParent();
+
+        PartitionLog partitionLog = newActivePartitionLog(topicPartition, firstOffset, dataDir);
         partitionLogs.add(partitionLog);
-        partitionLogMap.put(topicPartition, partitionLogs);
 
-        return errorCode;
+        log.info("segment [" + activePartitionLog.getFilePath() + "] rolled to [" + partitionLog.getFilePath() + "]");
+
+        return partitionLog;
+    }
+
+    private PartitionLog newActivePartitionLog(TopicPartition topicPartition, long baseOffset, String dataDir) {
+        PartitionLog partitionLog = newPartitionLog(topicPartition, baseOffset, dataDir, null);
+        if (segmentPreallocate) {
+            partitionLog.preallocate(segmentMaxBytes);
+        }
+
+        return partitionLog;
     }
 
     @Override
     public FetchRecord fetch(TopicPartition topicPartition, long fetchOffset, int maxBytes) {
+        List<PartitionLog> partitionLogs = partitionLogMap.get(topicPartition);
+
+        if (partitionLogs == null || partitionLogs.isEmpty()) {
+            log.error("topic [" + topicPartition.getTopic() + "] partition [" + topicPartition.getPartition() + "] not found!");
+
+            return new FetchRecord(ClientServerSpec.ERROR_CODE_UNKNOWN_TOPIC_OR_PARTITION, 0, 0, new ArrayList<>());
+        } else {
+            // snapshot of the segments, from which segments may be removed by retention.
+            List<PartitionLog> segments = Arrays.asList(partitionLogs.toArray(new PartitionLog[0]));
+            if (segments.isEmpty()) {
+                return new FetchRecord(ClientServerSpec.ERROR_CODE_UNKNOWN_TOPIC_OR_PARTITION, 0, 0, new ArrayList<>());
+            }
+
+            // data beyond the high-water mark is not exposed.
+            OffsetSequencer offsetSequencer = getOffsetSequencer(topicPartition);
+            long highwaterMarkOffset = offsetSequencer.getHighwaterMark();
+            long logEndOffset = offsetSequencer.getLogEndOffset();
+
+            PartitionLog partitionLog = getPartitionLog(segments, fetchOffset);
 
-        if (!partitionLogMap.containsKey(topicPartition)) {
+            return partitionLog.fetch(fetchOffset, maxBytes, verifyChecksumOnFetch, highwaterMarkOffset, logEndOffset);
+        }
+    }
+
+    @Override
+    public FetchRegion fetchRegion(TopicPartition topicPartition, long fetchOffset, int maxBytes) {
+        List<PartitionLog> partitionLogs = partitionLogMap.get(topicPartition);
+
+        if (partitionLogs == null || partitionLogs.isEmpty()) {
             log.error("topic [" + topicPartition.getTopic() + "] partition [" + topicPartition.getPartition() + "] not found!");
 
-            return null;
+            return new FetchRegion(ClientServerSpec.ERROR_CODE_UNKNOWN_TOPIC_OR_PARTITION, 0, 0, null, new ArrayList<>());
         } else {
-            PartitionLog partitionLog = partitionLogMap.get(topicPartition).get(this.getPartitionLogIndex(topicPartition, fetchOffset));
+            // snapshot of the segments, from which segments may be removed by retention.
+            List<PartitionLog> segments = Arrays.asList(partitionLogs.toArray(new PartitionLog[0]));
+            if (segments.isEmpty()) {
+                return new FetchRegion(ClientServerSpec.ERROR_CODE_UNKNOWN_TOPIC_OR_PARTITION, 0, 0, null, new ArrayList<>());
+            }
+
+            // data beyond the high-water mark is not exposed.
+            OffsetSequencer offsetSequencer = getOffsetSequencer(topicPartition);
+            long highwaterMarkOffset = offsetSequencer.getHighwaterMark();
+            long logEndOffset = offsetSequencer.getLogEndOffset();
+
+            PartitionLog partitionLog = getPartitionLog(segments, fetchOffset);
+
+            return partitionLog.fetchRegion(fetchOffset, maxBytes, verifyChecksumOnFetch, highwaterMarkOffset, logEndOffset);
+        }
+    }
+
+    @Override
+    public ListOffset listOffset(TopicPartition topicPartition, long timestamp) {
+        List<PartitionLog> partitionLogs = partitionLogMap.get(topicPartition);
+        if (partitionLogs == null || partitionLogs.isEmpty()) {
+            return new ListOffset(ClientServerSpec.ERROR_CODE_UNKNOWN_TOPIC_OR_PARTITION, timestamp, ClientServerSpec.LIST_OFFSETS_OFFSET_NONE);
+        }
 
-            return partitionLog.fetch(fetchOffset, maxBytes);
+        if (timestamp == ClientServerSpec.LIST_OFFSETS_TIMESTAMP_EARLIEST) {
+            return new ListOffset(ClientServerSpec.ERROR_CODE_NONE, timestamp, partitionLogs.get(0).getBaseOffset());
+        } else if (timestamp == ClientServerSpec.LIST_OFFSETS_TIMESTAMP_LATEST) {
+            // offset after the high-water mark, up to which fetch reads.
+            return new ListOffset(ClientServerSpec.ERROR_CODE_NONE, timestamp, getOffsetSequencer(topicPartition).getHighwaterMark() + 1);
         }
+
+        // binary search for the first segment whose max. timestamp is at or after the timestamp, which has the offset.
+        // max. timestamps are read without opening the segments, so that just the segment found is opened.
+        int first = 0;
+        int last = partitionLogs.size() - 1;
+        while (first <= last) {
+            int middle = (first + last) / 2;
+            if (partitionLogs.get(middle).getMaxTimestamp() < timestamp) {
+                first = middle + 1;
+            } else {
+                last = middle - 1;
+            }
+        }
+
+        for (int i = first; i < partitionLogs.size(); i++) {
+            TimeIndex.TimestampOffset timestampOffset = partitionLogs.get(i).lookupByTimestamp(timestamp);
+            if (timestampOffset != null) {
+                return new ListOffset(ClientServerSpec.ERROR_CODE_NONE, timestampOffset.getTimestamp(), timestampOffset.getOffset());
+            }
+        }
+
+        return new ListOffset(ClientServerSpec.ERROR_CODE_NONE, timestamp, ClientServerSpec.LIST_OFFSETS_OFFSET_NONE);
     }
 }
@@ -0,0 +1,124 @@
+package io.shunters.coda.store;
+
+import io.shunters.coda.offset.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the sealed segments by the retention policy of the topic in the background.
+ * <p>
+ * expired segment is removed from the segment list of the partition first, and its files are renamed with the deleted suffix.
+ * files are deleted after the delay, so that fetch which has already got the segment can complete.
+ * <p>
+ * unlinks of the files are paced by the bytes of the deleted segments per second, by scheduling them one after another,
+ * so that the executor shared with the delayed closes and compaction is never blocked by the pacing.
+ */
+public class RetentionManager implements Runnable {
+
+    private static Logger log = LoggerFactory.getLogger(RetentionManager.class);
+
+    public static final String DELETED_FILE_SUFFIX = ".deleted";
+
+    private ConcurrentMap<TopicPartition, List<PartitionLog>> partitionLogMap;
+
+    private ScheduledExecutorService executor;
+
+    private long fileDeleteDelayMs;
+
+    private long deleteBytesPerSec;
+
+    /**
+     * time after which the files of the next segment can be deleted by the pace, accessed only by the executor thread.
+     */
+    private long nextDeleteTime = 0;
+
+    /**
+     * @param partitionLogMap
+     * @param executor          executor on which files are deleted after the delay.
+     * @param fileDeleteDelayMs
+     * @param deleteBytesPerSec bytes of the segments deleted per second, 0 if deletion is not paced.
+     */
+    public RetentionManager(ConcurrentMap<TopicPartition, List<PartitionLog>> partitionLogMap,
+                            ScheduledExecutorService executor,
+                            long fileDeleteDelayMs,
+                            long deleteBytesPerSec) {
+        this.partitionLogMap = partitionLogMap;
+        this.executor = executor;
+        this.fileDeleteDelayMs = fileDeleteDelayMs;
+        this.deleteBytesPerSec = deleteBytesPerSec;
+    }
+
+    @Override
+    public void run() {
+        for (Map.Entry<TopicPartition, List<PartitionLog>> entry : partitionLogMap.entrySet()) {
+            TopicPartition topicPartition = entry.getKey();
+
+            // segments of the compacted topics are not deleted by retention.
+            if (LogCompactor.isCompacted(topicPartition.getTopic())) {
+                continue;
+            }
+
+            try {
+                deleteSegments(topicPartition, entry.getValue(), System.currentTimeMillis());
+            } catch (Exception e) {
+                log.error("failed to apply retention to [" + topicPartition.getTopic() + "-" + topicPartition.getPartition() + "]: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * delete the oldest sealed segments as long as they are to be deleted by the retention policy.
+     *
+     * @param topicPartition
+     * @param partitionLogs
+     * @param now
+     * @return the number of the deleted segments.
+     */
+    int deleteSegments(TopicPartition topicPartition, List<PartitionLog> partitionLogs, long now) {
+        RetentionPolicy retentionPolicy = RetentionPolicy.forTopic(topicPartition.getTopic());
+
+        long partitionSize = 0;
+        for (PartitionLog partitionLog : partitionLogs) {
+            partitionSize += partitionLog.getSize();
+        }
+
+        int deleted = 0;
+
+        // iterator of copy-on-write list walks the snapshot, while segments are added by the writer.
+        for (PartitionLog partitionLog : partitionLogs) {
+            // active segment is never deleted.
+            if (!partitionLog.isSealed()) {
+                break;
+            }
+
+            long segmentSize = partitionLog.getSize();
+            if (!retentionPolicy.isExpired(partitionLog.getLastModified(), now) && !retentionPolicy.exceedsBytes(partitionSize, segmentSize)) {
+                break;
+            }
+
+            partitionLogs.remove(partitionLog);
+            partitionSize -= segmentSize;
+
+            partitionLog.markDeleted();
+
+            // files are deleted after the delay, and not before the files of the previous segment are deleted by the pace.
+            long deleteTime = Math.max(now + fileDeleteDelayMs, nextDeleteTime);
+            if (deleteBytesPerSec > 0) {
+                nextDeleteTime = deleteTime + segmentSize * 1000 / deleteBytesPerSec;
+            }
+            executor.schedule(partitionLog::delete, deleteTime - now, TimeUnit.MILLISECONDS);
+
+            deleted++;
+
+            log.info("segment [" + partitionLog.getFilePath() + "] of [" + topicPartition.getTopic() + "-" + topicPartition.getPartition() + "] deleted by retention");
+        }
+
+        return deleted;
+    }
+}
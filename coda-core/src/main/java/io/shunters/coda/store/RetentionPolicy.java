@@ -0,0 +1,113 @@
+package io.shunters.coda.store;
+
+import io.shunters.coda.config.ConfigHandler;
+import io.shunters.coda.config.YamlConfigHandler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Retention policy of the partition logs, set for the broker and overridden per topic.
+ * <p>
+ * Sealed segment is deleted if it has not been modified for retention ms, or if the partition exceeds retention bytes without it.
+ * Negative value disables the condition.
+ */
+public class RetentionPolicy {
+
+    public static final String TOPIC_CONFIG_MS = "ms";
+    public static final String TOPIC_CONFIG_BYTES = "bytes";
+
+    /**
+     * default retention ms, 7 days.
+     */
+    public static final long DEFAULT_RETENTION_MS = 7 * 24 * 60 * 60 * 1000L;
+
+    private static RetentionPolicy brokerPolicy;
+
+    private static ConcurrentMap<String, RetentionPolicy> topicPolicyMap = new ConcurrentHashMap<>();
+
+    private static final Object lock = new Object();
+
+    private long ms;
+
+    private long bytes;
+
+    public RetentionPolicy(long ms, long bytes) {
+        this.ms = ms;
+        this.bytes = bytes;
+    }
+
+    public long getMs() {
+        return ms;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @param lastModified last modified time of the segment.
+     * @param now
+     * @return true if the segment is older than retention ms.
+     */
+    public boolean isExpired(long lastModified, long now) {
+        return ms >= 0 && now - lastModified > ms;
+    }
+
+    /**
+     * @param partitionSize total size of the segments of the partition.
+     * @param segmentSize   size of the oldest segment.
+     * @return true if the partition exceeds retention bytes without the oldest segment.
+     */
+    public boolean exceedsBytes(long partitionSize, long segmentSize) {
+        return bytes >= 0 && partitionSize - segmentSize >= bytes;
+    }
+
+    public static RetentionPolicy broker() {
+        if (brokerPolicy == null) {
+            synchronized (lock) {
+                if (brokerPolicy == null) {
+                    ConfigHandler configHandler = YamlConfigHandler.getConfigHandler();
+
+                    brokerPolicy = new RetentionPolicy(toLong(configHandler.get(ConfigHandler.CONFIG_LOG_RETENTION_MS), DEFAULT_RETENTION_MS),
+                            toLong(configHandler.get(ConfigHandler.CONFIG_LOG_RETENTION_BYTES), -1));
+                }
+            }
+        }
+
+        return brokerPolicy;
+    }
+
+    /**
+     * @param topic
+     * @return retention policy of the topic, or the broker retention policy if the topic does not override it.
+     */
+    public static RetentionPolicy forTopic(String topic) {
+        RetentionPolicy retentionPolicy = topicPolicyMap.get(topic);
+        if (retentionPolicy != null) {
+            return retentionPolicy;
+        }
+
+        RetentionPolicy broker = broker();
+        retentionPolicy = broker;
+
+        Map<String, Map<String, Object>> topicConfigs = (Map<String, Map<String, Object>>) YamlConfigHandler.getConfigHandler().get(ConfigHandler.CONFIG_LOG_RETENTION_TOPICS);
+        if (topicConfigs != null && topicConfigs.containsKey(topic)) {
+            Map<String, Object> topicConfig = topicConfigs.get(topic);
+
+            long ms = toLong(topicConfig.get(TOPIC_CONFIG_MS), broker.getMs());
+            long bytes = toLong(topicConfig.get(TOPIC_CONFIG_BYTES), broker.getBytes());
+
+            retentionPolicy = new RetentionPolicy(ms, bytes);
+        }
+
+        topicPolicyMap.put(topic, retentionPolicy);
+
+        return retentionPolicy;
+    }
+
+    private static long toLong(Object value, long defaultValue) {
+        return (value != null) ? ((Number) value).longValue() : defaultValue;
+    }
+}
@@ -0,0 +1,107 @@
+package io.shunters.coda.store;
+
+import io.shunters.coda.offset.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongConsumer;
+
+/**
+ * Verifies the checksums of the batches in the sealed segments in the background, so that silent disk corruption is detected
+ * without verifying every fetch.
+ * <p>
+ * verification is paced by the bytes of the batches read per second.
+ */
+public class SegmentScrubber implements Runnable {
+
+    private static Logger log = LoggerFactory.getLogger(SegmentScrubber.class);
+
+    private ConcurrentMap<TopicPartition, List<PartitionLog>> partitionLogMap;
+
+    private long bytesPerSec;
+
+    /**
+     * @param partitionLogMap
+     * @param bytesPerSec     bytes of the batches verified per second, 0 if verification is not paced.
+     */
+    public SegmentScrubber(ConcurrentMap<TopicPartition, List<PartitionLog>> partitionLogMap, long bytesPerSec) {
+        this.partitionLogMap = partitionLogMap;
+        this.bytesPerSec = bytesPerSec;
+    }
+
+    @Override
+    public void run() {
+        for (Map.Entry<TopicPartition, List<PartitionLog>> entry : partitionLogMap.entrySet()) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+
+            scrub(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * verify the sealed segments of the partition.
+     *
+     * @param topicPartition
+     * @param partitionLogs
+     * @return the number of the corrupt segments.
+     */
+    int scrub(TopicPartition topicPartition, List<PartitionLog> partitionLogs) {
+        int corrupted = 0;
+
+        // iterator of copy-on-write list walks the snapshot, while segments are added or removed.
+        for (PartitionLog partitionLog : partitionLogs) {
+            // active segment is still appended.
+            if (!partitionLog.isSealed()) {
+                break;
+            }
+
+            try {
+                long corruptOffset = partitionLog.verify(new Throttle());
+                if (corruptOffset >= 0) {
+                    corrupted++;
+
+                    log.error("checksum mismatch of the batch [" + corruptOffset + "] in segment [" + partitionLog.getFilePath() + "] of ["
+                            + topicPartition.getTopic() + "-" + topicPartition.getPartition() + "]");
+                }
+            } catch (IOException e) {
+                // segment may have been deleted by retention or replaced by compaction.
+                log.warn("failed to verify segment [" + partitionLog.getFilePath() + "]: " + e.getMessage());
+            }
+        }
+
+        return corrupted;
+    }
+
+    /**
+     * sleep as long as the bytes verified exceed bytes per sec.
+     */
+    private class Throttle implements LongConsumer {
+        private long startTime = System.currentTimeMillis();
+
+        private long bytes = 0;
+
+        @Override
+        public void accept(long verifiedBytes) {
+            if (bytesPerSec <= 0) {
+                return;
+            }
+
+            bytes += verifiedBytes;
+
+            long sleepMs = bytes * 1000 / bytesPerSec - (System.currentTimeMillis() - startTime);
+            if (sleepMs > 0) {
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
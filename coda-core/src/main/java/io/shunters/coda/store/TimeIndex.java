@@ -0,0 +1,344 @@
+package io.shunters.coda.store;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Entry := Timestamp(8 Bytes) DeltaOffset(4 Bytes)
+ * <p>
+ * entry maps the max. timestamp of the records batch to the first offset of the batch,
+ * and is added only if the timestamp is greater than the one of the last entry, so that entries are sorted by timestamp.
+ * <p>
+ * like offset index, time index file is mapped once and grown by preallocation,
+ * and the preallocated space filled with zero is recognized by zero timestamp.
+ */
+public class TimeIndex {
+    private static Logger log = LoggerFactory.getLogger(TimeIndex.class);
+
+    private static final int ENTRY_SIZE = 12;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private File file;
+    private long baseOffset;
+    private RandomAccessFile raf;
+    private volatile MappedByteBuffer mmap;
+    private int maxIndexSize;
+    private volatile long size = 0;
+    private volatile long maxTimestamp = 0;
+
+    public TimeIndex(File file, long baseOffset) {
+        this(file, baseOffset, OffsetIndex.DEFAULT_MAX_INDEX_SIZE);
+    }
+
+    public TimeIndex(File file, long baseOffset, int maxIndexSize) {
+        this.file = file;
+        this.baseOffset = baseOffset;
+        this.maxIndexSize = maxIndexSize - (maxIndexSize % ENTRY_SIZE);
+        try {
+            if (!file.exists()) {
+                FileUtils.forceMkdir(file.getParentFile());
+                file.createNewFile();
+            }
+
+            raf = new RandomAccessFile(file, "rw");
+
+            long length = raf.length() - (raf.length() % ENTRY_SIZE);
+            mmap = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+
+            size = this.getValidEntryCount() * ENTRY_SIZE;
+            if (size > 0) {
+                maxTimestamp = getTimestamp(mapping(), this.getEntryCount() - 1);
+            }
+
+            log.info("initial size [{}], max timestamp [{}]", size, maxTimestamp);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public String getFilePath() {
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * read the max. timestamp from the last valid entry of the time index file, without mapping it.
+     *
+     * @param file
+     * @return the max. timestamp, 0 if there is no entry.
+     * @throws IOException
+     */
+    public static long readMaxTimestamp(File file) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            // index file may be preallocated, whose entries after the last valid one are filled with zero.
+            int first = 0;
+            int last = (int) (raf.length() / ENTRY_SIZE) - 1;
+            long maxTimestamp = 0;
+            while (first <= last) {
+                int middle = (first + last) / 2;
+
+                raf.seek((long) middle * ENTRY_SIZE);
+                long timestamp = raf.readLong();
+                if (timestamp != 0) {
+                    maxTimestamp = timestamp;
+                    first = middle + 1;
+                } else {
+                    last = middle - 1;
+                }
+            }
+
+            return maxTimestamp;
+        }
+    }
+
+    /**
+     * @return the max. timestamp of the records in the segment, 0 if there is no entry.
+     */
+    public long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    /**
+     * @param entryCount
+     * @return true if the entries do not fit in the max. index size any more.
+     */
+    public boolean isFull(int entryCount) {
+        return size + (long) entryCount * ENTRY_SIZE > maxIndexSize;
+    }
+
+    private int getEntryCount() {
+        return (int) (size / ENTRY_SIZE);
+    }
+
+    private int getValidEntryCount() {
+        int first = 0;
+        ByteBuffer buffer = mapping();
+        int last = buffer.capacity() / ENTRY_SIZE - 1;
+        while (first <= last) {
+            int middle = (first + last) / 2;
+            if (getTimestamp(buffer, middle) != 0) {
+                first = middle + 1;
+            } else {
+                last = middle - 1;
+            }
+        }
+
+        return first;
+    }
+
+    private void remap(long length) throws IOException {
+        raf.setLength(length);
+        mmap = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+    }
+
+    /**
+     * add an entry if the timestamp is greater than the max. timestamp.
+     *
+     * @param timestamp   max. timestamp of the records batch.
+     * @param firstOffset first offset of the records batch.
+     */
+    public void maybeAdd(long timestamp, long firstOffset) {
+        if (timestamp <= maxTimestamp) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (timestamp <= maxTimestamp) {
+                return;
+            }
+
+            long requiredSize = size + ENTRY_SIZE;
+            if (requiredSize > mapping().capacity()) {
+                remap(Math.max(requiredSize, maxIndexSize));
+            }
+
+            ByteBuffer buffer = mapping();
+            int index = this.getEntryCount() * ENTRY_SIZE;
+            buffer.putLong(index, timestamp);
+            buffer.putInt(index + 8, (int) (firstOffset - baseOffset));
+
+            maxTimestamp = timestamp;
+
+            size += ENTRY_SIZE;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * binary search for the first entry whose timestamp is at or after the timestamp.
+     *
+     * @param timestamp
+     * @return timestamp and first offset of the records batch, or null if there is no records at or after the timestamp.
+     */
+    public TimestampOffset lookup(long timestamp) {
+        // read the size before the mapping, because the mapping is replaced before the size grows beyond it.
+        int entryCount = this.getEntryCount();
+        ByteBuffer buffer = mapping();
+
+        int first = 0;
+        int last = entryCount - 1;
+        while (first <= last) {
+            int middle = (first + last) / 2;
+            if (getTimestamp(buffer, middle) < timestamp) {
+                first = middle + 1;
+            } else {
+                last = middle - 1;
+            }
+        }
+
+        if (first == entryCount) {
+            return null;
+        }
+
+        return new TimestampOffset(getTimestamp(buffer, first), baseOffset + getDeltaOffset(buffer, first));
+    }
+
+    /**
+     * trim the preallocated space of the index file to the valid entries, which is called when the segment rolls.
+     */
+    public void trimToSize() {
+        lock.lock();
+        try {
+            MappedByteBuffer buffer = mapping();
+            if (buffer.capacity() != size) {
+                buffer.force();
+                remap(size);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * remove the entries after the entry count, whose space is filled with zero again.
+     *
+     * @param entryCount
+     */
+    public void truncateTo(int entryCount) {
+        lock.lock();
+        try {
+            ByteBuffer buffer = mapping();
+            for (int i = entryCount * ENTRY_SIZE; i < size; i++) {
+                buffer.put(i, (byte) 0);
+            }
+
+            size = (long) entryCount * ENTRY_SIZE;
+
+            maxTimestamp = (entryCount > 0) ? getTimestamp(buffer, entryCount - 1) : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void flush() throws IOException {
+        mapping().force();
+    }
+
+    /**
+     * rename the index file, which is still accessible through the mapping.
+     *
+     * @param target
+     * @throws IOException
+     */
+    public void renameTo(File target) throws IOException {
+        Files.move(file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        file = target;
+    }
+
+    /**
+     * close the index file, and unmap the mapping, which must not be accessed any more.
+     * <p>
+     * the caller makes sure that no lookup is made through the mapping while it is closed.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                log.warn("failed to close [" + file.getAbsolutePath() + "]: " + e.getMessage());
+            }
+
+            MappedByteBuffer buffer = mmap;
+            mmap = null;
+
+            if (buffer != null) {
+                MappedBuffers.unmap(buffer);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the mapping of the index file.
+     * @throws IllegalStateException if the index is closed, so that the unmapped buffer is never accessed.
+     */
+    private MappedByteBuffer mapping() {
+        MappedByteBuffer buffer = mmap;
+        if (buffer == null) {
+            throw new IllegalStateException("index [" + file.getAbsolutePath() + "] is closed");
+        }
+
+        return buffer;
+    }
+
+    /**
+     * close the index file, and delete it.
+     */
+    public void delete() {
+        close();
+
+        if (!file.delete()) {
+            log.warn("failed to delete [" + file.getAbsolutePath() + "]");
+        }
+    }
+
+    private long getTimestamp(ByteBuffer buffer, int n) {
+        return buffer.getLong(n * ENTRY_SIZE);
+    }
+
+    private int getDeltaOffset(ByteBuffer buffer, int n) {
+        return buffer.getInt(n * ENTRY_SIZE + 8);
+    }
+
+
+    public static class TimestampOffset {
+        private long timestamp;
+        private long offset;
+
+        public TimestampOffset(long timestamp, long offset) {
+            this.timestamp = timestamp;
+            this.offset = offset;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package io.shunters.coda.util;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.shunters.coda.config.ConfigHandler;
+import io.shunters.coda.config.YamlConfigHandler;
+import io.shunters.coda.metrics.MetricRegistryFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size classed pool of direct buffers for request and response frames.
+ * <p>
+ * Size classes are powers of 2 from MIN_CLASS_SIZE up to MAX_CLASS_SIZE.
+ * Buffers larger than MAX_CLASS_SIZE are allocated without pooling.
+ * Every allocated buffer must be released when the request or response is done with it.
+ */
+public class BufferPool {
+
+    public static final int MIN_CLASS_SIZE = 1024;
+
+    public static final int MAX_CLASS_SIZE = 16 * 1024 * 1024;
+
+    public static final long DEFAULT_MAX_POOLED_BYTES = 256L * 1024 * 1024;
+
+    private static final int MIN_CLASS_SHIFT = Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+
+    private static final Object lock = new Object();
+
+    private static BufferPool bufferPool;
+
+    private Queue<ByteBuffer>[] freeLists;
+
+    private AtomicInteger[] freeCounts;
+
+    private int[] maxFreeCountPerClass;
+
+    private AtomicLong outstandingBytes = new AtomicLong(0);
+
+    private AtomicLong pooledBytes = new AtomicLong(0);
+
+    private Meter hitMeter;
+
+    private Meter missMeter;
+
+    public static BufferPool singleton() {
+        if (bufferPool == null) {
+            synchronized (lock) {
+                if (bufferPool == null) {
+                    Object maxPooledBytesObj = YamlConfigHandler.getConfigHandler().get(ConfigHandler.CONFIG_BUFFER_POOL_MAX_BYTES);
+                    long maxPooledBytes = (maxPooledBytesObj != null) ? ((Number) maxPooledBytesObj).longValue() : DEFAULT_MAX_POOLED_BYTES;
+
+                    bufferPool = new BufferPool(maxPooledBytes, MetricRegistryFactory.getInstance());
+                }
+            }
+        }
+        return bufferPool;
+    }
+
+    public BufferPool(long maxPooledBytes, MetricRegistry metricRegistry) {
+        int classCount = Integer.numberOfTrailingZeros(MAX_CLASS_SIZE) - MIN_CLASS_SHIFT + 1;
+
+        freeLists = new Queue[classCount];
+        freeCounts = new AtomicInteger[classCount];
+        maxFreeCountPerClass = new int[classCount];
+
+        // max. pooled bytes is shared evenly by size classes.
+        long maxPooledBytesPerClass = maxPooledBytes / classCount;
+
+        for (int i = 0; i < classCount; i++) {
+            freeLists[i] = new ConcurrentLinkedQueue<>();
+            freeCounts[i] = new AtomicInteger(0);
+            maxFreeCountPerClass[i] = (int) Math.max(1, maxPooledBytesPerClass / classSize(i));
+        }
+
+        hitMeter = metricRegistry.meter("BufferPool.hit");
+        missMeter = metricRegistry.meter("BufferPool.miss");
+        metricRegistry.register("BufferPool.outstandingBytes", (Gauge<Long>) outstandingBytes::get);
+        metricRegistry.register("BufferPool.pooledBytes", (Gauge<Long>) pooledBytes::get);
+    }
+
+    private static int classSize(int classIndex) {
+        return MIN_CLASS_SIZE << classIndex;
+    }
+
+    private static int classIndex(int size) {
+        if (size <= MIN_CLASS_SIZE) {
+            return 0;
+        }
+
+        // ceil(log2(size)) - log2(MIN_CLASS_SIZE).
+        return (32 - Integer.numberOfLeadingZeros(size - 1)) - MIN_CLASS_SHIFT;
+    }
+
+    /**
+     * borrow a direct buffer whose limit is set to the requested size.
+     *
+     * @param size
+     * @return
+     */
+    public ByteBuffer allocate(int size) {
+        ByteBuffer buffer;
+
+        if (size > MAX_CLASS_SIZE) {
+            missMeter.mark();
+            buffer = ByteBuffer.allocateDirect(size);
+        } else {
+            int classIndex = classIndex(size);
+
+            buffer = freeLists[classIndex].poll();
+            if (buffer != null) {
+                freeCounts[classIndex].decrementAndGet();
+                pooledBytes.addAndGet(-buffer.capacity());
+
+                hitMeter.mark();
+            } else {
+                missMeter.mark();
+                buffer = ByteBuffer.allocateDirect(classSize(classIndex));
+            }
+        }
+
+        outstandingBytes.addAndGet(buffer.capacity());
+
+        buffer.clear();
+        buffer.limit(size);
+
+        return buffer;
+    }
+
+    /**
+     * give the buffer back to the pool, the buffer must not be used after released.
+     *
+     * @param buffer
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+
+        int capacity = buffer.capacity();
+
+        outstandingBytes.addAndGet(-capacity);
+
+        // buffers which are not of the size classes are not pooled.
+        if (!buffer.isDirect() || capacity > MAX_CLASS_SIZE || capacity < MIN_CLASS_SIZE || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+
+        int classIndex = classIndex(capacity);
+
+        if (freeCounts[classIndex].incrementAndGet() <= maxFreeCountPerClass[classIndex]) {
+            pooledBytes.addAndGet(capacity);
+            freeLists[classIndex].offer(buffer);
+        } else {
+            freeCounts[classIndex].decrementAndGet();
+        }
+    }
+
+    public long getOutstandingBytes() {
+        return outstandingBytes.get();
+    }
+
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+}
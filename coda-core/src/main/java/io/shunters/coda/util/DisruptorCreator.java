@@ -1,16 +1,23 @@
 package io.shunters.coda.util;
 
 import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.BusySpinWaitStrategy;
 import com.lmax.disruptor.EventFactory;
 import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.SleepingWaitStrategy;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.YieldingWaitStrategy;
 import com.lmax.disruptor.dsl.Disruptor;
 import com.lmax.disruptor.dsl.ProducerType;
+import io.shunters.coda.config.ConfigHandler;
+import io.shunters.coda.config.YamlConfigHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Created by mykidong on 2016-09-01.
@@ -22,40 +29,93 @@ public class DisruptorCreator {
     public static final String DISRUPTOR_NAME_RESPONSE_PROCESSOR = "ResponseProcessor";
     public static final String DISRUPTOR_NAME_REQUEST_PROCESSOR = "RequestProcessor";
     public static final String DISRUPTOR_NAME_STORE_PROCESSOR = "StoreProcessor";
+    public static final String DISRUPTOR_NAME_FETCH_PROCESSOR = "FetchProcessor";
+
+    /**
+     * stages of which ring size, wait strategy and cpus are configured with disruptor.[stage].* in the configuration.
+     * cpus are used only if disruptor.pinning.enabled is true.
+     */
+    public static final String STAGE_REQUEST = "request";
+    public static final String STAGE_STORE = "store";
+    public static final String STAGE_FETCH = "fetch";
+    public static final String STAGE_RESPONSE = "response";
+
+    public static final int DEFAULT_RING_SIZE = 1024;
+
+    public static final String WAIT_STRATEGY_BLOCKING = "blocking";
+    public static final String WAIT_STRATEGY_SLEEPING = "sleeping";
+    public static final String WAIT_STRATEGY_YIELDING = "yielding";
+    public static final String WAIT_STRATEGY_BUSY_SPIN = "busy-spin";
 
     private static ConcurrentMap<String, Disruptor> disruptorMap;
     private static final Object lock = new Object();
 
-    public static <T> Disruptor singleton(String disruptorName, EventFactory<T> factory, int bufferSize, EventHandler<T>... handlers)
+    /**
+     * disruptor configured with the ring size, wait strategy and cpus of the stage.
+     *
+     * @param disruptorName
+     * @param stage
+     * @param factory
+     * @param producerType MULTI if events are published from more than one thread.
+     * @param handlers
+     * @param <T>
+     * @return
+     */
+    public static <T> Disruptor singleton(String disruptorName, String stage, EventFactory<T> factory, ProducerType producerType, EventHandler<T>... handlers)
     {
-        if(disruptorMap == null) {
-            synchronized(lock) {
-                if(disruptorMap == null) {
-                    disruptorMap = new ConcurrentHashMap<>();
-                    Disruptor disruptor = newInstance(disruptorName, factory, bufferSize, handlers);
-                    disruptorMap.put(disruptorName, disruptor);
-                }
-            }
+        ConfigHandler configHandler = YamlConfigHandler.getConfigHandler();
+
+        Object ringSizeObj = configHandler.get("disruptor." + stage + ".ringSize");
+        int ringSize = (ringSizeObj != null) ? (Integer) ringSizeObj : DEFAULT_RING_SIZE;
+
+        Object waitStrategyObj = configHandler.get("disruptor." + stage + ".waitStrategy");
+        WaitStrategy waitStrategy = waitStrategy((waitStrategyObj != null) ? (String) waitStrategyObj : WAIT_STRATEGY_BLOCKING);
+
+        // threads are pinned to the cpus of the stage only if pinning is enabled.
+        List<Integer> cpus = null;
+        Object pinningEnabledObj = configHandler.get(ConfigHandler.CONFIG_DISRUPTOR_PINNING_ENABLED);
+        if (pinningEnabledObj != null && (Boolean) pinningEnabledObj && StageThreadFactory.isPinningAvailable()) {
+            cpus = (List<Integer>) configHandler.get("disruptor." + stage + ".cpus");
         }
-        else
-        {
-            synchronized(lock) {
-                if (!disruptorMap.containsKey(disruptorName)) {
-                    Disruptor disruptor = newInstance(disruptorName, factory, bufferSize, handlers);
-                    disruptorMap.put(disruptorName, disruptor);
-                }
+
+        synchronized (lock) {
+            if (disruptorMap == null) {
+                disruptorMap = new ConcurrentHashMap<>();
+            }
+
+            if (!disruptorMap.containsKey(disruptorName)) {
+                Disruptor disruptor = newInstance(factory, ringSize, producerType, waitStrategy, new StageThreadFactory(disruptorName, cpus), handlers);
+                disruptorMap.put(disruptorName, disruptor);
+
+                log.info("disruptor [" + disruptorName + "] created with ring size [" + ringSize + "], wait strategy [" + waitStrategy.getClass().getSimpleName() + "], cpus " + cpus);
             }
         }
 
         return disruptorMap.get(disruptorName);
     }
 
-    public static <T> Disruptor newInstance(String disruptorName, EventFactory<T> factory, int bufferSize, EventHandler<T>... handlers) {
+    public static WaitStrategy waitStrategy(String waitStrategy)
+    {
+        switch (waitStrategy) {
+            case WAIT_STRATEGY_BLOCKING:
+                return new BlockingWaitStrategy();
+            case WAIT_STRATEGY_SLEEPING:
+                return new SleepingWaitStrategy();
+            case WAIT_STRATEGY_YIELDING:
+                return new YieldingWaitStrategy();
+            case WAIT_STRATEGY_BUSY_SPIN:
+                return new BusySpinWaitStrategy();
+            default:
+                throw new IllegalArgumentException("Unknown wait strategy [" + waitStrategy + "], it must be one of blocking, sleeping, yielding and busy-spin.");
+        }
+    }
+
+    private static <T> Disruptor newInstance(EventFactory<T> factory, int bufferSize, ProducerType producerType, WaitStrategy waitStrategy, ThreadFactory threadFactory, EventHandler<T>... handlers) {
         Disruptor disruptor = new Disruptor(factory,
                 bufferSize,
-                Executors.newCachedThreadPool(),
-                ProducerType.SINGLE, // Single producer
-                new BlockingWaitStrategy());
+                threadFactory,
+                producerType,
+                waitStrategy);
 
         disruptor.handleEventsWith(handlers);
         disruptor.start();
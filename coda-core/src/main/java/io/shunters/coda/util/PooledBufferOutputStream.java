@@ -0,0 +1,62 @@
+package io.shunters.coda.util;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Output stream which writes to a buffer borrowed from the buffer pool, the buffer is swapped with a larger one when it is full.
+ * <p>
+ * The caller owns the buffer returned by getBuffer() and must release it to the buffer pool.
+ */
+public class PooledBufferOutputStream extends OutputStream {
+
+    private BufferPool bufferPool;
+
+    private ByteBuffer buffer;
+
+    public PooledBufferOutputStream(BufferPool bufferPool, int initialSize) {
+        this.bufferPool = bufferPool;
+        this.buffer = bufferPool.allocate(initialSize);
+        this.buffer.limit(this.buffer.capacity());
+    }
+
+    @Override
+    public void write(int b) {
+        ensureRemaining(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        ensureRemaining(length);
+        buffer.put(bytes, offset, length);
+    }
+
+    private void ensureRemaining(int length) {
+        if (buffer.remaining() >= length) {
+            return;
+        }
+
+        int required = buffer.position() + length;
+        int newSize = Math.max(required, buffer.capacity() * 2);
+
+        ByteBuffer newBuffer = bufferPool.allocate(newSize);
+        newBuffer.limit(newBuffer.capacity());
+
+        buffer.flip();
+        newBuffer.put(buffer);
+
+        bufferPool.release(buffer);
+
+        buffer = newBuffer;
+    }
+
+    /**
+     * buffer in write mode, written bytes are from the position 0 up to the buffer position.
+     *
+     * @return
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+}
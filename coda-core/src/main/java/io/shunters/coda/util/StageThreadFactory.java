@@ -0,0 +1,121 @@
+package io.shunters.coda.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory of the disruptor stage, which names threads after the disruptor,
+ * and optionally pins them to the configured cpus one after another.
+ * <p>
+ * JVM has no api for cpu affinity, so that thread is pinned with taskset using the native thread id
+ * read from /proc/thread-self, which is supported just on linux.
+ * pinning is checked once to be available, and threads are not pinned if not.
+ */
+public class StageThreadFactory implements ThreadFactory {
+
+    private static Logger log = LoggerFactory.getLogger(StageThreadFactory.class);
+
+    private String name;
+
+    private List<Integer> cpus;
+
+    private AtomicInteger threadCount = new AtomicInteger(0);
+
+    private static Boolean pinningAvailable;
+
+    private static final Object lock = new Object();
+
+    /**
+     * @param name
+     * @param cpus cpus to which threads are pinned, null or empty if threads are not pinned.
+     */
+    public StageThreadFactory(String name, List<Integer> cpus) {
+        this.name = name;
+        this.cpus = cpus;
+    }
+
+    /**
+     * check that the os is linux, /proc/thread-self exists and taskset is found in the path,
+     * which is logged just once if pinning is not available.
+     *
+     * @return true if threads can be pinned.
+     */
+    public static boolean isPinningAvailable() {
+        if (pinningAvailable == null) {
+            synchronized (lock) {
+                if (pinningAvailable == null) {
+                    String reason = null;
+                    if (!System.getProperty("os.name", "").toLowerCase().contains("linux")) {
+                        reason = "os [" + System.getProperty("os.name") + "] is not linux";
+                    } else if (!new File("/proc/thread-self").exists()) {
+                        reason = "/proc/thread-self not found";
+                    } else if (!isTasksetFound()) {
+                        reason = "taskset not found in the path";
+                    }
+
+                    if (reason != null) {
+                        log.warn("cpu pinning is enabled but not available, stage threads are not pinned: " + reason);
+                    }
+
+                    pinningAvailable = (reason == null);
+                }
+            }
+        }
+
+        return pinningAvailable;
+    }
+
+    private static boolean isTasksetFound() {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return false;
+        }
+
+        for (String dir : path.split(File.pathSeparator)) {
+            if (new File(dir, "taskset").canExecute()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        int index = threadCount.getAndIncrement();
+
+        Runnable task = runnable;
+        if (cpus != null && !cpus.isEmpty()) {
+            int cpu = cpus.get(index % cpus.size());
+
+            task = () -> {
+                pin(cpu);
+                runnable.run();
+            };
+        }
+
+        Thread thread = new Thread(task, name + "-" + index);
+
+        return thread;
+    }
+
+    private void pin(int cpu) {
+        try {
+            String threadId = new File("/proc/thread-self").getCanonicalFile().getName();
+
+            Process process = new ProcessBuilder("taskset", "-p", "-c", String.valueOf(cpu), threadId).redirectErrorStream(true).start();
+            if (process.waitFor() != 0) {
+                log.warn("failed to pin thread [" + Thread.currentThread().getName() + "] to cpu [" + cpu + "], taskset exit code [" + process.exitValue() + "]");
+            } else {
+                log.info("thread [" + Thread.currentThread().getName() + "] pinned to cpu [" + cpu + "]");
+            }
+        } catch (Exception e) {
+            log.warn("failed to pin thread [" + Thread.currentThread().getName() + "] to cpu [" + cpu + "]: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package io.shunters.coda.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hashed timer wheel, which runs the tasks after their delays on its tick thread.
+ * <p>
+ * task is put to the bucket of the tick at which it expires, so that scheduling and expiring a task cost O(1)
+ * independent of the number of the pending tasks. task whose delay is longer than one round of the wheel
+ * stays in its bucket until the round of its deadline.
+ * tasks are run just on the tick thread, never on the thread which schedules them,
+ * so that they must be short, for instance hand the work over to another thread.
+ * cancelled task is dropped from its timeout at once, and the empty timeout is removed from its bucket at its tick.
+ */
+public class TimerWheel {
+
+    private static Logger log = LoggerFactory.getLogger(TimerWheel.class);
+
+    private long tickMs;
+
+    private Queue<Timeout>[] buckets;
+
+    private volatile long currentTick = 0;
+
+    private long startTime;
+
+    private Thread tickThread;
+
+    /**
+     * @param name      name of the tick thread.
+     * @param tickMs    resolution of the timer.
+     * @param wheelSize number of the buckets.
+     */
+    public TimerWheel(String name, long tickMs, int wheelSize) {
+        this.tickMs = tickMs;
+
+        buckets = new Queue[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new ConcurrentLinkedQueue<>();
+        }
+
+        startTime = System.currentTimeMillis();
+
+        tickThread = new Thread(this::run, name);
+        tickThread.setDaemon(true);
+        tickThread.start();
+    }
+
+    /**
+     * @param task
+     * @param delayMs
+     * @return timeout by which the task can be cancelled.
+     */
+    public Timeout schedule(Runnable task, long delayMs) {
+        long deadline = System.currentTimeMillis() + delayMs;
+
+        Timeout timeout = new Timeout(deadline, task);
+
+        long tick;
+        Queue<Timeout> bucket;
+        do {
+            // task is expired at the first tick whose time is not before its deadline.
+            tick = Math.max(currentTick + 1, (deadline - startTime + tickMs - 1) / tickMs);
+
+            bucket = buckets[(int) (tick % buckets.length)];
+            bucket.add(timeout);
+
+            // bucket may have been swept by the tick thread before the task was added, then the task is moved to the next tick
+            // not to wait one more round, and it is never run on the caller thread.
+        } while (currentTick >= tick && bucket.remove(timeout));
+
+        return timeout;
+    }
+
+    public void stop() {
+        tickThread.interrupt();
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            long nextTickTime = startTime + (currentTick + 1) * tickMs;
+            long sleepMs = nextTickTime - System.currentTimeMillis();
+            if (sleepMs > 0) {
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            currentTick++;
+
+            long now = System.currentTimeMillis();
+
+            Iterator<Timeout> iter = buckets[(int) (currentTick % buckets.length)].iterator();
+            while (iter.hasNext()) {
+                Timeout timeout = iter.next();
+
+                // task of the later round.
+                if (timeout.deadline > now) {
+                    continue;
+                }
+
+                iter.remove();
+                timeout.expire();
+            }
+        }
+    }
+
+    public static class Timeout {
+        private long deadline;
+
+        private volatile Runnable task;
+
+        private AtomicBoolean expired = new AtomicBoolean(false);
+
+        private Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        /**
+         * run the task just once.
+         */
+        private void expire() {
+            if (!expired.compareAndSet(false, true)) {
+                return;
+            }
+
+            Runnable task = this.task;
+            this.task = null;
+
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("failed to run timer task: " + e.getMessage());
+            }
+        }
+
+        /**
+         * cancel the task not run yet, and release it not to keep what the task refers to until the deadline.
+         *
+         * @return true if the task is cancelled before it is run.
+         */
+        public boolean cancel() {
+            if (!expired.compareAndSet(false, true)) {
+                return false;
+            }
+
+            task = null;
+
+            return true;
+        }
+    }
+}
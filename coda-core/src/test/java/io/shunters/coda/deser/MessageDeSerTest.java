@@ -0,0 +1,116 @@
+package io.shunters.coda.deser;
+
+import io.shunters.coda.api.BaseRequestTest;
+import io.shunters.coda.api.ProduceRequestTestSkip;
+import io.shunters.coda.protocol.ApiKeyAvroSchemaMap;
+import io.shunters.coda.protocol.ClientServerSpec;
+import io.shunters.coda.util.BufferPool;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+public class MessageDeSerTest extends BaseRequestTest {
+
+    @Test
+    public void snappyCompressedResponse() {
+        MessageDeSer messageDeSer = MessageDeSer.singleton();
+        long outstandingBytes = BufferPool.singleton().getOutstandingBytes();
+
+        GenericRecord produceRequest = new ProduceRequestTestSkip().buildProduceRequest();
+
+        MessageDeSer.ByteBufferAndSize bufferAndSize = messageDeSer.serializeResponseToByteBuffer(ClientServerSpec.COMPRESSION_CODEC_SNAPPY, produceRequest);
+
+        ByteBuffer buffer = bufferAndSize.getByteBuffer();
+        Assert.assertTrue(buffer.isDirect());
+        Assert.assertEquals(bufferAndSize.getSize(), buffer.remaining());
+
+        int totalSize = buffer.getInt();
+        Assert.assertEquals(buffer.remaining(), totalSize);
+
+        GenericRecord deserialized = messageDeSer.deserializeResponse(ClientServerSpec.AVRO_SCHEMA_NAME_PRODUCE_REQUEST, totalSize, buffer);
+        Assert.assertEquals(produceRequest.toString(), deserialized.toString());
+
+        BufferPool.singleton().release(buffer);
+        Assert.assertEquals(outstandingBytes, BufferPool.singleton().getOutstandingBytes());
+    }
+
+    @Test
+    public void zeroCopyFetchResponse() {
+        MessageDeSer messageDeSer = MessageDeSer.singleton();
+        AvroDeSer avroDeSer = AvroDeSer.getAvroDeSerSingleton();
+
+        // stored records bytes.
+        GenericRecord produceRequest = new ProduceRequestTestSkip().buildProduceRequest();
+        GenericRecord produceRequestMessage = ((Collection<GenericRecord>) produceRequest.get("produceRequestMessageArray")).iterator().next();
+        GenericRecord produceRequestSubMessage = ((Collection<GenericRecord>) produceRequestMessage.get("produceRequestSubMessageArray")).iterator().next();
+        GenericRecord records = (GenericRecord) produceRequestSubMessage.get("records");
+
+        byte[] recordsBytes = avroDeSer.serialize(records);
+
+        // response header.
+        Schema schema = ApiKeyAvroSchemaMap.getApiKeyAvroSchemaMapSingleton().getSchema(ClientServerSpec.API_KEY_ZERO_COPY_FETCH_RESPONSE);
+        Schema messageArraySchema = schema.getField("zeroCopyFetchResponseMessageArray").schema();
+        Schema messageSchema = messageArraySchema.getElementType();
+        Schema subMessageArraySchema = messageSchema.getField("zeroCopyFetchResponseSubMessageArray").schema();
+        Schema subMessageSchema = subMessageArraySchema.getElementType();
+
+        GenericData.Array<Integer> recordsSizeArray = new GenericData.Array<>(2, subMessageSchema.getField("recordsSizeArray").schema());
+        recordsSizeArray.add(recordsBytes.length);
+        recordsSizeArray.add(recordsBytes.length);
+
+        GenericData.Record subMessage = new GenericData.Record(subMessageSchema);
+        subMessage.put("partition", 0);
+        subMessage.put("errorCode", 0);
+        subMessage.put("highwaterMarkOffset", 100L);
+        subMessage.put("recordsSizeArray", recordsSizeArray);
+
+        GenericData.Array<GenericData.Record> subMessageArray = new GenericData.Array<>(1, subMessageArraySchema);
+        subMessageArray.add(subMessage);
+
+        GenericData.Record message = new GenericData.Record(messageSchema);
+        message.put("topicName", "any-topic");
+        message.put("zeroCopyFetchResponseSubMessageArray", subMessageArray);
+
+        GenericData.Array<GenericData.Record> messageArray = new GenericData.Array<>(1, messageArraySchema);
+        messageArray.add(message);
+
+        GenericData.Record responseHeader = new GenericData.Record(schema.getField("responseHeader").schema());
+        responseHeader.put("correlationId", 5);
+
+        GenericRecord header = new GenericData.Record(schema);
+        header.put("responseHeader", responseHeader);
+        header.put("throttleTime", 4);
+        header.put("zeroCopyFetchResponseMessageArray", messageArray);
+
+        ByteBuffer headerBuffer = messageDeSer.serializeZeroCopyResponseHeader(header, recordsBytes.length * 2).getByteBuffer();
+
+        // header followed by records bytes as the broker sends them.
+        ByteBuffer response = ByteBuffer.allocate(headerBuffer.remaining() + recordsBytes.length * 2);
+        response.put(headerBuffer);
+        BufferPool.singleton().release(headerBuffer);
+        response.put(recordsBytes);
+        response.put(recordsBytes);
+        response.rewind();
+
+        int totalSize = response.getInt();
+        Assert.assertEquals(response.remaining(), totalSize);
+
+        GenericRecord fetchResponse = messageDeSer.deserializeZeroCopyFetchResponse(totalSize, response);
+        Assert.assertFalse(response.hasRemaining());
+
+        GenericRecord fetchResponseMessage = ((Collection<GenericRecord>) fetchResponse.get("fetchResponseMessageArray")).iterator().next();
+        GenericRecord fetchResponseSubMessage = ((Collection<GenericRecord>) fetchResponseMessage.get("fetchResponseSubMessageArray")).iterator().next();
+        Collection<GenericRecord> recordsArray = (Collection<GenericRecord>) fetchResponseSubMessage.get("recordsArray");
+
+        Assert.assertEquals(100L, fetchResponseSubMessage.get("highwaterMarkOffset"));
+        Assert.assertEquals(2, recordsArray.size());
+        for (GenericRecord fetchedRecords : recordsArray) {
+            Assert.assertEquals(((Collection) records.get("records")).size(), ((Collection) fetchedRecords.get("records")).size());
+        }
+    }
+}
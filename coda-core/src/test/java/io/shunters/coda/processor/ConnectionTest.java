@@ -0,0 +1,115 @@
+package io.shunters.coda.processor;
+
+import com.codahale.metrics.MetricRegistry;
+import io.shunters.coda.store.LogHandler;
+import io.shunters.coda.util.BufferPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+
+public class ConnectionTest {
+
+    @Test
+    public void partialGatheringWrites() throws Exception {
+        BufferPool bufferPool = new BufferPool(1024 * 1024, new MetricRegistry());
+        Connection connection = new Connection(null, 1024, bufferPool);
+
+        connection.addSend(new ByteBufferSend(ByteBuffer.wrap(new byte[]{1, 2, 3}), ByteBuffer.wrap(new byte[]{4})));
+        connection.addSend(new ByteBufferSend(ByteBuffer.wrap(new byte[]{5, 6})));
+        connection.addSend(new ByteBufferSend(ByteBuffer.wrap(new byte[]{7, 8, 9})));
+        Assert.assertEquals(9, connection.getQueuedBytes());
+
+        // socket send buffer accepts 4 bytes until it is drained.
+        LimitedChannel channel = new LimitedChannel(4);
+
+        Assert.assertEquals(1, connection.writeTo(channel));
+        Assert.assertTrue(connection.hasPendingSends());
+        Assert.assertEquals(5, connection.getQueuedBytes());
+
+        channel.limit = 100;
+        Assert.assertEquals(2, connection.writeTo(channel));
+        Assert.assertFalse(connection.hasPendingSends());
+        Assert.assertEquals(0, connection.getQueuedBytes());
+
+        Assert.assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9}, channel.out.toByteArray());
+
+        connection.close();
+        Assert.assertEquals(0, bufferPool.getOutstandingBytes());
+    }
+
+    @Test
+    public void fileRegionBeyondEndOfFile() throws Exception {
+        File file = File.createTempFile("coda-file-region", ".log");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(new byte[]{1, 2, 3, 4});
+
+            LogHandler.FetchRegion fetchRegion = new LogHandler.FetchRegion(0, 0, 0, raf.getChannel(), new ArrayList<>());
+
+            FileRegionSend send = new FileRegionSend(fetchRegion, 2, 2);
+            Assert.assertEquals(2, send.writeTo(new LimitedChannel(100)));
+            Assert.assertTrue(send.completed());
+
+            // region of the truncated file transfers nothing, and fails instead of being retried forever.
+            FileRegionSend truncated = new FileRegionSend(fetchRegion, 4, 2);
+            try {
+                truncated.writeTo(new LimitedChannel(100));
+                Assert.fail();
+            } catch (IOException e) {
+                Assert.assertFalse(truncated.completed());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static class LimitedChannel implements GatheringByteChannel {
+        private int limit;
+        private ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        public LimitedChannel(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            long written = 0;
+            for (int i = offset; i < offset + length; i++) {
+                written += write(srcs[i]);
+            }
+
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) throws IOException {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int length = Math.min(limit, src.remaining());
+            for (int i = 0; i < length; i++) {
+                out.write(src.get());
+            }
+            limit -= length;
+
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package io.shunters.coda.processor;
+
+import com.codahale.metrics.MetricRegistry;
+import io.shunters.coda.offset.TopicPartition;
+import io.shunters.coda.protocol.ClientServerSpec;
+import io.shunters.coda.util.BufferPool;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class FetchProcessorTest {
+
+    private TopicPartition topicPartition = new TopicPartition("fetch-processor-test", 0);
+
+    private StubLogHandler logHandler = new StubLogHandler();
+
+    private List<String> responses = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void respondInOrderBehindParkedZeroCopyFetch() throws Exception {
+        BlockingQueue<DelayedFetch> published = new LinkedBlockingQueue<>();
+        FetchPurgatory fetchPurgatory = new FetchPurgatory(logHandler, published::add);
+
+        FetchProcessor fetchProcessor = new FetchProcessor(0,
+                new StubFetchRequestHandler("fetch"),
+                new StubFetchRequestHandler("zero-copy-fetch"),
+                (connection, requestRecord) -> responses.add("list-offsets"),
+                fetchPurgatory);
+
+        Connection connection = new Connection(null, 1024, new BufferPool(1024 * 1024, new MetricRegistry()));
+
+        // zero-copy fetch waits for the records, and the list offsets request pipelined behind it is queued.
+        fetchProcessor.onRequest(connection, ClientServerSpec.API_KEY_ZERO_COPY_FETCH_REQUEST, null);
+        fetchProcessor.onRequest(connection, ClientServerSpec.API_KEY_LIST_OFFSETS_REQUEST, null);
+        Assert.assertTrue(responses.isEmpty());
+
+        // records appended complete the zero-copy fetch, which is sent back to the shard.
+        fetchPurgatory.onAppend(topicPartition, 100);
+        fetchProcessor.onCompleted(published.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList("zero-copy-fetch", "list-offsets"), responses);
+
+        // connection waits for nothing any more.
+        fetchProcessor.onRequest(connection, ClientServerSpec.API_KEY_LIST_OFFSETS_REQUEST, null);
+        Assert.assertEquals(Arrays.asList("zero-copy-fetch", "list-offsets", "list-offsets"), responses);
+    }
+
+    /**
+     * fetch handler whose fetches wait for 100 bytes of the partition, and which records the responses.
+     */
+    private class StubFetchRequestHandler extends FetchRequestHandler {
+        private String name;
+
+        private StubFetchRequestHandler(String name) {
+            super(FetchProcessorTest.this.logHandler);
+            this.name = name;
+        }
+
+        @Override
+        public DelayedFetch handleOrDelay(Connection connection, GenericRecord requestRecord) {
+            DelayedFetch delayedFetch = new DelayedFetch(this, connection, requestRecord, 100, 60000);
+            delayedFetch.watch(topicPartition, logHandler.getOffsetSequencer(topicPartition).getHighwaterMark());
+
+            return delayedFetch;
+        }
+
+        @Override
+        protected void respond(Connection connection, GenericRecord requestRecord) {
+            responses.add(name);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package io.shunters.coda.processor;
+
+import io.shunters.coda.offset.TopicPartition;
+import io.shunters.coda.store.OffsetSequencer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FetchPurgatoryTest {
+
+    private TopicPartition topicPartition = new TopicPartition("fetch-purgatory-test", 0);
+
+    private StubLogHandler logHandler = new StubLogHandler();
+
+    private BlockingQueue<DelayedFetch> published = new LinkedBlockingQueue<>();
+
+    @Test
+    public void completeOnMinBytes() throws Exception {
+        FetchPurgatory fetchPurgatory = new FetchPurgatory(logHandler, published::add);
+
+        DelayedFetch delayedFetch = delayedFetch(100, 60000);
+        Assert.assertTrue(fetchPurgatory.park(delayedFetch));
+        Assert.assertNotNull(fetchPurgatory.getWatchers(topicPartition));
+
+        fetchPurgatory.onAppend(topicPartition, 50);
+        Assert.assertTrue(published.isEmpty());
+
+        fetchPurgatory.onAppend(topicPartition, 50);
+        Assert.assertSame(delayedFetch, published.poll());
+
+        // completed fetch is published just once, and the partition without watchers is removed.
+        fetchPurgatory.onAppend(topicPartition, 50);
+        Assert.assertTrue(published.isEmpty());
+        Assert.assertNull(fetchPurgatory.getWatchers(topicPartition));
+    }
+
+    @Test
+    public void completeOnMaxWait() throws Exception {
+        FetchPurgatory fetchPurgatory = new FetchPurgatory(logHandler, published::add);
+
+        long startTime = System.currentTimeMillis();
+        DelayedFetch delayedFetch = delayedFetch(100, 50);
+        Assert.assertTrue(fetchPurgatory.park(delayedFetch));
+
+        Assert.assertSame(delayedFetch, published.poll(5, TimeUnit.SECONDS));
+        Assert.assertTrue(System.currentTimeMillis() - startTime >= 50);
+        Assert.assertNull(fetchPurgatory.getWatchers(topicPartition));
+
+        // records appended after the expiration do not complete the fetch again.
+        fetchPurgatory.onAppend(topicPartition, 100);
+        Assert.assertTrue(published.isEmpty());
+    }
+
+    @Test
+    public void completeOnHighwaterMarkMovedBeforePark() throws Exception {
+        FetchPurgatory fetchPurgatory = new FetchPurgatory(logHandler, published::add);
+
+        DelayedFetch delayedFetch = delayedFetch(100, 50);
+
+        // records are committed after the available bytes were counted.
+        OffsetSequencer offsetSequencer = logHandler.getOffsetSequencer(topicPartition);
+        offsetSequencer.publish(10);
+        offsetSequencer.commit(10);
+
+        // completed fetch is responded by the caller, and neither published nor expired.
+        Assert.assertFalse(fetchPurgatory.park(delayedFetch));
+        Assert.assertNull(fetchPurgatory.getWatchers(topicPartition));
+        Assert.assertNull(published.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void publishAgainIfRingFull() throws Exception {
+        AtomicInteger attempts = new AtomicInteger(0);
+
+        // ring of the shard is full for the first two attempts.
+        FetchPurgatory fetchPurgatory = new FetchPurgatory(logHandler, delayedFetch -> attempts.incrementAndGet() > 2 && published.add(delayedFetch));
+
+        DelayedFetch delayedFetch = delayedFetch(100, 60000);
+        Assert.assertTrue(fetchPurgatory.park(delayedFetch));
+
+        fetchPurgatory.onAppend(topicPartition, 100);
+        Assert.assertSame(delayedFetch, published.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, attempts.get());
+    }
+
+    private DelayedFetch delayedFetch(int minBytes, long maxWaitMs) {
+        DelayedFetch delayedFetch = new DelayedFetch(null, null, null, minBytes, maxWaitMs);
+        delayedFetch.watch(topicPartition, logHandler.getOffsetSequencer(topicPartition).getHighwaterMark());
+
+        return delayedFetch;
+    }
+}
@@ -0,0 +1,110 @@
+package io.shunters.coda.processor;
+
+import com.codahale.metrics.MetricRegistry;
+import io.shunters.coda.util.BufferPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RequestReaderTest {
+
+    @Test
+    public void partialAndPipelinedFrames() throws Exception {
+        ByteBuffer stream = ByteBuffer.allocate(1024);
+        stream.putInt(3).put(new byte[]{1, 2, 3});
+        stream.putInt(40000);
+        for (int i = 0; i < 40000; i++) {
+            stream = ensure(stream, 1).put((byte) i);
+        }
+        stream = ensure(stream, 6).putInt(2).put(new byte[]{7, 8});
+        stream.flip();
+
+        // channel which returns at most 5 bytes per read.
+        ChunkedChannel channel = new ChunkedChannel(stream, 5);
+
+        BufferPool bufferPool = new BufferPool(1024 * 1024, new MetricRegistry());
+        RequestReader requestReader = new RequestReader(1024 * 1024, bufferPool);
+
+        List<byte[]> frames = new ArrayList<>();
+        while (channel.hasRemaining()) {
+            requestReader.read(channel, frame -> {
+                byte[] bytes = new byte[frame.remaining()];
+                frame.get(bytes);
+                frames.add(bytes);
+            });
+        }
+
+        Assert.assertEquals(3, frames.size());
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, frames.get(0));
+        Assert.assertEquals(40000, frames.get(1).length);
+        Assert.assertEquals((byte) 39999, frames.get(1)[39999]);
+        Assert.assertArrayEquals(new byte[]{7, 8}, frames.get(2));
+
+        Assert.assertEquals(-1, requestReader.read(channel, frame -> Assert.fail()));
+
+        requestReader.close();
+        Assert.assertEquals(0, bufferPool.getOutstandingBytes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void tooLargeFrame() throws Exception {
+        ByteBuffer stream = ByteBuffer.allocate(4).putInt(2048);
+        stream.flip();
+
+        new RequestReader(1024, new BufferPool(1024 * 1024, new MetricRegistry())).read(new ChunkedChannel(stream, 4), frame -> Assert.fail());
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buffer, int size) {
+        if (buffer.remaining() >= size) {
+            return buffer;
+        }
+
+        ByteBuffer newBuffer = ByteBuffer.allocate(buffer.capacity() * 2 + size);
+        buffer.flip();
+        newBuffer.put(buffer);
+
+        return newBuffer;
+    }
+
+    private static class ChunkedChannel implements ReadableByteChannel {
+        private ByteBuffer stream;
+        private int chunkSize;
+
+        public ChunkedChannel(ByteBuffer stream, int chunkSize) {
+            this.stream = stream;
+            this.chunkSize = chunkSize;
+        }
+
+        public boolean hasRemaining() {
+            return stream.hasRemaining();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!stream.hasRemaining()) {
+                return -1;
+            }
+
+            int length = Math.min(chunkSize, Math.min(dst.remaining(), stream.remaining()));
+            for (int i = 0; i < length; i++) {
+                dst.put(stream.get());
+            }
+
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package io.shunters.coda.processor;
+
+import io.shunters.coda.offset.TopicPartition;
+import io.shunters.coda.store.LogHandler;
+import io.shunters.coda.store.OffsetSequencer;
+import io.shunters.coda.store.PartitionLog;
+import org.apache.avro.generic.GenericRecord;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * log handler which has just the offset sequencers of the partitions, for the tests of the fetch purgatory and the fetch processor.
+ */
+public class StubLogHandler implements LogHandler {
+    private ConcurrentMap<TopicPartition, OffsetSequencer> offsetSequencerMap = new ConcurrentHashMap<>();
+
+    @Override
+    public OffsetSequencer getOffsetSequencer(TopicPartition topicPartition) {
+        return offsetSequencerMap.computeIfAbsent(topicPartition, key -> new OffsetSequencer(1));
+    }
+
+    @Override
+    public void addAppendListener(AppendListener appendListener) {
+    }
+
+    @Override
+    public ConcurrentMap<TopicPartition, List<PartitionLog>> getPartitionLogMap() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<String> getDataDirs() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getDataDirIndex(TopicPartition topicPartition) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int add(TopicPartition topicPartition, long firstOffset, GenericRecord records, int recordSize) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int add(TopicPartition topicPartition, List<Append> appends) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int append(TopicPartition topicPartition, List<Append> appends) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int flush(TopicPartition topicPartition) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FetchRecord fetch(TopicPartition topicPartition, long fetchOffset, int maxBytes) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ListOffset listOffset(TopicPartition topicPartition, long timestamp) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FetchRegion fetchRegion(TopicPartition topicPartition, long fetchOffset, int maxBytes) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,48 @@
+package io.shunters.coda.store;
+
+import io.shunters.coda.offset.TopicPartition;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class DataDirPlacementTest {
+
+    private File dir;
+
+    @Before
+    public void createDir() throws Exception {
+        dir = Files.createTempDirectory("coda-placement").toFile();
+    }
+
+    @After
+    public void deleteDir() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void balancePartitions() throws Exception {
+        // data directories on the same disk have the same usable space.
+        String dataDir1 = new File(dir, "data1").getAbsolutePath();
+        String dataDir2 = new File(dir, "data2").getAbsolutePath();
+
+        DataDirPlacement dataDirPlacement = new DataDirPlacement(Arrays.asList(dataDir1, dataDir2));
+        Assert.assertTrue(new File(dataDir2).isDirectory());
+
+        dataDirPlacement.place(new TopicPartition("loaded-topic", 0), dataDir1);
+        dataDirPlacement.place(new TopicPartition("loaded-topic", 1), dataDir1);
+
+        // new partitions go to the directory with less partitions.
+        Assert.assertEquals(dataDir2, dataDirPlacement.getDataDir(new TopicPartition("new-topic", 0)));
+        Assert.assertEquals(dataDir2, dataDirPlacement.getDataDir(new TopicPartition("new-topic", 1)));
+
+        // partition stays in its directory.
+        Assert.assertEquals(1, dataDirPlacement.getDataDirIndex(new TopicPartition("new-topic", 0)));
+        Assert.assertEquals(0, dataDirPlacement.getDataDirIndex(new TopicPartition("loaded-topic", 1)));
+    }
+}
@@ -0,0 +1,66 @@
+package io.shunters.coda.store;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class FlushPolicyTest {
+
+    @Test
+    public void shouldFlush() throws Exception {
+        FlushPolicy flushPolicy = new FlushPolicy(100, 1000);
+
+        // nothing to flush.
+        Assert.assertFalse(flushPolicy.shouldFlush(0, 0, 5000));
+
+        // number of messages reached.
+        Assert.assertFalse(flushPolicy.shouldFlush(99, 1000, 1500));
+        Assert.assertTrue(flushPolicy.shouldFlush(100, 1000, 1500));
+
+        // interval elapsed.
+        Assert.assertFalse(flushPolicy.shouldFlush(1, 1000, 1999));
+        Assert.assertTrue(flushPolicy.shouldFlush(1, 1000, 2000));
+    }
+
+    @Test
+    public void zeroDisablesCondition() throws Exception {
+        Assert.assertFalse(new FlushPolicy(0, 1000).shouldFlush(1000000, 1000, 1500));
+        Assert.assertTrue(new FlushPolicy(0, 1000).shouldFlush(1, 1000, 2000));
+
+        Assert.assertFalse(new FlushPolicy(100, 0).shouldFlush(99, 0, Long.MAX_VALUE));
+        Assert.assertTrue(new FlushPolicy(100, 0).shouldFlush(100, 0, 0));
+
+        // partition log is flushed only before acks.
+        Assert.assertFalse(new FlushPolicy(0, 0).shouldFlush(1000000, 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void overrideForTopic() throws Exception {
+        FlushPolicy broker = new FlushPolicy(100, 1000);
+
+        // topic without config uses the broker flush policy.
+        Assert.assertSame(broker, broker.override(null));
+
+        // condition not set for the topic is taken from the broker.
+        Map<String, Object> topicConfig = new HashMap<>();
+        topicConfig.put(FlushPolicy.TOPIC_CONFIG_MESSAGES, 1);
+
+        FlushPolicy topicPolicy = broker.override(topicConfig);
+        Assert.assertEquals(1, topicPolicy.getMessages());
+        Assert.assertEquals(1000, topicPolicy.getIntervalMs());
+        Assert.assertTrue(topicPolicy.shouldFlush(1, 1000, 1500));
+        Assert.assertFalse(broker.shouldFlush(1, 1000, 1500));
+
+        // topic disables the interval of the broker.
+        topicConfig.put(FlushPolicy.TOPIC_CONFIG_MESSAGES, 1000);
+        topicConfig.put(FlushPolicy.TOPIC_CONFIG_INTERVAL_MS, 0);
+
+        topicPolicy = broker.override(topicConfig);
+        Assert.assertEquals(1000, topicPolicy.getMessages());
+        Assert.assertEquals(0, topicPolicy.getIntervalMs());
+        Assert.assertFalse(topicPolicy.shouldFlush(1, 0, 5000));
+        Assert.assertTrue(broker.shouldFlush(1, 0, 5000));
+    }
+}
@@ -0,0 +1,108 @@
+package io.shunters.coda.store;
+
+import io.shunters.coda.api.BaseRequestTest;
+import io.shunters.coda.api.ProduceRequestTestSkip;
+import io.shunters.coda.offset.TopicPartition;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class LogCompactorTest extends BaseRequestTest {
+
+    private File dir;
+
+    @Before
+    public void createDir() throws Exception {
+        dir = Files.createTempDirectory("coda-compaction").toFile();
+    }
+
+    @After
+    public void deleteDir() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void compactSegments() throws Exception {
+        GenericRecord produceRequest = new ProduceRequestTestSkip().buildProduceRequest();
+        GenericRecord produceRequestMessage = ((Collection<GenericRecord>) produceRequest.get("produceRequestMessageArray")).iterator().next();
+        GenericRecord produceRequestSubMessage = ((Collection<GenericRecord>) produceRequestMessage.get("produceRequestSubMessageArray")).iterator().next();
+        GenericRecord records = (GenericRecord) produceRequestSubMessage.get("records");
+        int recordSize = ((Collection) records.get("records")).size();
+
+        long now = System.currentTimeMillis();
+
+        // every segment has the records of the same keys.
+        List<PartitionLog> partitionLogs = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            long baseOffset = 1 + i * recordSize;
+
+            // the first record of the last sealed segment is the tombstone of the key.
+            if (i == 2) {
+                ((Collection<GenericRecord>) records.get("records")).iterator().next().put("value", ByteBuffer.allocate(0));
+            }
+
+            PartitionLog partitionLog = new PartitionLog(new File(dir, baseOffset + ".log"), baseOffset, new OffsetIndex(new File(dir, baseOffset + ".index"), baseOffset));
+            partitionLog.add(baseOffset, records, recordSize);
+
+            // the last segment is the active one.
+            if (i < 3) {
+                partitionLog.seal();
+                new File(partitionLog.getFilePath()).setLastModified(now - LogCompactor.DEFAULT_DELETE_RETENTION_MS - 1000);
+            }
+
+            partitionLogs.add(partitionLog);
+        }
+
+        TopicPartition topicPartition = new TopicPartition("compaction-topic", 0);
+        ConcurrentMap<TopicPartition, List<PartitionLog>> partitionLogMap = new ConcurrentHashMap<>();
+        partitionLogMap.put(topicPartition, partitionLogs);
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            LogCompactor logCompactor = new LogCompactor(partitionLogMap, executor, 0, LogCompactor.DEFAULT_DELETE_RETENTION_MS,
+                    1024 * 1024, OffsetIndex.DEFAULT_MAX_INDEX_SIZE, PartitionLog.DEFAULT_INDEX_INTERVAL_BYTES);
+
+            Assert.assertEquals(3, logCompactor.clean(topicPartition, partitionLogs, now));
+            Assert.assertEquals(4, partitionLogs.size());
+
+            // records of the first two segments are shadowed by the last sealed segment.
+            Assert.assertEquals(0, partitionLogs.get(0).getSize());
+            Assert.assertEquals(0, partitionLogs.get(1).getSize());
+
+            // expired tombstone is removed, and the batch keeps the span of the offsets.
+            PartitionLog cleanedLog = partitionLogs.get(2);
+            Assert.assertEquals(3 * recordSize, cleanedLog.getLastOffset());
+
+            LogHandler.FetchRecord fetchRecord = cleanedLog.fetch(1 + 2 * recordSize, Integer.MAX_VALUE);
+            Assert.assertEquals(1, fetchRecord.getRecordsList().size());
+            Assert.assertEquals(recordSize - 1, ((Collection) fetchRecord.getRecordsList().get(0).get("records")).size());
+
+            // nothing is dirty any more.
+            Assert.assertEquals(0, logCompactor.clean(topicPartition, partitionLogs, now));
+
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+
+            // only the files of the cleaned segments and the active one are left.
+            Assert.assertTrue(new File(dir, "1.log").exists());
+            Assert.assertEquals(4 * 3, dir.listFiles().length);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
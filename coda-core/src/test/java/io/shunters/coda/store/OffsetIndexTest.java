@@ -0,0 +1,99 @@
+package io.shunters.coda.store;
+
+import io.shunters.coda.protocol.ClientServerSpec;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+public class OffsetIndexTest {
+
+    private File dir;
+
+    @Before
+    public void createDir() throws Exception {
+        dir = Files.createTempDirectory("coda-offset-index").toFile();
+    }
+
+    @After
+    public void deleteDir() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void preallocateAndTrim() throws Exception {
+        File file = new File(dir, "500.index");
+
+        int maxIndexSize = 1024;
+        OffsetIndex offsetIndex = new OffsetIndex(file, 500, maxIndexSize);
+
+        Assert.assertEquals(ClientServerSpec.ERROR_CODE_NONE, offsetIndex.add(500, 0, 100, 10));
+        Assert.assertEquals(ClientServerSpec.ERROR_CODE_NONE, offsetIndex.add(510, 100, 100, 10));
+        Assert.assertEquals(ClientServerSpec.ERROR_CODE_NONE, offsetIndex.add(520, 200, 100, 10));
+        Assert.assertEquals(ClientServerSpec.ERROR_CODE_NONE, offsetIndex.add(530, 300, 100, 10));
+
+        // out of order entry is rejected, instead of being inserted.
+        Assert.assertEquals(ClientServerSpec.ERROR_CODE_STORAGE_ERROR, offsetIndex.add(525, 250, 100, 10));
+        Assert.assertEquals(ClientServerSpec.ERROR_CODE_STORAGE_ERROR, offsetIndex.add(539, 400, 100, 10));
+
+        Assert.assertEquals(maxIndexSize, file.length());
+        Assert.assertEquals(539, offsetIndex.getLastOffset());
+        Assert.assertEquals(4, offsetIndex.getOffsetPositions().size());
+
+        OffsetIndex.OffsetPosition offsetPosition = offsetIndex.getFirstOffsetPosition(525);
+        Assert.assertEquals(520, offsetPosition.getOffset());
+        Assert.assertEquals(200, offsetPosition.getPosition());
+
+        // valid entries are recovered from the preallocated index file.
+        offsetIndex.flush();
+        OffsetIndex reopened = new OffsetIndex(file, 500, maxIndexSize);
+        Assert.assertEquals(539, reopened.getLastOffset());
+        Assert.assertEquals(530, reopened.getFirstOffsetPosition(535).getOffset());
+
+        offsetIndex.trimToSize();
+        Assert.assertEquals(4 * 16, file.length());
+        Assert.assertEquals(510, offsetIndex.getFirstOffsetPosition(515).getOffset());
+
+        Assert.assertFalse(offsetIndex.isFull(60));
+        Assert.assertTrue(offsetIndex.isFull(61));
+
+        reopened.close();
+        offsetIndex.close();
+    }
+
+    @Test
+    public void unmapOnClose() throws Exception {
+        File file = new File(dir, "500.index");
+
+        OffsetIndex offsetIndex = new OffsetIndex(file, 500, 1024);
+        Assert.assertEquals(ClientServerSpec.ERROR_CODE_NONE, offsetIndex.add(500, 0, 100, 10));
+        offsetIndex.flush();
+
+        offsetIndex.close();
+
+        // mapping is gone with the close, instead of being kept until it is garbage collected.
+        File maps = new File("/proc/self/maps");
+        if (maps.exists()) {
+            Assert.assertFalse(new String(Files.readAllBytes(maps.toPath())).contains(file.getAbsolutePath()));
+        }
+
+        // closed index is not accessed through the unmapped buffer.
+        try {
+            offsetIndex.getFirstOffsetPosition(500);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+        }
+
+        // closing again is harmless, and the entries are read from the file.
+        offsetIndex.close();
+
+        OffsetIndex reopened = new OffsetIndex(file, 500, 1024);
+        Assert.assertEquals(509, reopened.getLastOffset());
+        reopened.delete();
+        Assert.assertFalse(file.exists());
+    }
+}
@@ -45,10 +45,9 @@ public class OffsetIndexTestSkip {
         Assert.assertTrue(offsetPositionForFirstOffset.getOffset() == 560);
         Assert.assertTrue(offsetPositionForFirstOffset.getPosition() == 200);
 
-        offsetIndex.add(565, 250, 30, 50);
         OffsetIndex.OffsetPosition offsetPositionForArbitaryOffset = offsetIndex.getFirstOffsetPosition(568);
-        Assert.assertTrue(offsetPositionForArbitaryOffset.getOffset() == 565);
-        Assert.assertTrue(offsetPositionForArbitaryOffset.getPosition() == 250);
+        Assert.assertTrue(offsetPositionForArbitaryOffset.getOffset() == 560);
+        Assert.assertTrue(offsetPositionForArbitaryOffset.getPosition() == 200);
 
         offsetIndex.printEntries();
     }
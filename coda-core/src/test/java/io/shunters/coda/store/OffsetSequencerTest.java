@@ -0,0 +1,52 @@
+package io.shunters.coda.store;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class OffsetSequencerTest {
+
+    @Test
+    public void reserveConcurrently() throws Exception {
+        OffsetSequencer offsetSequencer = new OffsetSequencer(1);
+
+        int threads = 8;
+        int reservations = 10000;
+
+        Set<Long> firstOffsets = ConcurrentHashMap.newKeySet();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.submit(() -> {
+                for (int j = 0; j < reservations; j++) {
+                    firstOffsets.add(offsetSequencer.reserve(10));
+                }
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        // every range is reserved just once.
+        Assert.assertEquals(threads * reservations, firstOffsets.size());
+        Assert.assertEquals(1 + threads * reservations * 10L, offsetSequencer.getNextOffset());
+
+        // log end offset moves when the records are written, and high-water mark when they are committed.
+        Assert.assertEquals(0, offsetSequencer.getHighwaterMark());
+        offsetSequencer.publish(100);
+        offsetSequencer.publish(50);
+        Assert.assertEquals(100, offsetSequencer.getLogEndOffset());
+        Assert.assertEquals(0, offsetSequencer.getHighwaterMark());
+
+        // high-water mark does not pass the log end offset.
+        offsetSequencer.commit(150);
+        Assert.assertEquals(100, offsetSequencer.getHighwaterMark());
+
+        offsetSequencer.advanceTo(10);
+        Assert.assertEquals(1 + threads * reservations * 10L, offsetSequencer.getNextOffset());
+    }
+}
@@ -0,0 +1,69 @@
+package io.shunters.coda.store;
+
+import io.shunters.coda.api.BaseRequestTest;
+import io.shunters.coda.api.ProduceRequestTestSkip;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * lookup latency of the partition log against the offset index interval bytes.
+ */
+public class PartitionLogLookupBenchmarkTestSkip extends BaseRequestTest {
+
+    private static Logger log = LoggerFactory.getLogger(PartitionLogLookupBenchmarkTestSkip.class);
+
+    private static final int BATCHES = 100000;
+
+    private static final int WARMUP_LOOKUPS = 50000;
+
+    private static final int LOOKUPS = 200000;
+
+    @Test
+    public void lookupLatency() throws Exception {
+        GenericRecord produceRequest = new ProduceRequestTestSkip().buildProduceRequest();
+        GenericRecord produceRequestMessage = ((Collection<GenericRecord>) produceRequest.get("produceRequestMessageArray")).iterator().next();
+        GenericRecord produceRequestSubMessage = ((Collection<GenericRecord>) produceRequestMessage.get("produceRequestSubMessageArray")).iterator().next();
+        GenericRecord records = (GenericRecord) produceRequestSubMessage.get("records");
+        int recordSize = ((Collection) records.get("records")).size();
+
+        for (int indexIntervalBytes : new int[]{0, 1024, 4096, 16384, 65536}) {
+            File dir = Files.createTempDirectory("coda-lookup-benchmark").toFile();
+            try {
+                OffsetIndex offsetIndex = new OffsetIndex(new File(dir, "1.index"), 1, 64 * 1024 * 1024);
+                PartitionLog partitionLog = new PartitionLog(new File(dir, "1.log"), 1, offsetIndex, indexIntervalBytes);
+
+                for (int i = 0; i < BATCHES; i++) {
+                    partitionLog.add(1 + (long) i * recordSize, records, recordSize);
+                }
+
+                offsetIndex.trimToSize();
+
+                long lastOffset = partitionLog.getLastOffset();
+                Random random = new Random(1);
+
+                for (int i = 0; i < WARMUP_LOOKUPS; i++) {
+                    partitionLog.fetchRegion(1 + (long) (random.nextDouble() * lastOffset), 1);
+                }
+
+                long start = System.nanoTime();
+                for (int i = 0; i < LOOKUPS; i++) {
+                    partitionLog.fetchRegion(1 + (long) (random.nextDouble() * lastOffset), 1);
+                }
+                long elapsed = System.nanoTime() - start;
+
+                log.info("index interval bytes [" + indexIntervalBytes + "], index size [" + new File(dir, "1.index").length()
+                        + "], lookup latency [" + (elapsed / LOOKUPS) + "] ns");
+            } finally {
+                FileUtils.deleteDirectory(dir);
+            }
+        }
+    }
+}
@@ -0,0 +1,553 @@
+package io.shunters.coda.store;
+
+import io.shunters.coda.api.BaseRequestTest;
+import io.shunters.coda.api.ProduceRequestTestSkip;
+import io.shunters.coda.offset.TopicPartition;
+import io.shunters.coda.protocol.ClientServerSpec;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class PartitionLogTest extends BaseRequestTest {
+
+    private File dir;
+
+    @Before
+    public void createDir() throws Exception {
+        dir = Files.createTempDirectory("coda-partition-log").toFile();
+    }
+
+    @After
+    public void deleteDir() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void groupAdd() throws Exception {
+        GenericRecord records = buildRecords();
+        int recordSize = ((Collection) records.get("records")).size();
+
+        OffsetIndex offsetIndex = new OffsetIndex(new File(dir, "1.index"), 1);
+        PartitionLog partitionLog = new PartitionLog(new File(dir, "1.log"), 1, offsetIndex);
+
+        List<LogHandler.Append> appends = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            appends.add(new LogHandler.Append(1 + i * recordSize, records, recordSize));
+        }
+
+        Assert.assertEquals(0, partitionLog.add(appends));
+        Assert.assertEquals(3 * recordSize, partitionLog.getLastOffset());
+
+        LogHandler.FetchRegion fetchRegion = partitionLog.fetchRegion(1 + recordSize, Integer.MAX_VALUE);
+        Assert.assertEquals(2, fetchRegion.getOffsetPositions().size());
+
+        OffsetIndex.OffsetPosition second = fetchRegion.getOffsetPositions().get(0);
+        Assert.assertEquals(1 + recordSize, second.getOffset());
+        Assert.assertEquals(second.getDataSize() + 2 * PartitionLog.BATCH_HEADER_SIZE, second.getPosition());
+
+        LogHandler.FetchRecord fetchRecord = partitionLog.fetch(1, Integer.MAX_VALUE);
+        Assert.assertEquals(3, fetchRecord.getRecordsList().size());
+    }
+
+    @Test
+    public void sparseIndex() throws Exception {
+        GenericRecord records = buildRecords();
+        int recordSize = ((Collection) records.get("records")).size();
+
+        // just the first batch is indexed.
+        OffsetIndex offsetIndex = new OffsetIndex(new File(dir, "1.index"), 1);
+        PartitionLog partitionLog = new PartitionLog(new File(dir, "1.log"), 1, offsetIndex, Integer.MAX_VALUE);
+
+        for (int i = 0; i < 5; i++) {
+            partitionLog.add(1 + i * recordSize, records, recordSize);
+        }
+
+        Assert.assertEquals(0, offsetIndex.getFirstOffsetPosition(Long.MAX_VALUE).getPosition());
+        Assert.assertEquals(1, offsetIndex.getLastOffset() - recordSize + 1);
+
+        // batches are scanned forward from the first entry.
+        LogHandler.FetchRegion fetchRegion = partitionLog.fetchRegion(1 + 3 * recordSize + 1, Integer.MAX_VALUE);
+        Assert.assertEquals(2, fetchRegion.getOffsetPositions().size());
+        Assert.assertEquals(1 + 3 * recordSize, fetchRegion.getOffsetPositions().get(0).getOffset());
+
+        Assert.assertEquals(0, partitionLog.fetchRegion(5 * recordSize + 1, Integer.MAX_VALUE).getOffsetPositions().size());
+
+        // last offset is recovered by scanning the batches after the last index entry.
+        PartitionLog reopened = new PartitionLog(new File(dir, "1.log"), 1, new OffsetIndex(new File(dir, "1.index"), 1), Integer.MAX_VALUE);
+        Assert.assertEquals(5 * recordSize, reopened.getLastOffset());
+    }
+
+    @Test
+    public void timeIndex() throws Exception {
+        GenericRecord records = buildRecords();
+        int recordSize = ((Collection) records.get("records")).size();
+
+        OffsetIndex offsetIndex = new OffsetIndex(new File(dir, "1.index"), 1);
+        PartitionLog partitionLog = new PartitionLog(new File(dir, "1.log"), 1, offsetIndex);
+
+        long[] maxTimestamps = {1000L, 3000L, 2000L, 4000L};
+        for (int i = 0; i < maxTimestamps.length; i++) {
+            records.put("maxTimestamp", maxTimestamps[i]);
+            partitionLog.add(1 + i * recordSize, records, recordSize);
+        }
+
+        Assert.assertEquals(1, partitionLog.lookupByTimestamp(500).getOffset());
+        Assert.assertEquals(1 + recordSize, partitionLog.lookupByTimestamp(1500).getOffset());
+
+        // batch whose max. timestamp is not greater than the previous one is not indexed.
+        TimeIndex.TimestampOffset timestampOffset = partitionLog.lookupByTimestamp(3500);
+        Assert.assertEquals(1 + 3 * recordSize, timestampOffset.getOffset());
+        Assert.assertEquals(4000L, timestampOffset.getTimestamp());
+
+        Assert.assertNull(partitionLog.lookupByTimestamp(4001));
+
+        TimeIndex timeIndex = new TimeIndex(new File(dir, "1" + PartitionLogHandler.TIME_INDEX_FILE_EXTENSION), 1);
+        Assert.assertEquals(4000L, timeIndex.getMaxTimestamp());
+        timeIndex.close();
+        partitionLog.close();
+
+        // max. timestamp of the sealed segment is read without opening it.
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            OpenSegmentCache openSegmentCache = new OpenSegmentCache(1, executor, 0);
+
+            PartitionLog sealed = new PartitionLog(new File(dir, "1.log"), 1, OffsetIndex.DEFAULT_MAX_INDEX_SIZE, PartitionLog.DEFAULT_INDEX_INTERVAL_BYTES, openSegmentCache);
+            Assert.assertEquals(4000L, sealed.getMaxTimestamp());
+            Assert.assertEquals(0, openSegmentCache.size());
+
+            sealed.close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void preallocateAndSeal() throws Exception {
+        GenericRecord records = buildRecords();
+        int recordSize = ((Collection) records.get("records")).size();
+
+        File logFile = new File(dir, "1.log");
+
+        PartitionLog partitionLog = new PartitionLog(logFile, 1, new OffsetIndex(new File(dir, "1.index"), 1));
+        partitionLog.preallocate(1024 * 1024);
+        Assert.assertEquals(1024 * 1024, logFile.length());
+
+        partitionLog.add(1, records, recordSize);
+        partitionLog.add(1 + recordSize, records, recordSize);
+        long size = partitionLog.getSize();
+        partitionLog.flush();
+
+        // size of the preallocated log is the end of the last batch.
+        PartitionLog reopened = new PartitionLog(logFile, 1, new OffsetIndex(new File(dir, "1.index"), 1));
+        Assert.assertEquals(size, reopened.getSize());
+        Assert.assertEquals(2 * recordSize, reopened.getLastOffset());
+
+        partitionLog.seal();
+        Assert.assertEquals(size, logFile.length());
+        Assert.assertTrue(partitionLog.isSealed());
+        Assert.assertNotEquals(0, partitionLog.add(1 + 2 * recordSize, records, recordSize));
+
+        Assert.assertEquals(2, partitionLog.fetchRegion(1, Integer.MAX_VALUE).getOffsetPositions().size());
+    }
+
+    @Test
+    public void flush() throws Exception {
+        GenericRecord records = buildRecords();
+        int recordSize = ((Collection) records.get("records")).size();
+
+        OffsetIndex offsetIndex = new OffsetIndex(new File(dir, "1.index"), 1);
+        PartitionLog partitionLog = new PartitionLog(new File(dir, "1.log"), 1, offsetIndex);
+
+        partitionLog.add(1, records, recordSize);
+        partitionLog.add(1 + recordSize, records, recordSize);
+        Assert.assertEquals(2 * recordSize, partitionLog.getUnflushedMessages());
+
+        FlushPolicy flushPolicy = new FlushPolicy(2 * recordSize, 0);
+        Assert.assertTrue(flushPolicy.shouldFlush(partitionLog.getUnflushedMessages(), partitionLog.getLastFlushTime(), System.currentTimeMillis()));
+
+        Assert.assertEquals(0, partitionLog.flush());
+        Assert.assertEquals(0, partitionLog.getUnflushedMessages());
+        Assert.assertFalse(flushPolicy.shouldFlush(partitionLog.getUnflushedMessages(), partitionLog.getLastFlushTime(), System.currentTimeMillis()));
+    }
+
+    @Test
+    public void lazyOpen() throws Exception {
+        GenericRecord records = buildRecords();
+        int recordSize = ((Collection) records.get("records")).size();
+
+        for (int i = 0; i < 2; i++) {
+            long baseOffset = 1 + i * recordSize;
+            PartitionLog partitionLog = new PartitionLog(new File(dir, baseOffset + ".log"), baseOffset, new OffsetIndex(new File(dir, baseOffset + ".index"), baseOffset));
+            partitionLog.add(baseOffset, records, recordSize);
+            partitionLog.seal();
+            partitionLog.close();
+        }
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            OpenSegmentCache openSegmentCache = new OpenSegmentCache(1, executor, 0);
+
+            PartitionLog first = new PartitionLog(new File(dir, "1.log"), 1, OffsetIndex.DEFAULT_MAX_INDEX_SIZE, PartitionLog.DEFAULT_INDEX_INTERVAL_BYTES, openSegmentCache);
+            PartitionLog second = new PartitionLog(new File(dir, (1 + recordSize) + ".log"), 1 + recordSize, OffsetIndex.DEFAULT_MAX_INDEX_SIZE, PartitionLog.DEFAULT_INDEX_INTERVAL_BYTES, openSegmentCache);
+
+            // files are not opened until the first read.
+            Assert.assertEquals(0, openSegmentCache.size());
+            Assert.assertEquals(new File(dir, "1.log").length(), first.getSize());
+
+            Assert.assertEquals(1, first.fetch(1, Integer.MAX_VALUE).getRecordsList().size());
+            Assert.assertEquals(recordSize, first.getLastOffset());
+
+            // the first segment is closed, and opened again on the next read.
+            Assert.assertEquals(1, second.fetch(1 + recordSize, Integer.MAX_VALUE).getRecordsList().size());
+            Assert.assertEquals(1, openSegmentCache.size());
+            Assert.assertEquals(1, first.fetch(1, Integer.MAX_VALUE).getRecordsList().size());
+
+            first.close();
+            second.close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void fetchRegionKeepsFilesOpen() throws Exception {
+        GenericRecord records = buildRecords();
+        int recordSize = ((Collection) records.get("records")).size();
+
+        for (int i = 0; i < 2; i++) {
+            long baseOffset = 1 + i * recordSize;
+            PartitionLog partitionLog = new PartitionLog(new File(dir, baseOffset + ".log"), baseOffset, new OffsetIndex(new File(dir, baseOffset + ".index"), baseOffset));
+            partitionLog.add(baseOffset, records, recordSize);
+            partitionLog.seal();
+            partitionLog.close();
+        }
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            OpenSegmentCache openSegmentCache = new OpenSegmentCache(1, executor, 0);
+
+            File firstFile = new File(dir, "1.log");
+            PartitionLog first = new PartitionLog(firstFile, 1, OffsetIndex.DEFAULT_MAX_INDEX_SIZE, PartitionLog.DEFAULT_INDEX_INTERVAL_BYTES, openSegmentCache);
+            PartitionLog second = new PartitionLog(new File(dir, (1 + recordSize) + ".log"), 1 + recordSize, OffsetIndex.DEFAULT_MAX_INDEX_SIZE, PartitionLog.DEFAULT_INDEX_INTERVAL_BYTES, openSegmentCache);
+
+            // region to be sent holds the file of the first segment.
+            LogHandler.FetchRegion fetchRegion = first.fetchRegion(1, Integer.MAX_VALUE);
+            Assert.assertEquals(1, fetchRegion.getOffsetPositions().size());
+
+            // the first segment is evicted, but its file is not closed while it is referenced.
+            Assert.assertEquals(1, second.fetch(1 + recordSize, Integer.MAX_VALUE).getRecordsList().size());
+            executor.submit(() -> {
+            }).get();
+            Assert.assertTrue(fetchRegion.getFileChannel().isOpen());
+
+            // region without records holds no reference.
+            second.fetchRegion(2 * recordSize + 1, Integer.MAX_VALUE).release();
+
+            // deleted segment is closed and deleted when the last reference is released.
+            first.delete();
+            Assert.assertTrue(firstFile.exists());
+            Assert.assertTrue(fetchRegion.getFileChannel().isOpen());
+
+            fetchRegion.release();
+            Assert.assertFalse(fetchRegion.getFileChannel().isOpen());
+            Assert.assertFalse(firstFile.exists());
+
+            second.close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void checkpoint() throws Exception {
+        GenericRecord records = buildRecords();
+        int recordSize = ((Collection) records.get("records")).size();
+
+        PartitionLog partitionLog = new PartitionLog(new File(dir, "1.log"), 1, new OffsetIndex(new File(dir, "1.index"), 1));
+        partitionLog.add(1, records, recordSize);
+        partitionLog.flush();
+        partitionLog.close();
+
+        TopicPartition topicPartition = new TopicPartition("checkpoint-topic", 0);
+
+        OffsetCheckpoint offsetCheckpoint = new OffsetCheckpoint(dir);
+        offsetCheckpoint.write(Collections.singletonMap(topicPartition, new OffsetCheckpoint.Entry(1, partitionLog.getLastOffset(), partitionLog.getSize())));
+
+        OffsetCheckpoint.Entry entry = offsetCheckpoint.read().get(topicPartition);
+        Assert.assertEquals(recordSize, entry.getLastOffset());
+
+        // active segment is not scanned with the checkpoint.
+        PartitionLog reopened = new PartitionLog(new File(dir, "1.log"), 1, new OffsetIndex(new File(dir, "1.index"), 1),
+                new TimeIndex(new File(dir, "1.timeindex"), 1), PartitionLog.DEFAULT_INDEX_INTERVAL_BYTES, entry);
+        Assert.assertEquals(partitionLog.getSize(), reopened.getSize());
+        Assert.assertEquals(recordSize, reopened.getLastOffset());
+
+        offsetCheckpoint.delete();
+        Assert.assertTrue(offsetCheckpoint.read().isEmpty());
+    }
+
+    @Test
+    public void recoverTornTail() throws Exception {
+        GenericRecord records = buildRecords();
+        int recordSize = ((Collection) records.get("records")).size();
+
+        File logFile = new File(dir, "1.log");
+        PartitionLog partitionLog = new PartitionLog(logFile, 1, new OffsetIndex(new File(dir, "1.index"), 1), 0);
+        for (int i = 0; i < 3; i++) {
+            partitionLog.add(1 + i * recordSize, records, recordSize);
+        }
+        long size = partitionLog.getSize();
+
+        // index entry of the batch which has not been written completely.
+        partitionLog.getOffsetIndex().add(1 + 3 * recordSize, (int) size, 100, recordSize);
+        partitionLog.close();
+
+        // partial batch header and records.
+        try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+            raf.seek(size);
+            raf.writeLong(1 + 3 * recordSize);
+            raf.writeInt(100);
+            raf.writeInt(recordSize);
+            raf.write(new byte[]{1, 2, 3});
+        }
+
+        PartitionLog recovered = new PartitionLog(logFile, 1, new OffsetIndex(new File(dir, "1.index"), 1), 0);
+        Assert.assertTrue(recovered.recover() > 0);
+        Assert.assertEquals(size, recovered.getSize());
+        Assert.assertEquals(size, logFile.length());
+        Assert.assertEquals(3 * recordSize, recovered.getLastOffset());
+        Assert.assertEquals(3, recovered.getOffsetIndex().getOffsetPositions().size());
+
+        // records are added after the last valid batch.
+        Assert.assertEquals(0, recovered.add(1 + 3 * recordSize, records, recordSize));
+        Assert.assertEquals(4, recovered.fetch(1, Integer.MAX_VALUE).getRecordsList().size());
+        recovered.close();
+
+        // index entry which points to no batch makes the index rebuilt.
+        OffsetIndex offsetIndex = new OffsetIndex(new File(dir, "1.index"), 1);
+        offsetIndex.truncateTo(1);
+        offsetIndex.add(1 + recordSize, 1, 100, recordSize);
+        offsetIndex.close();
+
+        recovered = new PartitionLog(logFile, 1, new OffsetIndex(new File(dir, "1.index"), 1), 0);
+        Assert.assertEquals(0, recovered.recover());
+        Assert.assertEquals(4, recovered.getOffsetIndex().getOffsetPositions().size());
+        Assert.assertEquals(1, recovered.fetch(1 + 3 * recordSize, Integer.MAX_VALUE).getRecordsList().size());
+        recovered.close();
+    }
+
+    @Test
+    public void discardBatchesIfIndexFails() throws Exception {
+        GenericRecord records = buildRecords();
+        int recordSize = ((Collection) records.get("records")).size();
+
+        File logFile = new File(dir, "1.log");
+        PartitionLog partitionLog = new PartitionLog(logFile, 1, new OffsetIndex(new File(dir, "1.index"), 1), 0);
+        Assert.assertEquals(0, partitionLog.add(1, records, recordSize));
+        long size = partitionLog.getSize();
+
+        // index entry ahead of the log makes the index reject the entry of the next batch.
+        partitionLog.getOffsetIndex().add(1 + recordSize, (int) size, 100, recordSize);
+
+        Assert.assertEquals(ClientServerSpec.ERROR_CODE_STORAGE_ERROR, partitionLog.add(1 + recordSize, records, recordSize));
+        Assert.assertEquals(size, partitionLog.getSize());
+        Assert.assertEquals(size, logFile.length());
+        Assert.assertEquals(recordSize, partitionLog.getLastOffset());
+
+        // retried produce is added just once.
+        partitionLog.getOffsetIndex().truncateTo(1);
+        Assert.assertEquals(0, partitionLog.add(1 + recordSize, records, recordSize));
+        Assert.assertEquals(2, partitionLog.fetch(1, Integer.MAX_VALUE).getRecordsList().size());
+        partitionLog.close();
+
+        PartitionLog recovered = new PartitionLog(logFile, 1, new OffsetIndex(new File(dir, "1.index"), 1), 0);
+        Assert.assertEquals(0, recovered.recover());
+        Assert.assertEquals(2 * recordSize, recovered.getLastOffset());
+        recovered.close();
+    }
+
+    @Test
+    public void restartOverEmptyPartitionDir() throws Exception {
+        // partition directory created just before a crash.
+        Assert.assertTrue(new File(dir, "empty-topic/0").mkdirs());
+
+        // partition directory holding just the files left by retention and compaction.
+        File leftoverDir = new File(dir, "empty-topic/1");
+        Assert.assertTrue(leftoverDir.mkdirs());
+        Assert.assertTrue(new File(leftoverDir, "1.log" + RetentionManager.DELETED_FILE_SUFFIX).createNewFile());
+        Assert.assertTrue(new File(leftoverDir, "101.log" + LogCompactor.CLEANED_FILE_SUFFIX).createNewFile());
+
+        File partitionDir = new File(dir, "empty-topic/2");
+        Assert.assertTrue(partitionDir.mkdirs());
+        new PartitionLog(new File(partitionDir, "1.log"), 1, new OffsetIndex(new File(partitionDir, "1.index"), 1), 0).close();
+
+        Map<TopicPartition, TreeMap<Long, String>> segmentMap = PartitionLogHandler.listSegments(Collections.singletonList(dir.getAbsolutePath()));
+        Assert.assertEquals(1, segmentMap.size());
+        Assert.assertEquals(1L, (long) segmentMap.get(new TopicPartition("empty-topic", 2)).lastKey());
+        Assert.assertEquals(0, leftoverDir.list().length);
+    }
+
+    @Test
+    public void logFormat() throws Exception {
+        // format version is written to the data directory without segments.
+        LogFormat logFormat = new LogFormat(dir);
+        logFormat.checkOrWrite();
+        Assert.assertTrue(new File(dir, LogFormat.FORMAT_FILE_NAME).exists());
+        logFormat.checkOrWrite();
+
+        // segments without format version are refused.
+        File oldDir = new File(dir, "old");
+        File partitionDir = new File(oldDir, "old-topic/0");
+        Assert.assertTrue(partitionDir.mkdirs());
+        Assert.assertTrue(new File(partitionDir, "1.log").createNewFile());
+        try {
+            new LogFormat(oldDir).checkOrWrite();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertFalse(new File(oldDir, LogFormat.FORMAT_FILE_NAME).exists());
+        }
+
+        // segments of another format version are refused.
+        Files.write(new File(oldDir, LogFormat.FORMAT_FILE_NAME).toPath(), "1\n".getBytes());
+        try {
+            new LogFormat(oldDir).checkOrWrite();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("[1]"));
+        }
+    }
+
+    @Test
+    public void recoverDuplicateAfterOffsetZero() throws Exception {
+        GenericRecord records = buildRecords();
+
+        // the last offset of the first batch is 0.
+        File logFile = new File(dir, "0.log");
+        PartitionLog partitionLog = new PartitionLog(logFile, 0, new OffsetIndex(new File(dir, "0.index"), 0), 0);
+        Assert.assertEquals(0, partitionLog.add(0, records, 1));
+        long size = partitionLog.getSize();
+        partitionLog.close();
+
+        // duplicate of the first batch.
+        byte[] batch = Arrays.copyOf(Files.readAllBytes(logFile.toPath()), (int) size);
+        Files.write(logFile.toPath(), batch, StandardOpenOption.APPEND);
+
+        PartitionLog recovered = new PartitionLog(logFile, 0, new OffsetIndex(new File(dir, "0.index"), 0), 0);
+        Assert.assertEquals(size, recovered.recover());
+        Assert.assertEquals(size, recovered.getSize());
+        Assert.assertEquals(0, recovered.getLastOffset());
+        recovered.close();
+    }
+
+    @Test
+    public void appendInOffsetOrder() throws Exception {
+        GenericRecord records = buildRecords();
+        int recordSize = ((Collection) records.get("records")).size();
+
+        PartitionLog partitionLog = new PartitionLog(new File(dir, "1.log"), 1, new OffsetIndex(new File(dir, "1.index"), 1), 0);
+        Assert.assertEquals(0, partitionLog.add(1 + recordSize, records, recordSize));
+
+        // batch whose offsets are not after the last offset is rejected, instead of being inserted into the index.
+        Assert.assertEquals(ClientServerSpec.ERROR_CODE_STORAGE_ERROR, partitionLog.add(1, records, recordSize));
+        Assert.assertEquals(2 * recordSize, partitionLog.getLastOffset());
+        Assert.assertEquals(1, partitionLog.getOffsetIndex().getOffsetPositions().size());
+
+        partitionLog.close();
+    }
+
+    @Test
+    public void fetchUpToHighwaterMark() throws Exception {
+        GenericRecord records = buildRecords();
+        int recordSize = ((Collection) records.get("records")).size();
+
+        PartitionLog partitionLog = new PartitionLog(new File(dir, "1.log"), 1, new OffsetIndex(new File(dir, "1.index"), 1), 0);
+        partitionLog.add(1, records, recordSize);
+        partitionLog.add(1 + recordSize, records, recordSize);
+
+        // the second batch is written, but not committed.
+        LogHandler.FetchRecord fetchRecord = partitionLog.fetch(1, Integer.MAX_VALUE, false, recordSize, 2 * recordSize);
+        Assert.assertEquals(1, fetchRecord.getRecordsList().size());
+        Assert.assertEquals(recordSize, fetchRecord.getHighwaterMarkOffset());
+        Assert.assertEquals(2 * recordSize, fetchRecord.getLogEndOffset());
+
+        Assert.assertTrue(partitionLog.fetch(1 + recordSize, Integer.MAX_VALUE, false, recordSize, 2 * recordSize).getRecordsList().isEmpty());
+        Assert.assertEquals(1, partitionLog.fetchRegion(1, Integer.MAX_VALUE, false, recordSize, 2 * recordSize).getOffsetPositions().size());
+
+        // caught-up fetch returns no records with the high-water mark.
+        fetchRecord = partitionLog.fetch(1 + 2 * recordSize, Integer.MAX_VALUE);
+        Assert.assertTrue(fetchRecord.getRecordsList().isEmpty());
+        Assert.assertEquals(2 * recordSize, fetchRecord.getHighwaterMarkOffset());
+
+        partitionLog.close();
+    }
+
+    @Test
+    public void verifyChecksum() throws Exception {
+        GenericRecord records = buildRecords();
+        int recordSize = ((Collection) records.get("records")).size();
+
+        File logFile = new File(dir, "1.log");
+        PartitionLog partitionLog = new PartitionLog(logFile, 1, new OffsetIndex(new File(dir, "1.index"), 1), 0);
+        partitionLog.add(1, records, recordSize);
+        long firstBatchSize = partitionLog.getSize();
+        partitionLog.add(1 + recordSize, records, recordSize);
+        partitionLog.seal();
+        partitionLog.close();
+
+        // flip a byte of the records of the second batch.
+        try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+            long position = firstBatchSize + PartitionLog.BATCH_HEADER_SIZE + 4;
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0xFF);
+        }
+
+        PartitionLog corrupted = new PartitionLog(logFile, 1, OffsetIndex.DEFAULT_MAX_INDEX_SIZE, PartitionLog.DEFAULT_INDEX_INTERVAL_BYTES, null);
+        Assert.assertEquals(1 + recordSize, corrupted.verify(bytes -> {
+        }));
+
+        // the batches before the corrupt one are returned.
+        LogHandler.FetchRecord fetchRecord = corrupted.fetch(1, Integer.MAX_VALUE, true);
+        Assert.assertEquals(ClientServerSpec.ERROR_CODE_CORRUPT_RECORDS, fetchRecord.getErrorCode());
+        Assert.assertEquals(1, fetchRecord.getRecordsList().size());
+        Assert.assertEquals(ClientServerSpec.ERROR_CODE_CORRUPT_RECORDS, corrupted.fetchRegion(1 + recordSize, Integer.MAX_VALUE, true).getErrorCode());
+
+        Assert.assertEquals(1, new SegmentScrubber(null, 0).scrub(new TopicPartition("scrub-topic", 0), Collections.singletonList(corrupted)));
+        corrupted.close();
+
+        // recovery truncates the log at the corrupt batch.
+        PartitionLog recovered = new PartitionLog(logFile, 1, new OffsetIndex(new File(dir, "1.index"), 1), 0);
+        Assert.assertTrue(recovered.recover() > 0);
+        Assert.assertEquals(firstBatchSize, recovered.getSize());
+        Assert.assertEquals(recordSize, recovered.getLastOffset());
+        Assert.assertEquals(-1, recovered.verify(bytes -> {
+        }));
+        recovered.close();
+    }
+
+    private GenericRecord buildRecords() {
+        GenericRecord produceRequest = new ProduceRequestTestSkip().buildProduceRequest();
+        GenericRecord produceRequestMessage = ((Collection<GenericRecord>) produceRequest.get("produceRequestMessageArray")).iterator().next();
+        GenericRecord produceRequestSubMessage = ((Collection<GenericRecord>) produceRequestMessage.get("produceRequestSubMessageArray")).iterator().next();
+
+        return (GenericRecord) produceRequestSubMessage.get("records");
+    }
+}
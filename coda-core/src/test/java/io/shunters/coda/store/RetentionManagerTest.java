@@ -0,0 +1,139 @@
+package io.shunters.coda.store;
+
+import io.shunters.coda.api.BaseRequestTest;
+import io.shunters.coda.api.ProduceRequestTestSkip;
+import io.shunters.coda.offset.TopicPartition;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class RetentionManagerTest extends BaseRequestTest {
+
+    private File dir;
+
+    @Before
+    public void createDir() throws Exception {
+        dir = Files.createTempDirectory("coda-retention").toFile();
+    }
+
+    @After
+    public void deleteDir() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void deleteExpiredSegments() throws Exception {
+        long now = System.currentTimeMillis();
+
+        List<PartitionLog> partitionLogs = createSegments(now);
+        int recordSize = (int) partitionLogs.get(0).getLastOffset();
+
+        TopicPartition topicPartition = new TopicPartition("retention-topic", 0);
+        ConcurrentMap<TopicPartition, List<PartitionLog>> partitionLogMap = new ConcurrentHashMap<>();
+        partitionLogMap.put(topicPartition, partitionLogs);
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            RetentionManager retentionManager = new RetentionManager(partitionLogMap, executor, 0, 0);
+
+            Assert.assertEquals(2, retentionManager.deleteSegments(topicPartition, partitionLogs, now));
+            Assert.assertEquals(2, partitionLogs.size());
+            Assert.assertEquals(1 + 2 * recordSize, partitionLogs.get(0).getBaseOffset());
+
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+
+            // only the files of the retained segments are left.
+            Assert.assertFalse(new File(dir, "1.log").exists());
+            Assert.assertFalse(new File(dir, "1.log" + RetentionManager.DELETED_FILE_SUFFIX).exists());
+            Assert.assertEquals(2 * 3, dir.listFiles().length);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void paceDeletes() throws Exception {
+        long now = System.currentTimeMillis();
+
+        List<PartitionLog> partitionLogs = createSegments(now);
+        long segmentSize = partitionLogs.get(0).getSize();
+
+        TopicPartition topicPartition = new TopicPartition("retention-topic", 0);
+        ConcurrentMap<TopicPartition, List<PartitionLog>> partitionLogMap = new ConcurrentHashMap<>();
+        partitionLogMap.put(topicPartition, partitionLogs);
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        try {
+            // one segment per 10 seconds.
+            RetentionManager retentionManager = new RetentionManager(partitionLogMap, executor, 0, segmentSize / 10);
+
+            // segments are removed at once without waiting for the pace.
+            Assert.assertEquals(2, retentionManager.deleteSegments(topicPartition, partitionLogs, now));
+            Assert.assertTrue(System.currentTimeMillis() - now < 5000);
+
+            // files of the second segment are deleted after the pace of the first one.
+            List<Long> delays = new ArrayList<>();
+            for (Runnable task : executor.getQueue()) {
+                delays.add(((ScheduledFuture) task).getDelay(TimeUnit.MILLISECONDS));
+            }
+            Collections.sort(delays);
+
+            Assert.assertTrue(delays.get(delays.size() - 1) > 5000);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param now
+     * @return 3 sealed segments and the active one, of which the first two segments and the active one are expired.
+     * @throws Exception
+     */
+    private List<PartitionLog> createSegments(long now) throws Exception {
+        GenericRecord produceRequest = new ProduceRequestTestSkip().buildProduceRequest();
+        GenericRecord produceRequestMessage = ((Collection<GenericRecord>) produceRequest.get("produceRequestMessageArray")).iterator().next();
+        GenericRecord produceRequestSubMessage = ((Collection<GenericRecord>) produceRequestMessage.get("produceRequestSubMessageArray")).iterator().next();
+        GenericRecord records = (GenericRecord) produceRequestSubMessage.get("records");
+        int recordSize = ((Collection) records.get("records")).size();
+
+        List<PartitionLog> partitionLogs = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            long baseOffset = 1 + i * recordSize;
+            PartitionLog partitionLog = new PartitionLog(new File(dir, baseOffset + ".log"), baseOffset, new OffsetIndex(new File(dir, baseOffset + ".index"), baseOffset));
+            partitionLog.add(baseOffset, records, recordSize);
+
+            // the last segment is the active one.
+            if (i < 3) {
+                partitionLog.seal();
+            }
+
+            // the first two segments and the active one are expired.
+            if (i != 2) {
+                new File(partitionLog.getFilePath()).setLastModified(now - RetentionPolicy.DEFAULT_RETENTION_MS - 1000);
+            }
+
+            partitionLogs.add(partitionLog);
+        }
+
+        return partitionLogs;
+    }
+}
@@ -0,0 +1,41 @@
+package io.shunters.coda.util;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class BufferPoolTest {
+
+    @Test
+    public void allocateAndRelease() {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        BufferPool bufferPool = new BufferPool(64 * 1024 * 1024, metricRegistry);
+
+        ByteBuffer buffer = bufferPool.allocate(3000);
+        Assert.assertTrue(buffer.isDirect());
+        Assert.assertEquals(4096, buffer.capacity());
+        Assert.assertEquals(3000, buffer.remaining());
+        Assert.assertEquals(4096, bufferPool.getOutstandingBytes());
+
+        bufferPool.release(buffer);
+        Assert.assertEquals(0, bufferPool.getOutstandingBytes());
+        Assert.assertEquals(4096, bufferPool.getPooledBytes());
+
+        // the same size class is served from the pool.
+        ByteBuffer reused = bufferPool.allocate(4096);
+        Assert.assertSame(buffer, reused);
+        Assert.assertEquals(4096, reused.remaining());
+        Assert.assertEquals(1, metricRegistry.meter("BufferPool.hit").getCount());
+        Assert.assertEquals(1, metricRegistry.meter("BufferPool.miss").getCount());
+
+        bufferPool.release(reused);
+
+        // buffers larger than the max. size class are not pooled.
+        ByteBuffer large = bufferPool.allocate(BufferPool.MAX_CLASS_SIZE + 1);
+        bufferPool.release(large);
+        Assert.assertEquals(0, bufferPool.getOutstandingBytes());
+        Assert.assertEquals(4096, bufferPool.getPooledBytes());
+    }
+}
@@ -0,0 +1,61 @@
+package io.shunters.coda.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TimerWheelTest {
+
+    @Test
+    public void expireAfterDelay() throws Exception {
+        // one round of the wheel is shorter than the longest delay.
+        TimerWheel timerWheel = new TimerWheel("timer-wheel-test", 5, 8);
+        try {
+            List<Long> expired = new CopyOnWriteArrayList<>();
+            CountDownLatch latch = new CountDownLatch(3);
+
+            long startTime = System.currentTimeMillis();
+            for (long delayMs : new long[]{100, 10, 50}) {
+                timerWheel.schedule(() -> {
+                    Assert.assertTrue(System.currentTimeMillis() - startTime >= delayMs);
+
+                    expired.add(delayMs);
+                    latch.countDown();
+                }, delayMs);
+            }
+
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(10L, (long) expired.get(0));
+            Assert.assertEquals(50L, (long) expired.get(1));
+            Assert.assertEquals(100L, (long) expired.get(2));
+        } finally {
+            timerWheel.stop();
+        }
+    }
+
+    @Test
+    public void cancel() throws Exception {
+        TimerWheel timerWheel = new TimerWheel("timer-wheel-test", 5, 8);
+        try {
+            AtomicBoolean run = new AtomicBoolean(false);
+            CountDownLatch latch = new CountDownLatch(1);
+
+            TimerWheel.Timeout timeout = timerWheel.schedule(() -> run.set(true), 20);
+            timerWheel.schedule(latch::countDown, 50);
+
+            Assert.assertTrue(timeout.cancel());
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Assert.assertFalse(run.get());
+
+            // timeout is cancelled just once.
+            Assert.assertFalse(timeout.cancel());
+        } finally {
+            timerWheel.stop();
+        }
+    }
+}